@@ -35,10 +35,16 @@ fi
 #   -o,--outputPath <arg>   MARC XML output path (default: ENV["LD4P_MARCXML"])
 #   -r,--replace            Replace existing XML files (default: false)
 
-java -cp ${jar} edu.stanford.MarcToXML -i ${mrc_file} -o ${LD4P_MARCXML} -l ${log_file} -r
+# Resolve authority-keys from a local snapshot, when available, instead of the authority DB
+auth_opts=""
+if [ -f "${LD4P_AUTH_SNAPSHOT}" ]; then
+    auth_opts="-s ${LD4P_AUTH_SNAPSHOT}"
+fi
+
+java -cp ${jar} edu.stanford.MarcToXML -i ${mrc_file} -o ${LD4P_MARCXML} -l ${log_file} -r ${auth_opts}
 
 success=$?
-if [ ${success} ]; then
+if [ ${success} -eq 0 ]; then
     echo "Completed conversion."
 else
     echo "ERROR: Conversion failed for ${mrc_file}" | tee --append ${err_file}
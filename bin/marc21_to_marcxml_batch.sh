@@ -20,16 +20,40 @@ if [ ! -d "${LD4P_LOGS}" ]; then
     exit 1
 fi
 
+# Java library, built from ./java sources and copied to ./lib
+jar="${LD4P_LIB}/xform-marc21-to-xml-jar-with-dependencies.jar"
+if [ ! -f "$jar" ]; then
+    echo "ERROR: cannot find JAR: $jar"
+    exit 1
+fi
+
+log_date=$(date +%Y%m%dT%H%M%S)
+log_file="${LD4P_LOGS}/batch_marc21-to-xml_${log_date}.log"
+err_file="${LD4P_LOGS}/batch_marc21-to-xml_${log_date}_errors.log"
+
+# Resolve authority-keys from a local snapshot, when available, instead of the authority DB
+auth_opts=""
+if [ -f "${LD4P_AUTH_SNAPSHOT}" ]; then
+    auth_opts="-s ${LD4P_AUTH_SNAPSHOT}"
+fi
+
 echo "Searching MARC files: ${LD4P_MARC}/*.mrc"
-for marc_bin in $(find ${LD4P_MARC} -type f -name '*.mrc')
+echo "Logging conversion to: ${log_file}"
+
+# Convert all the MARC files in one JVM; it reports 'CONVERTED<TAB>file' or 'FAILED<TAB>file'
+# for each file on STDOUT (see edu.stanford.MarcToXMLBatch)
+java -cp ${jar} edu.stanford.MarcToXMLBatch -i ${LD4P_MARC} -o ${LD4P_MARCXML} -l ${log_file} -a -r \
+    -j ${LD4P_FILE_THREADS:-4} ${auth_opts} |
+while IFS=$'\t' read -r result marc_bin
 do
-    ${CONVERT_SCRIPT} ${marc_bin}
-    SUCCESS=$?
-    if [ ${SUCCESS} ]; then
+    if [ "${result}" == "CONVERTED" ]; then
+        echo "Converted MARC file: ${marc_bin}"
         if [ "${LD4P_ARCHIVE_ENABLED}" == "true" ]; then
             # Archive the marc_bin file (preserve timestamps etc.)
             rsync -a --update "${marc_bin}" "${LD4P_MARC_ARCHIVE}/" && rm ${marc_bin}
         fi
+    else
+        echo "ERROR: Conversion failed for ${marc_bin}" | tee --append ${err_file}
     fi
 done
 echo "Completed MARC files: ${LD4P_MARC}/*.mrc"
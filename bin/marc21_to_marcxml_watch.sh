@@ -0,0 +1,53 @@
+#!/bin/bash
+
+SCRIPT_PATH=$( cd $(dirname $0) && pwd -P )
+export LD4P_ROOT=$( cd "${SCRIPT_PATH}/.." && pwd -P )
+export LD4P_CONFIG="${LD4P_ROOT}/config/config.sh"
+source ${LD4P_CONFIG}
+
+if [ ! -d "${LD4P_MARC}" ]; then
+    echo "Failed to configure LD4P_MARC data directory: ${LD4P_MARC}"
+    exit 1
+fi
+
+if [ ! -d "${LD4P_MARCXML}" ]; then
+    echo "Failed to configure LD4P_MARCXML data directory: ${LD4P_MARCXML}"
+    exit 1
+fi
+
+if [ ! -d "${LD4P_LOGS}" ]; then
+    echo "Failed to configure LD4P_LOGS directory: ${LD4P_LOGS}"
+    exit 1
+fi
+
+# Java library, built from ./java sources and copied to ./lib
+jar="${LD4P_LIB}/xform-marc21-to-xml-jar-with-dependencies.jar"
+if [ ! -f "$jar" ]; then
+    echo "ERROR: cannot find JAR: $jar"
+    exit 1
+fi
+
+log_date=$(date +%Y%m%dT%H%M%S)
+log_file="${LD4P_LOGS}/watch_marc21-to-xml_${log_date}.log"
+
+# Resolve authority-keys from a local snapshot, when available, instead of the authority DB
+auth_opts=""
+if [ -f "${LD4P_AUTH_SNAPSHOT}" ]; then
+    auth_opts="-s ${LD4P_AUTH_SNAPSHOT}"
+fi
+
+# The watch moves the converted MARC files to the archive
+archive_opts=""
+if [ "${LD4P_ARCHIVE_ENABLED}" == "true" ]; then
+    mkdir -p "${LD4P_MARC_ARCHIVE}"
+    archive_opts="-A ${LD4P_MARC_ARCHIVE}"
+fi
+
+echo "Watching MARC files: ${LD4P_MARC}/*.mrc"
+echo "Logging conversion to: ${log_file}"
+
+# Convert the MARC files as they are complete, until the JVM is stopped (e.g. kill -TERM);
+# it reports 'CONVERTED<TAB>file' or 'FAILED<TAB>file' for each file on STDOUT
+# (see edu.stanford.MarcToXMLWatch, which stops the logging itself when the files in progress are done)
+exec java -Dlog4j.shutdownHookEnabled=false -cp ${jar} edu.stanford.MarcToXMLWatch -i ${LD4P_MARC} -o ${LD4P_MARCXML} -l ${log_file} -a -r \
+    -j ${LD4P_FILE_THREADS:-4} -S ${LD4P_SETTLE_SECONDS:-10} ${auth_opts} ${archive_opts}
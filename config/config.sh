@@ -15,6 +15,15 @@ export LD4P_DATA="${LD4P_ROOT}/data"
 export LD4P_MARC="${LD4P_DATA}/Marc"
 export LD4P_MARCXML="${LD4P_DATA}/MarcXML"
 
+# Optional authority snapshot, see edu.stanford.AuthSnapshotExport
+export LD4P_AUTH_SNAPSHOT="${LD4P_DATA}/authorities.snapshot"
+
+# MARC files converted concurrently by bin/marc21_to_marcxml_batch.sh and bin/marc21_to_marcxml_watch.sh
+export LD4P_FILE_THREADS=4
+
+# Seconds a MARC file is unchanged before bin/marc21_to_marcxml_watch.sh converts it
+export LD4P_SETTLE_SECONDS=10
+
 export LD4P_ARCHIVE_ENABLED=false
 export LD4P_MARC_ARCHIVE="${LD4P_DATA}/Marc_Archive"
 
@@ -0,0 +1,68 @@
+package edu.stanford;
+
+import org.marc4j.marc.Record;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Resolves the authority-keys of records with AuthDBLookup.marcResolveAuthorities, against
+ * an in-memory SQLite authority DB (see BenchmarkRecords).  The authority cache is disabled
+ * by default, so every operation queries the DB.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AuthResolutionBenchmark {
+
+    @Param({"5", "50"})
+    public int fields;
+
+    @Param({"1", "10"})
+    public int headings;
+
+    @Param({"1", "100"})
+    public int batchSize;
+
+    @Param({"0"})
+    public int cacheSize;
+
+    private byte[] marcBytes;
+    private AuthDBLookup authDBLookup;
+    private List<Record> records;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        marcBytes = BenchmarkRecords.marcBytes(BenchmarkRecords.createRecords(fields, headings));
+        authDBLookup = new AuthDBLookup();
+        authDBLookup.dbConnection = BenchmarkRecords.authorityDB();
+        if (cacheSize > 0)
+            authDBLookup.setAuthCache(new AuthCache(cacheSize, 0));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        authDBLookup.closeConnection();
+    }
+
+    // The resolution replaces the authority subfields, so every operation resolves fresh records
+    @Setup(Level.Invocation)
+    public void readRecords() {
+        records = BenchmarkRecords.readRecords(marcBytes);
+    }
+
+    @Benchmark
+    public List<Record> marcResolveAuthorities() {
+        for (int i = 0; i < records.size(); i += batchSize)
+            authDBLookup.marcResolveAuthorities(records.subList(i, Math.min(i + batchSize, records.size())));
+        return records;
+    }
+
+}
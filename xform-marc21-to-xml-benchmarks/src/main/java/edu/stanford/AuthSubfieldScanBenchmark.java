@@ -0,0 +1,81 @@
+package edu.stanford;
+
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * The subfield scan of AuthDBLookup.marcResolveAuthorities, without the authority queries:
+ * the lookup returns the authorities of all the keys from a map.  Run it with the GC profiler
+ * (-prof gc) for the bytes allocated per operation.  Every operation restores the authority
+ * subfields of the headings first, without allocation, because the resolution replaces them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class AuthSubfieldScanBenchmark {
+
+    @Param({"50", "500"})
+    public int fields;
+
+    @Param({"1", "10"})
+    public int headings;
+
+    private List<Record> records;
+    private AuthDBLookup authDBLookup;
+
+    // The headings and their subfields before the resolution
+    private final List<DataField> headingFields = new ArrayList<>();
+    private final List<Subfield[]> headingSubfields = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        records = BenchmarkRecords.readRecords(BenchmarkRecords.marcBytes(BenchmarkRecords.createRecords(fields, headings)));
+        Map<String, AuthURIs> authorities = new HashMap<>();
+        for (int i = 0; i < BenchmarkRecords.AUTH_KEYS; i++) {
+            AuthURIs authURIs = new AuthURIs("sh " + (85000000 + i));
+            for (String tag : AuthDBLookup.AUTH_URI_TAGS)
+                authURIs.addURI(tag, "http://id.example.org/" + tag + "/" + i);
+            authorities.put(BenchmarkRecords.authKey(i), authURIs);
+        }
+        authDBLookup = new AuthDBLookup() {
+            @Override
+            Map<String, AuthURIs> lookupAuthorities(Collection<String> keys) {
+                return authorities;
+            }
+        };
+        for (Record record : records) {
+            for (DataField dataField : record.getDataFields()) {
+                if (dataField.getTag().equals("650")) {
+                    headingFields.add(dataField);
+                    headingSubfields.add(dataField.getSubfields().toArray(new Subfield[0]));
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Record> marcResolveAuthorities() {
+        for (int i = 0; i < headingFields.size(); i++) {
+            List<Subfield> subfields = headingFields.get(i).getSubfields();
+            subfields.clear();
+            for (Subfield sf : headingSubfields.get(i))
+                subfields.add(sf);
+        }
+        return authDBLookup.marcResolveAuthorities(records);
+    }
+
+}
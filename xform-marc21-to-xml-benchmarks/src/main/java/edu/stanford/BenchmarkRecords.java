@@ -0,0 +1,122 @@
+package edu.stanford;
+
+import org.marc4j.MarcReader;
+import org.marc4j.MarcStreamReader;
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Synthetic MARC records and authority data for the benchmarks.  A record has a number of
+ * note fields, to vary its size, and a number of linked headings, each with an authority-key
+ * ('=') subfield and an unauthorized ('?') subfield, to vary the authority resolution work.
+ */
+class BenchmarkRecords {
+
+    // Records per benchmark operation
+    static final int RECORDS = 100;
+
+    // Authority records in the stand-in authority DB; the headings cycle through their keys
+    static final int AUTH_KEYS = 10000;
+
+    private static final String NOTE = "Lorem ipsum dolor sit amet, consectetur adipiscing elit, " +
+            "sed do eiusmod tempor incididunt ut labore et dolore magna aliqua.";
+
+    static List<Record> createRecords(int fields, int headings) {
+        MarcFactory factory = MarcFactory.newInstance();
+        List<Record> records = new ArrayList<>(RECORDS);
+        for (int r = 0; r < RECORDS; r++) {
+            Record record = factory.newRecord("00000ccm a2200000   4500");
+            record.addVariableField(factory.newControlField("001", String.valueOf(r + 1)));
+            record.addVariableField(factory.newControlField("003", "SIRSI"));
+            record.addVariableField(factory.newControlField("008", "731212|||||||||fr            ||| | fre  "));
+            for (int f = 0; f < fields; f++) {
+                DataField note = factory.newDataField("500", ' ', ' ');
+                note.addSubfield(factory.newSubfield('a', NOTE));
+                record.addVariableField(note);
+            }
+            for (int h = 0; h < headings; h++) {
+                DataField heading = factory.newDataField("650", ' ', '0');
+                heading.addSubfield(factory.newSubfield('a', "Heading " + h));
+                heading.addSubfield(factory.newSubfield('=', "^A" + authKey(r * headings + h)));
+                heading.addSubfield(factory.newSubfield('?', "UNAUTHORIZED"));
+                record.addVariableField(heading);
+            }
+            records.add(record);
+        }
+        return records;
+    }
+
+    static String authKey(int i) {
+        return String.valueOf(1 + i % AUTH_KEYS);
+    }
+
+    static byte[] marcBytes(List<Record> records) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcStreamWriter writer = new MarcStreamWriter(out, "UTF-8");
+        for (Record record : records)
+            writer.write(record);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    static List<Record> readRecords(byte[] marcBytes) {
+        MarcReader reader = new MarcStreamReader(new ByteArrayInputStream(marcBytes));
+        List<Record> records = new ArrayList<>(RECORDS);
+        while (reader.hasNext())
+            records.add(reader.next());
+        return records;
+    }
+
+    /**
+     * @return a connection to an in-memory authority DB, with 92X URIs for all the authority-keys
+     */
+    static Connection authorityDB() throws SQLException {
+        Connection connection = DriverManager.getConnection("jdbc:sqlite::memory:");
+        try (Statement s = connection.createStatement()) {
+            s.executeUpdate("CREATE TABLE AUTHORITY (authority_key TEXT, authority_id TEXT, ved_offset INTEGER)");
+            s.executeUpdate("CREATE TABLE AUTHORVED (offset INTEGER, tag_number TEXT, tag TEXT)");
+            s.executeUpdate("CREATE INDEX AUTHORITY_KEY ON AUTHORITY (authority_key)");
+            s.executeUpdate("CREATE INDEX AUTHORVED_OFFSET ON AUTHORVED (offset)");
+        }
+        connection.setAutoCommit(false);
+        try (PreparedStatement authority = connection.prepareStatement("INSERT INTO AUTHORITY VALUES (?, ?, ?)");
+             PreparedStatement authorved = connection.prepareStatement("INSERT INTO AUTHORVED VALUES (?, ?, ?)")) {
+            for (int i = 1; i <= AUTH_KEYS; i++) {
+                authority.setString(1, String.valueOf(i));
+                authority.setString(2, "sh " + (85000000 + i));
+                authority.setInt(3, i);
+                authority.addBatch();
+                authorved.setInt(1, i);
+                authorved.setString(2, "150");
+                authorved.setString(3, "Heading " + i);
+                authorved.addBatch();
+                for (String tag : AuthDBLookup.AUTH_URI_TAGS) {
+                    authorved.setInt(1, i);
+                    authorved.setString(2, tag);
+                    authorved.setString(3, "http://id.example.org/" + tag + "/" + i);
+                    authorved.addBatch();
+                }
+            }
+            authority.executeBatch();
+            authorved.executeBatch();
+        }
+        connection.commit();
+        connection.setAutoCommit(true);
+        return connection;
+    }
+
+}
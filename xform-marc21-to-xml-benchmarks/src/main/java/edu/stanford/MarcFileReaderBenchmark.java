@@ -0,0 +1,68 @@
+package edu.stanford;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Reads the records of a binary MARC file as their bytes (RawMarcReader), from a FileInputStream,
+ * as a buffered stream, or from the memory-mapped windows of a MappedFileInputStream.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarcFileReaderBenchmark {
+
+    private static final int COPIES = 100;
+
+    @Param({"5", "50"})
+    public int fields;
+
+    private Path marcFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] marcBytes = BenchmarkRecords.marcBytes(BenchmarkRecords.createRecords(fields, 0));
+        marcFile = Files.createTempFile("MarcFileReaderBenchmark", ".mrc");
+        try (OutputStream out = Files.newOutputStream(marcFile)) {
+            for (int i = 0; i < COPIES; i++)
+                out.write(marcBytes);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(marcFile);
+    }
+
+    private static void readRecords(InputStream input, Blackhole bh) throws IOException {
+        try (InputStream in = input) {
+            RawMarcReader reader = new RawMarcReader(in);
+            while (reader.hasNext())
+                bh.consume(reader.nextRaw());
+        }
+    }
+
+    @Benchmark
+    public void fileRead(Blackhole bh) throws IOException {
+        readRecords(new FileInputStream(marcFile.toFile()), bh);
+    }
+
+    @Benchmark
+    public void mappedRead(Blackhole bh) throws IOException {
+        readRecords(new MappedFileInputStream(marcFile), bh);
+    }
+
+}
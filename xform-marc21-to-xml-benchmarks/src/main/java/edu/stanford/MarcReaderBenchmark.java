@@ -0,0 +1,44 @@
+package edu.stanford;
+
+import org.marc4j.MarcReader;
+import org.marc4j.MarcStreamReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Parses binary MARC records with the MarcStreamReader, as the converters read their input.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarcReaderBenchmark {
+
+    @Param({"5", "50"})
+    public int fields;
+
+    @Param({"1", "10"})
+    public int headings;
+
+    private byte[] marcBytes;
+
+    @Setup
+    public void setUp() {
+        marcBytes = BenchmarkRecords.marcBytes(BenchmarkRecords.createRecords(fields, headings));
+    }
+
+    @Benchmark
+    public void readRecords(Blackhole bh) {
+        MarcReader reader = new MarcStreamReader(new ByteArrayInputStream(marcBytes));
+        while (reader.hasNext())
+            bh.consume(reader.next());
+    }
+
+}
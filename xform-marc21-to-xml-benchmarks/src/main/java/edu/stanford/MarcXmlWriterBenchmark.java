@@ -0,0 +1,88 @@
+package edu.stanford;
+
+import org.marc4j.MarcWriter;
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.Record;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Serializes records to MARC-XML with the MarcXmlWriter and the StreamingMarcXmlWriter, both as
+ * one collection (MarcToXMLStream) and as a document per record (MarcToXML), into memory so no
+ * file I/O is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MarcXmlWriterBenchmark {
+
+    @Param({"5", "50"})
+    public int fields;
+
+    @Param({"1", "10"})
+    public int headings;
+
+    private List<Record> records;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        records = BenchmarkRecords.createRecords(fields, headings);
+        out = new ByteArrayOutputStream(1 << 20);
+    }
+
+    @Benchmark
+    public int writeCollection() {
+        out.reset();
+        MarcWriter writer = new MarcXmlWriter(out, true);
+        for (Record record : records)
+            writer.write(record);
+        writer.close();
+        return out.size();
+    }
+
+    @Benchmark
+    public int writeRecordDocuments() {
+        int size = 0;
+        for (Record record : records) {
+            out.reset();
+            MarcWriter writer = new MarcXmlWriter(out, true);
+            writer.write(record);
+            writer.close();
+            size += out.size();
+        }
+        return size;
+    }
+
+    @Benchmark
+    public int streamingWriteCollection() {
+        out.reset();
+        MarcWriter writer = new StreamingMarcXmlWriter(out, true);
+        for (Record record : records)
+            writer.write(record);
+        writer.close();
+        return out.size();
+    }
+
+    @Benchmark
+    public int streamingWriteRecordDocuments() {
+        int size = 0;
+        for (Record record : records) {
+            out.reset();
+            MarcWriter writer = new StreamingMarcXmlWriter(out, true);
+            writer.write(record);
+            writer.close();
+            size += out.size();
+        }
+        return size;
+    }
+
+}
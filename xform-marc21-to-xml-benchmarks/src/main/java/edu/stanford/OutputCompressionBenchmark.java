@@ -0,0 +1,51 @@
+package edu.stanford;
+
+import org.marc4j.MarcWriter;
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.Record;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Writes a MARC-XML collection through the buffered output stream of each OutputCompression,
+ * at its default level, into memory so only the serialization and compression are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutputCompressionBenchmark {
+
+    @Param({"none", "gzip", "zstd"})
+    public String compression;
+
+    private OutputCompression outputCompression;
+    private List<Record> records;
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setUp() {
+        outputCompression = OutputCompression.forName(compression);
+        records = BenchmarkRecords.createRecords(50, 1);
+        out = new ByteArrayOutputStream(1 << 20);
+    }
+
+    @Benchmark
+    public int writeCollection() throws IOException {
+        out.reset();
+        MarcWriter writer = new MarcXmlWriter(outputCompression.outputStream(out, outputCompression.defaultLevel), true);
+        for (Record record : records)
+            writer.write(record);
+        writer.close();
+        return out.size();
+    }
+
+}
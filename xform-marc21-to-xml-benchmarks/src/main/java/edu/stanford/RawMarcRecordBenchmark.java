@@ -0,0 +1,51 @@
+package edu.stanford;
+
+import org.marc4j.MarcReader;
+import org.marc4j.MarcStreamReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Converts binary MARC records without authority keys to MARC-XML records, as MarcToXML
+ * writes them into chunks: parsed into Records and serialized with the MarcXmlWriter, or
+ * serialized from their bytes by the raw-byte fast path (RawMarcRecord).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RawMarcRecordBenchmark {
+
+    @Param({"5", "50"})
+    public int fields;
+
+    private byte[] marcBytes;
+
+    @Setup
+    public void setUp() {
+        marcBytes = BenchmarkRecords.marcBytes(BenchmarkRecords.createRecords(fields, 0));
+    }
+
+    @Benchmark
+    public void recordConversion(Blackhole bh) throws IOException {
+        MarcReader reader = new MarcStreamReader(new ByteArrayInputStream(marcBytes));
+        while (reader.hasNext())
+            bh.consume(MarcXmlChunkWriter.recordXml(reader.next()));
+    }
+
+    @Benchmark
+    public void rawConversion(Blackhole bh) {
+        RawMarcReader reader = new RawMarcReader(new ByteArrayInputStream(marcBytes));
+        while (reader.hasNext())
+            bh.consume(reader.nextRaw().toMarcXml());
+    }
+
+}
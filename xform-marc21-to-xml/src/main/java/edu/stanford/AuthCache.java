@@ -0,0 +1,109 @@
+package edu.stanford;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * A bounded LRU cache of authority-key lookups, so the same headings are not
+ * resolved against the authority DB for every record that uses them.
+ * Entries can expire after a time-to-live; a TTL of zero never expires entries.
+ */
+class AuthCache {
+
+    static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private static class Entry {
+        final AuthURIs authURIs;
+        final long created;
+
+        Entry(AuthURIs authURIs, long created) {
+            this.authURIs = authURIs;
+            this.created = created;
+        }
+    }
+
+    AuthCache(int maxEntries, long ttlSeconds) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        // An access-ordered map keeps the least recently used entry first
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                if (size() > AuthCache.this.maxEntries) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized AuthURIs get(String key) {
+        Entry entry = entries.get(key);
+        if (entry != null && expired(entry, System.nanoTime())) {
+            entries.remove(key);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.authURIs;
+    }
+
+    synchronized void put(String key, AuthURIs authURIs) {
+        entries.put(key, new Entry(authURIs, System.nanoTime()));
+    }
+
+    private boolean expired(Entry entry, long now) {
+        return ttlNanos > 0 && now - entry.created > ttlNanos;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    synchronized long getExpirations() {
+        return expirations;
+    }
+
+    synchronized double hitRatio() {
+        long lookups = hits + misses;
+        return (lookups == 0) ? 0.0 : (double) hits / lookups;
+    }
+
+    synchronized String stats() {
+        return String.format("Authority cache: entries=%d/%d hits=%d misses=%d hit-ratio=%.3f evictions=%d expirations=%d",
+                entries.size(), maxEntries, hits, misses, hitRatio(), evictions, expirations);
+    }
+
+}
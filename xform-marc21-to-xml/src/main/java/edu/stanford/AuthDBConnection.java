@@ -1,50 +1,88 @@
 package edu.stanford;
 
-import oracle.jdbc.pool.OracleDataSource;
+import oracle.ucp.UniversalConnectionPoolException;
+import oracle.ucp.admin.UniversalConnectionPoolManagerImpl;
+import oracle.ucp.jdbc.PoolDataSource;
+import oracle.ucp.jdbc.PoolDataSourceFactory;
 
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Stanford University Libraries, DLSS
+ *
+ * Opens authority DB connections from a pool (Oracle UCP), so the lookup threads of a
+ * conversion share warm connections and closing a connection returns it to the pool.
+ * The pool size, idle timeout, validation query and statement cache are configured by
+ * the AuthDBProperties.  The pool is created by the first open() and shut down by close().
  */
 class AuthDBConnection {
 
-    static Properties cacheProps;
+    static final String CONNECTION_FACTORY = "oracle.jdbc.pool.OracleDataSource";
+
+    private static final AtomicInteger poolCount = new AtomicInteger();
 
     AuthDBProperties authDBProperties;
 
+    private PoolDataSource pool;
+    private boolean poolStarted = false;
+
     void setAuthDBProperties(AuthDBProperties props) {
         authDBProperties = props;
     }
 
     Connection open() throws SQLException, IOException {
-        return dataSource().getConnection();
+        Connection connection = dataSource().getConnection();
+        synchronized (this) {
+            // The pool manager only knows a pool once it has opened a connection
+            poolStarted = pool != null;
+        }
+        return connection;
     }
 
-    DataSource dataSource() throws SQLException, IOException {
-        OracleDataSource ds = new OracleDataSource();
-        ds.setURL(authDBProperties.getURL());
-        ds.setUser(authDBProperties.getUserName());
-        ds.setPassword(authDBProperties.getUserPass());
-        ds.setConnectionCachingEnabled(false);
-        ds.setConnectionCacheName("CACHE");
-        ds.setConnectionCacheProperties(dataSourceCache());
-        return ds;
+    synchronized DataSource dataSource() throws SQLException, IOException {
+        if (pool == null)
+            pool = poolDataSource();
+        return pool;
     }
 
-    Properties dataSourceCache() {
-        if(cacheProps == null) {
-            cacheProps = new Properties();
-            cacheProps.setProperty("MinLimit", "1");
-            cacheProps.setProperty("InitialLimit", "1");
-            cacheProps.setProperty("AbandonedConnectionTimeout", "100");
-            cacheProps.setProperty("PropertyCheckInterval", "80");
+    PoolDataSource poolDataSource() throws SQLException {
+        PoolDataSource pds = PoolDataSourceFactory.getPoolDataSource();
+        pds.setConnectionPoolName("AuthDBPool-" + poolCount.incrementAndGet());
+        pds.setConnectionFactoryClassName(CONNECTION_FACTORY);
+        pds.setURL(authDBProperties.getURL());
+        pds.setUser(authDBProperties.getUserName());
+        pds.setPassword(authDBProperties.getUserPass());
+        pds.setInitialPoolSize(authDBProperties.getPoolMinSize());
+        pds.setMinPoolSize(authDBProperties.getPoolMinSize());
+        pds.setMaxPoolSize(authDBProperties.getPoolMaxSize());
+        pds.setInactiveConnectionTimeout(authDBProperties.getPoolIdleTimeout());
+        pds.setValidateConnectionOnBorrow(true);
+        pds.setSQLForValidateConnection(authDBProperties.getValidationQuery());
+        pds.setMaxStatements(authDBProperties.getStatementCacheSize());
+        return pds;
+    }
+
+    /**
+     * Shut down the connection pool, closing all its connections.
+     */
+    synchronized void close() throws SQLException {
+        if (pool == null || !poolStarted) {
+            pool = null;
+            return;
+        }
+        try {
+            UniversalConnectionPoolManagerImpl.getUniversalConnectionPoolManager()
+                    .destroyConnectionPool(pool.getConnectionPoolName());
+        } catch (UniversalConnectionPoolException e) {
+            throw new SQLException("Failed to close the authority DB connection pool", e);
+        } finally {
+            pool = null;
+            poolStarted = false;
         }
-        return cacheProps;
     }
 
 }
@@ -6,14 +6,15 @@ import org.marc4j.marc.DataField;
 import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 import org.marc4j.marc.Subfield;
+import org.marc4j.marc.impl.DataFieldImpl;
 
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
 
 /**
  * Uses the Marc4J library to transform the MARC record to MarcXML.
@@ -30,95 +31,411 @@ class AuthDBLookup {
 
     Connection dbConnection;
 
+    AuthCache authCache;
+
+    ConversionMetrics metrics = null;
+
+    // Prepared authority queries for this connection, by the size of their IN-list
+    private final Map<Integer, PreparedStatement> authQueries = new HashMap<>();
+
     void setAuthDBConnection(AuthDBConnection conn) {
         authDBConnection = conn;
     }
 
+    void setAuthCache(AuthCache cache) {
+        authCache = cache;
+    }
+
+    void setMetrics(ConversionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     void openConnection() throws IOException, SQLException {
         if (dbConnection == null)
             dbConnection = authDBConnection.open();
     }
 
     void closeConnection() throws SQLException {
+        for (PreparedStatement ps : authQueries.values())
+            ps.close();
+        authQueries.clear();
         if (dbConnection != null) {
             dbConnection.close();
             dbConnection = null;
         }
     }
 
-    Record marcResolveAuthorities(Record record) {
-        List subFieldList;
-        DataField dataField;
-        MarcFactory factory = MarcFactory.newInstance();
+    // Symphony authority URIs are stored in these AUTHORVED tags, by default;
+    // see the AUTH_URI_TAGS property in AuthDBProperties
+    static final String[] AUTH_URI_TAGS = {"920", "921", "922"};
 
-        List fields = record.getDataFields();
+    String[] authURITags = AUTH_URI_TAGS;
 
-        for (Object field : fields) {
-            dataField = (DataField) field;
+    /**
+     * Set the AUTHORVED tags resolved to subfield 0 URIs, in the order the URIs are added.
+     * The tags must be set before the first query on a connection.
+     */
+    void setAuthURITags(String[] tags) {
+        authURITags = tags;
+    }
 
-            subFieldList = dataField.getSubfields();
-            Object[] subFields = subFieldList.toArray(new Object[subFieldList.size()]);
+    // Authority-keys are resolved in the linkable fields, the heading fields by default; a site
+    // can set them with the AUTH_LINK_TAGS property in AuthDBProperties, e.g. XXX for all the
+    // data fields.  An 'X' matches any digit.  The authority subfields of the other fields are
+    // removed without being resolved.
+    static final String[] AUTH_LINK_TAGS = {"1XX", "240", "4XX", "6XX", "7XX", "8XX"};
 
-            for (Object subField : subFields) {
-                Subfield sf = (Subfield) subField;
-                char code = sf.getCode();
-                String codeStr = String.valueOf(code);
+    // The linkable tags, indexed by the tag number, so a field is checked in constant time
+    private BitSet authLinkTags = linkTagBitmap(AUTH_LINK_TAGS);
 
-                if (codeStr.equals("=")) {
-                    String data = sf.getData();
-                    addAuthURIandRemoveSubfields(data, dataField, sf, factory);
-                }
-                if (codeStr.equals("?")) {
-                    dataField.removeSubfield(sf);
-                }
+    /**
+     * Set the tags of the fields with authority subfields, e.g. 1XX; the authority-keys of other
+     * fields are not resolved.
+     */
+    void setAuthLinkTags(String[] tags) {
+        authLinkTags = linkTagBitmap(tags);
+    }
+
+    static boolean validLinkTag(String tag) {
+        return tag.matches("[0-9X]{3}");
+    }
+
+    static BitSet linkTagBitmap(String[] tags) {
+        BitSet bitmap = new BitSet(1000);
+        for (String tag : tags) {
+            if (!validLinkTag(tag))
+                throw new IllegalArgumentException("Invalid MARC tag pattern: " + tag);
+            for (int t = 0; t < 1000; t++) {
+                if (matchesTag(tag, t))
+                    bitmap.set(t);
             }
         }
+        return bitmap;
+    }
+
+    private static boolean matchesTag(String pattern, int tag) {
+        for (int i = 2; i >= 0; i--, tag /= 10) {
+            char c = pattern.charAt(i);
+            if (c != 'X' && c - '0' != tag % 10)
+                return false;
+        }
+        return true;
+    }
+
+    boolean linkable(DataField dataField) {
+        String tag = dataField.getTag();
+        if (tag == null || tag.length() != 3)
+            return false;
+        int t = 0;
+        for (int i = 0; i < 3; i++) {
+            char c = tag.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+            t = t * 10 + (c - '0');
+        }
+        return authLinkTags.get(t);
+    }
+
+    // Oracle limits an IN-list to 1000 expressions
+    static final int AUTH_QUERY_SIZE = 500;
+
+    // The IN-list sizes of the prepared authority queries; a list of keys is padded to the
+    // next size, so only a few distinct statements are parsed and cached by the DB.
+    static final int[] AUTH_QUERY_BUCKETS = {1, 10, 50, 100, 250, AUTH_QUERY_SIZE};
+
+    // Rows per fetch round-trip; a query returns a row for each 92X URI of each key
+    static final int AUTH_FETCH_SIZE = 1000;
+
+    Record marcResolveAuthorities(Record record) {
+        marcResolveAuthorities(Collections.singletonList(record));
         return record;
     }
 
-    private void addAuthURIandRemoveSubfields(String data, DataField dataField,
-                                                     Subfield sf, MarcFactory factory) {
+    // MarcFactory.newInstance() looks up the factory class; the factory is stateless
+    private static final MarcFactory MARC_FACTORY = MarcFactory.newInstance();
 
-        String key = data.substring(2);
-        String authID = lookupAuthID(key);
+    // Whether the getSubfields() list of a marc4j DataFieldImpl is the field's own list, which
+    // is not part of the DataField API, so it is checked once
+    private static final boolean SUBFIELDS_IN_PLACE = subfieldsInPlace();
 
-        //TODO consider just getting all the URI's from the authority record here
-        String[] tags = {"920", "921", "922"};
-        for (String tag : tags) {
-            String uri = lookupAuthURI(authID, tag);
+    private static boolean subfieldsInPlace() {
+        DataField field = MARC_FACTORY.newDataField("650", ' ', ' ');
+        field.addSubfield(MARC_FACTORY.newSubfield('a', "subfield"));
+        if (field.getClass() != DataFieldImpl.class)
+            return false;
+        try {
+            field.getSubfields().clear();
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+        return field.getSubfields().isEmpty();
+    }
+
+    /**
+     * Resolve the authority-keys for a batch of records.  All the authority-keys in the
+     * batch are resolved to authority-ids and 92X URIs with a few set-based queries,
+     * then the authority subfields are replaced by subfield 0 URIs.
+     */
+    List<Record> marcResolveAuthorities(List<Record> records) {
+        Set<String> keys = new LinkedHashSet<>();
+        for (Record record : records)
+            collectAuthKeys(record, keys);
+
+        Map<String, AuthURIs> authorities = lookupAuthorities(keys);
+
+        for (Record record : records)
+            replaceAuthSubfields(record, authorities);
+        return records;
+    }
+
+    // The subfields are scanned by index, comparing the char codes, so the scan allocates
+    // nothing for the fields without authority subfields.
+
+    private void collectAuthKeys(Record record, Set<String> keys) {
+        List<DataField> dataFields = record.getDataFields();
+        for (int f = 0, fields = dataFields.size(); f < fields; f++) {
+            DataField dataField = dataFields.get(f);
+            if (!linkable(dataField))
+                continue;
+            List<Subfield> subfields = dataField.getSubfields();
+            for (int i = 0, n = subfields.size(); i < n; i++) {
+                Subfield sf = subfields.get(i);
+                if (sf.getCode() == '=')
+                    keys.add(authKey(sf));
+            }
+        }
+    }
+
+    private void replaceAuthSubfields(Record record, Map<String, AuthURIs> authorities) {
+        List<DataField> dataFields = record.getDataFields();
+        for (int f = 0, fields = dataFields.size(); f < fields; f++) {
+            DataField dataField = dataFields.get(f);
+            // The authority subfields of a field that is not linkable are only removed, without
+            // their keys or URIs
+            Map<String, AuthURIs> fieldAuthorities = linkable(dataField) ? authorities : null;
+            List<Subfield> subfields = dataField.getSubfields();
+            int first = firstAuthSubfield(subfields);
+            if (first >= 0)
+                replaceAuthSubfields(dataField, subfields, first, fieldAuthorities);
+        }
+    }
+
+    private static int firstAuthSubfield(List<Subfield> subfields) {
+        for (int i = 0, n = subfields.size(); i < n; i++) {
+            char code = subfields.get(i).getCode();
+            if (code == '=' || code == '?')
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Remove the authority subfields of a field, from the first one, and add the subfield 0 URIs
+     * of the authority-keys after the remaining subfields, in key order; without authorities,
+     * the authority subfields are only removed.
+     */
+    private void replaceAuthSubfields(DataField dataField, List<Subfield> subfields, int first,
+                                      Map<String, AuthURIs> authorities) {
+        // The subfields of a marc4j DataFieldImpl are edited in place, without a removal per
+        // subfield; other DataField implementations are edited through the DataField API
+        if (!SUBFIELDS_IN_PLACE || dataField.getClass() != DataFieldImpl.class) {
+            replaceAuthSubfieldsOf(dataField, new ArrayList<>(subfields.subList(first, subfields.size())), authorities);
+            return;
+        }
+        int n = subfields.size();
+        int kept = first;
+        for (int i = first; i < n; i++) {
+            Subfield sf = subfields.get(i);
+            char code = sf.getCode();
+            if (code == '=') {
+                if (authorities != null)
+                    addAuthURIs(authorities.get(authKey(sf)), dataField);
+            } else if (code != '?')
+                subfields.set(kept++, sf);
+        }
+        // The URIs are added after the original subfields, so the removed range is [kept, n)
+        subfields.subList(kept, n).clear();
+    }
+
+    private void replaceAuthSubfieldsOf(DataField dataField, List<Subfield> subfields,
+                                        Map<String, AuthURIs> authorities) {
+        for (Subfield sf : subfields) {
+            char code = sf.getCode();
+            if (code != '=' && code != '?')
+                continue;
+            dataField.removeSubfield(sf);
+            if (code == '=' && authorities != null)
+                addAuthURIs(authorities.get(authKey(sf)), dataField);
+        }
+    }
+
+    private void addAuthURIs(AuthURIs authURIs, DataField dataField) {
+        if (authURIs == null)
+            return;
+        for (String tag : authURITags) {
+            String uri = authURIs.getURI(tag);
             if (uri.length() > 0)
-                dataField.addSubfield(factory.newSubfield('0', uri));
+                dataField.addSubfield(MARC_FACTORY.newSubfield('0', uri));
         }
-        dataField.removeSubfield(sf);
     }
 
-    private String lookupAuthID(String key) {
-        String sql = "select authority_id from authority where authority_key = '" + key + "'";
-        return queryAuth(sql);
+    private String authKey(Subfield sf) {
+        return sf.getData().substring(2);
     }
 
-    private String lookupAuthURI(String authID, String tagNum) {
-        String sql = "SELECT AUTHORVED.tag FROM AUTHORVED LEFT JOIN AUTHORITY ON AUTHORVED.offset = AUTHORITY.ved_offset" +
-                " where AUTHORITY.authority_id='" + authID + "' and AUTHORVED.tag_number='" + tagNum + "'";
-        return queryAuth(sql);
+    Map<String, AuthURIs> lookupAuthorities(Collection<String> keys) {
+        Map<String, AuthURIs> authorities = new HashMap<>();
+        List<String> uncached = new ArrayList<>(keys.size());
+        for (String key : keys) {
+            if (authCache != null) {
+                AuthURIs cached = authCache.get(key);
+                if (cached != null) {
+                    if (cached != AuthURIs.UNRESOLVED)
+                        authorities.put(key, cached);
+                    continue;
+                }
+            }
+            uncached.add(key);
+        }
+        for (int i = 0; i < uncached.size(); i += AUTH_QUERY_SIZE)
+            lookupAuthorities(uncached.subList(i, Math.min(i + AUTH_QUERY_SIZE, uncached.size())), authorities);
+        return authorities;
     }
 
-    private String queryAuth(String sql) {
-        String result = "";
+    private void lookupAuthorities(List<String> keys, Map<String, AuthURIs> authorities) {
+        long start = System.nanoTime();
         try {
-            Statement s = dbConnection.createStatement(ResultSet.TYPE_SCROLL_INSENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
+            queryAuthorities(keys, authorities);
+        } catch(SQLException e) {
+            System.err.println("AuthDBLookup SQLException:" + e.getMessage());
+            log.error("AuthDBLookup SQLException", e);
+            if (metrics != null)
+                metrics.error(e);
+            return;
+        } finally {
+            if (metrics != null) {
+                metrics.authLookups.record(System.nanoTime() - start);
+                metrics.authKeys.add(keys.size());
+            }
+        }
+        if (authCache == null)
+            return;
+        // Cache the keys without an authority record too, so they are not queried again
+        for (String key : keys) {
+            AuthURIs authURIs = authorities.get(key);
+            authCache.put(key, (authURIs == null) ? AuthURIs.UNRESOLVED : authURIs);
+        }
+    }
+
+    /**
+     * Query the authority DB for authority-keys, without the authority cache.
+     * Unlike lookupAuthorities(), a query failure is thrown to the caller.
+     */
+    Map<String, AuthURIs> queryAuthorities(Collection<String> keys) throws SQLException {
+        Map<String, AuthURIs> authorities = new HashMap<>();
+        List<String> keyList = new ArrayList<>(keys);
+        for (int i = 0; i < keyList.size(); i += AUTH_QUERY_SIZE)
+            queryAuthorities(keyList.subList(i, Math.min(i + AUTH_QUERY_SIZE, keyList.size())), authorities);
+        return authorities;
+    }
+
+    private void queryAuthorities(List<String> keys, Map<String, AuthURIs> authorities) throws SQLException {
+        PreparedStatement ps = authQuery(keys.size());
+        int size = bucketSize(keys.size());
+        for (int i = 0; i < size; i++) {
+            // Pad the IN-list with the last key, a duplicate does not change the result
+            ps.setString(i + 1, keys.get(Math.min(i, keys.size() - 1)));
+        }
+        try (ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                String key = rs.getString(1).trim();
+                AuthURIs authURIs = authorities.get(key);
+                if (authURIs == null) {
+                    authURIs = newAuthURIs(rs);
+                    authorities.put(key, authURIs);
+                }
+                authURIs.addURI(rs.getString(3), rs.getString(4));
+            }
+        }
+    }
+
+    private PreparedStatement authQuery(int keyCount) throws SQLException {
+        int size = bucketSize(keyCount);
+        PreparedStatement ps = authQueries.get(size);
+        if (ps == null) {
+            String sql = authoritySQL() + " WHERE AUTHORITY.authority_key IN (" + bindList(size) + ")";
+            ps = dbConnection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(Math.min(AUTH_FETCH_SIZE, size * authURITags.length));
+            authQueries.put(size, ps);
+        }
+        return ps;
+    }
+
+    static int bucketSize(int keyCount) {
+        for (int size : AUTH_QUERY_BUCKETS) {
+            if (keyCount <= size)
+                return size;
+        }
+        throw new IllegalArgumentException("Authority query exceeds " + AUTH_QUERY_SIZE + " keys: " + keyCount);
+    }
+
+    /**
+     * Export all the authority records to an authority snapshot.
+     */
+    void exportAuthorities(AuthSnapshotWriter writer) throws SQLException, IOException {
+        // Order by key, so all the rows for an authority-key are consecutive
+        String sql = authoritySQL() + " ORDER BY AUTHORITY.authority_key";
+        Statement s = dbConnection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY);
+        try {
+            s.setFetchSize(1000);
             ResultSet rs = s.executeQuery(sql);
+            String key = null;
+            AuthURIs authURIs = null;
             while (rs.next()) {
-                result = rs.getString(1).trim();
+                String rowKey = rs.getString(1).trim();
+                if (!rowKey.equals(key)) {
+                    if (authURIs != null)
+                        writer.add(key, authURIs);
+                    key = rowKey;
+                    authURIs = newAuthURIs(rs);
+                }
+                authURIs.addURI(rs.getString(3), rs.getString(4));
             }
+            if (authURIs != null)
+                writer.add(key, authURIs);
             rs.close();
+        } finally {
             s.close();
-        } catch(SQLException e) {
-            System.err.println("AuthDBLookup SQLException:" + e.getMessage());
-            log.error("AuthDBLookup SQLException", e);
         }
-        return result;
+    }
+
+    private String authoritySQL() {
+        return "SELECT AUTHORITY.authority_key, AUTHORITY.authority_id, AUTHORVED.tag_number, AUTHORVED.tag" +
+                " FROM AUTHORITY LEFT JOIN AUTHORVED ON AUTHORVED.offset = AUTHORITY.ved_offset" +
+                " AND AUTHORVED.tag_number IN (" + sqlList(Arrays.asList(authURITags)) + ")";
+    }
+
+    private static AuthURIs newAuthURIs(ResultSet rs) throws SQLException {
+        String authID = rs.getString(2);
+        return new AuthURIs(authID == null ? "" : authID.trim());
+    }
+
+    private static String bindList(int size) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < size; i++)
+            sb.append(i == 0 ? "?" : ",?");
+        return sb.toString();
+    }
+
+    private static String sqlList(Collection<String> values) {
+        StringBuilder sb = new StringBuilder();
+        for (String value : values) {
+            if (sb.length() > 0)
+                sb.append(',');
+            sb.append('\'').append(value.replace("'", "''")).append('\'');
+        }
+        return sb.toString();
     }
 
 }
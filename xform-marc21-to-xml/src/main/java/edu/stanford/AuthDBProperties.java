@@ -9,6 +9,8 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 
 /**
@@ -25,6 +27,25 @@ class AuthDBProperties {
     private String userName = null;
     private String userPass = null;
 
+    // Connection pool settings, see AuthDBConnection
+    static final int DEFAULT_POOL_MIN_SIZE = 1;
+    static final int DEFAULT_POOL_MAX_SIZE = 8;
+    static final int DEFAULT_POOL_IDLE_TIMEOUT = 300;
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 20;
+    static final String DEFAULT_VALIDATION_QUERY = "SELECT 1 FROM DUAL";
+
+    private int poolMinSize = DEFAULT_POOL_MIN_SIZE;
+    private int poolMaxSize = DEFAULT_POOL_MAX_SIZE;
+    private int poolIdleTimeout = DEFAULT_POOL_IDLE_TIMEOUT;
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+    private String validationQuery = DEFAULT_VALIDATION_QUERY;
+
+    // AUTHORVED tags with authority URIs, see AuthDBLookup
+    private String[] authURITags = AuthDBLookup.AUTH_URI_TAGS;
+
+    // Tags of the fields with authority subfields, see AuthDBLookup
+    private String[] authLinkTags = AuthDBLookup.AUTH_LINK_TAGS;
+
     public AuthDBProperties() throws IOException {
         Properties properties = loadPropertyResource(PROPERTY_RESOURCE);
         initDataSourceProperties(properties);
@@ -75,11 +96,121 @@ class AuthDBProperties {
         this.userPass = userPass;
     }
 
+    public int getPoolMinSize() {
+        return poolMinSize;
+    }
+
+    public void setPoolMinSize(int poolMinSize) {
+        this.poolMinSize = poolMinSize;
+    }
+
+    public int getPoolMaxSize() {
+        return poolMaxSize;
+    }
+
+    public void setPoolMaxSize(int poolMaxSize) {
+        this.poolMaxSize = poolMaxSize;
+    }
+
+    public int getPoolIdleTimeout() {
+        return poolIdleTimeout;
+    }
+
+    public void setPoolIdleTimeout(int poolIdleTimeout) {
+        this.poolIdleTimeout = poolIdleTimeout;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public String getValidationQuery() {
+        return validationQuery;
+    }
+
+    public void setValidationQuery(String validationQuery) {
+        this.validationQuery = validationQuery;
+    }
+
+    public String[] getAuthURITags() {
+        return authURITags;
+    }
+
+    public void setAuthURITags(String[] authURITags) {
+        this.authURITags = authURITags;
+    }
+
+    public String[] getAuthLinkTags() {
+        return authLinkTags;
+    }
+
+    public void setAuthLinkTags(String[] authLinkTags) {
+        this.authLinkTags = authLinkTags;
+    }
+
     private void initDataSourceProperties(Properties properties) {
         this.server = properties.getProperty("SERVER");
         this.service = properties.getProperty("SERVICE_NAME");
         this.userName = properties.getProperty("USER");
         this.userPass = properties.getProperty("PASS");
+        // Optional connection pool settings
+        this.poolMinSize = intProperty(properties, "POOL_MIN_SIZE", DEFAULT_POOL_MIN_SIZE);
+        this.poolMaxSize = intProperty(properties, "POOL_MAX_SIZE", DEFAULT_POOL_MAX_SIZE);
+        this.poolIdleTimeout = intProperty(properties, "POOL_IDLE_TIMEOUT", DEFAULT_POOL_IDLE_TIMEOUT);
+        this.statementCacheSize = intProperty(properties, "STATEMENT_CACHE_SIZE", DEFAULT_STATEMENT_CACHE_SIZE);
+        this.validationQuery = properties.getProperty("VALIDATION_QUERY", DEFAULT_VALIDATION_QUERY);
+        this.authURITags = tagsProperty(properties, "AUTH_URI_TAGS", AuthDBLookup.AUTH_URI_TAGS);
+        this.authLinkTags = linkTagsProperty(properties, "AUTH_LINK_TAGS", AuthDBLookup.AUTH_LINK_TAGS);
+    }
+
+    private static String[] linkTagsProperty(Properties properties, String name, String[] defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null)
+            return defaultValue;
+        List<String> tags = new ArrayList<>();
+        for (String tag : value.split(",")) {
+            tag = tag.trim().toUpperCase();
+            // MARC tags, with an 'X' for any digit, e.g. 6XX
+            if (!AuthDBLookup.validLinkTag(tag)) {
+                log.fatal("Invalid MARC tag property: " + name + "=" + value);
+                throw new IllegalArgumentException("Invalid MARC tag in " + name + ": " + tag);
+            }
+            tags.add(tag);
+        }
+        return tags.toArray(new String[tags.size()]);
+    }
+
+    private static String[] tagsProperty(Properties properties, String name, String[] defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null)
+            return defaultValue;
+        List<String> tags = new ArrayList<>();
+        for (String tag : value.split(",")) {
+            tag = tag.trim();
+            // MARC tags are three digits; they are used as SQL literals
+            if (!tag.matches("[0-9]{3}")) {
+                log.fatal("Invalid MARC tag property: " + name + "=" + value);
+                throw new IllegalArgumentException("Invalid MARC tag in " + name + ": " + tag);
+            }
+            tags.add(tag);
+        }
+        return tags.toArray(new String[tags.size()]);
+    }
+
+    private static int intProperty(Properties properties, String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.fatal("Invalid integer property: " + name + "=" + value);
+            throw e;
+        }
     }
 
     @Override
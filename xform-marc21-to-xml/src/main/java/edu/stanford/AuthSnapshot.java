@@ -0,0 +1,159 @@
+package edu.stanford;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * A read-only, memory-mapped snapshot of the authority-key to authority-id and 92X URI data,
+ * so authority-keys can be resolved without access to the authority DB.
+ *
+ * File layout (big-endian):
+ * <pre>
+ *   header:  int MAGIC, int VERSION
+ *   entries: key, authority-id, byte URI count, then a tag and URI for each URI
+ *   index:   int entry offset, for each entry in key order
+ *   footer:  int index offset, int entry count, int MAGIC
+ * </pre>
+ * Strings are stored as an unsigned short byte length and UTF-8 bytes.  Keys are ordered by
+ * their unsigned UTF-8 bytes and located with a binary search over the index.
+ */
+class AuthSnapshot {
+
+    static final int MAGIC = 0x4C443441;  // "LD4A"
+    static final int VERSION = 1;
+
+    private static final int FOOTER_SIZE = 12;
+
+    private final Path snapshotPath;
+    private final MappedByteBuffer buffer;
+    private final int indexPosition;
+    private final int count;
+
+    AuthSnapshot(Path snapshotPath) throws IOException {
+        this.snapshotPath = snapshotPath;
+        try (RandomAccessFile file = new RandomAccessFile(snapshotPath.toFile(), "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            if (size < 8 + FOOTER_SIZE || size > Integer.MAX_VALUE)
+                throw invalid();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(buffer.limit() - 4) != MAGIC)
+            throw invalid();
+        indexPosition = buffer.getInt(buffer.limit() - FOOTER_SIZE);
+        count = buffer.getInt(buffer.limit() - FOOTER_SIZE + 4);
+        if (indexPosition < 8 || (long) indexPosition + 4L * count != buffer.limit() - FOOTER_SIZE)
+            throw invalid();
+    }
+
+    private IOException invalid() {
+        return new IOException("Invalid authority snapshot file: " + snapshotPath);
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return the authority data for an authority-key, or null when the key is not in the snapshot
+     */
+    AuthURIs get(String key) {
+        int offset = find(key.getBytes(StandardCharsets.UTF_8));
+        return (offset < 0) ? null : readEntry(offset);
+    }
+
+    /**
+     * @return the authority-key of the entry at a position in key order
+     */
+    String getKey(int i) {
+        return readString(entryOffset(i));
+    }
+
+    /**
+     * @return the authority data of the entry at a position in key order
+     */
+    AuthURIs get(int i) {
+        return readEntry(entryOffset(i));
+    }
+
+    private int entryOffset(int i) {
+        return buffer.getInt(indexPosition + 4 * i);
+    }
+
+    private int find(byte[] key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int offset = entryOffset(mid);
+            int cmp = compareKey(offset, key);
+            if (cmp < 0)
+                low = mid + 1;
+            else if (cmp > 0)
+                high = mid - 1;
+            else
+                return offset;
+        }
+        return -1;
+    }
+
+    private int compareKey(int offset, byte[] key) {
+        int length = buffer.getShort(offset) & 0xFFFF;
+        int start = offset + 2;
+        int n = Math.min(length, key.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (buffer.get(start + i) & 0xFF) - (key[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return length - key.length;
+    }
+
+    private AuthURIs readEntry(int offset) {
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(offset);
+        skipString(entry);
+        AuthURIs authURIs = new AuthURIs(readString(entry));
+        int uriCount = entry.get() & 0xFF;
+        for (int i = 0; i < uriCount; i++) {
+            String tag = readString(entry);
+            authURIs.addURI(tag, readString(entry));
+        }
+        return authURIs;
+    }
+
+    private String readString(int offset) {
+        ByteBuffer entry = buffer.duplicate();
+        entry.position(offset);
+        return readString(entry);
+    }
+
+    private static String readString(ByteBuffer entry) {
+        byte[] bytes = new byte[entry.getShort() & 0xFFFF];
+        entry.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer entry) {
+        int length = entry.getShort() & 0xFFFF;
+        entry.position(entry.position() + length);
+    }
+
+    static int compareKeys(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (cmp != 0)
+                return cmp;
+        }
+        return a.length - b.length;
+    }
+
+}
@@ -0,0 +1,149 @@
+package edu.stanford;
+
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Exports the authority-key, authority-id and 92X URI data from the authority DB into an
+ * authority snapshot file (see AuthSnapshot), so conversions can resolve authority-keys
+ * without access to the authority DB (see the MarcToXML --auth-snapshot option).
+ * An existing snapshot can be refreshed incrementally, by querying only a list of
+ * changed authority-keys and copying the other entries from the existing snapshot.
+ */
+class AuthSnapshotExport extends MarcConverterWithAuthorityLookup {
+
+    public static void main (String [] args) throws IOException, ParseException, SQLException {
+        AuthSnapshotExport authSnapshotExport = new AuthSnapshotExport();
+        authSnapshotExport.parseArgs(args);
+        authSnapshotExport.exportSnapshot();
+        authSnapshotExport.authLookupClose();
+    }
+
+    void exportSnapshot() throws IOException, SQLException {
+        authLookupInit();
+        AuthSnapshotWriter writer = new AuthSnapshotWriter(snapshotPath);
+        try {
+            if (refreshKeys == null)
+                authDBLookup.exportAuthorities(writer);
+            else
+                refreshSnapshot(writer);
+        } catch (IOException | SQLException e) {
+            writer.abort();
+            throw e;
+        }
+        writer.close();
+        System.out.println("Exported " + writer.size() + " authority records to: " + snapshotPath);
+    }
+
+    private void refreshSnapshot(AuthSnapshotWriter writer) throws IOException, SQLException {
+        Map<String, AuthURIs> refreshed = authDBLookup.queryAuthorities(refreshKeys);
+        // Copy the existing entries, except for the refreshed keys; keys that are
+        // no longer in the authority DB are dropped from the snapshot.
+        AuthSnapshot snapshot = new AuthSnapshot(updatePath);
+        for (int i = 0; i < snapshot.size(); i++) {
+            String key = snapshot.getKey(i);
+            if (!refreshKeys.contains(key))
+                writer.add(key, snapshot.get(i));
+        }
+        for (Map.Entry<String, AuthURIs> entry : refreshed.entrySet())
+            writer.add(entry.getKey(), entry.getValue());
+    }
+
+
+    // Snapshot output file
+
+    Path snapshotPath = null;
+
+    void parseOutputFile() {
+        String oFile = cmd.getOptionValue("o");
+        if (oFile == null) {
+            System.err.println("ERROR: No authority snapshot output file specified.");
+            printHelp(className, options);
+            System.exit(1);
+        }
+        snapshotPath = Paths.get(oFile.trim()).toAbsolutePath();
+        if (! snapshotPath.getParent().toFile().isDirectory()) {
+            System.err.println("ERROR: Authority snapshot output path is not a directory.");
+            printHelp(className, options);
+            System.exit(1);
+        }
+    }
+
+
+    // Incremental refresh of an existing snapshot
+
+    Path updatePath = null;
+    Set<String> refreshKeys = null;
+
+    void parseRefresh() throws IOException {
+        String uFile = cmd.getOptionValue("u");
+        String kFile = cmd.getOptionValue("k");
+        if (uFile == null && kFile == null)
+            return;
+        if (uFile == null || kFile == null) {
+            System.err.println("ERROR: A snapshot refresh requires both an existing snapshot and a keys file.");
+            printHelp(className, options);
+            System.exit(1);
+        }
+        File snapshotFile = new File(uFile.trim());
+        File keysFile = new File(kFile.trim());
+        if (! snapshotFile.isFile() || ! keysFile.isFile()) {
+            System.err.println("ERROR: Authority snapshot or keys file is not a file.");
+            printHelp(className, options);
+            System.exit(1);
+        }
+        updatePath = snapshotFile.toPath();
+        refreshKeys = new LinkedHashSet<>();
+        for (String line : Files.readAllLines(keysFile.toPath(), StandardCharsets.UTF_8)) {
+            String key = line.trim();
+            if (key.length() > 0)
+                refreshKeys.add(key);
+        }
+    }
+
+
+    // Command line interface
+    // https://commons.apache.org/proper/commons-cli/introduction.html
+    CommandLine cmd = null;
+    static Options options = setOptions();
+
+    static String className = AuthSnapshotExport.class.getName();
+
+    static Options setOptions() {
+        Options opts = new Options();
+        opts.addOption("h", "help", false, "help message");
+        opts.addOption("p", "auth-db-property-file", true, "Authority DB connection property file");
+        opts.addOption("o", "outputFile", true, "Authority snapshot output file (required)");
+        opts.addOption("u", "update", true, "Existing authority snapshot to refresh (requires --keys)");
+        opts.addOption("k", "keys", true, "File of authority-keys to refresh, one per line (requires --update)");
+        return opts;
+    }
+
+    void parseArgs(String [] args) throws ParseException, IOException {
+        CommandLineParser parser = new DefaultParser();
+        cmd = parser.parse(options, args);
+        if (cmd.hasOption('h')) {
+            // Print the help message and exit
+            printHelp(className, options);
+            System.exit(0);
+        }
+        // Parse required options
+        parseOutputFile();
+        // Parse optional options
+        setAuthDBProperties(cmd);
+        parseRefresh();
+        // The export queries the authority DB directly, without the authority cache
+        authCacheSize = 0;
+    }
+
+}
@@ -0,0 +1,52 @@
+package edu.stanford;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Resolves authority-keys against a local authority snapshot file, instead of the authority DB.
+ * See AuthSnapshotExport to create or refresh a snapshot.
+ */
+class AuthSnapshotLookup extends AuthDBLookup {
+
+    private final Path snapshotPath;
+
+    AuthSnapshot authSnapshot;
+
+    AuthSnapshotLookup(Path snapshotPath) {
+        this.snapshotPath = snapshotPath;
+    }
+
+    @Override
+    void openConnection() throws IOException {
+        if (authSnapshot == null)
+            authSnapshot = new AuthSnapshot(snapshotPath);
+    }
+
+    @Override
+    void closeConnection() {
+        authSnapshot = null;
+    }
+
+    @Override
+    Map<String, AuthURIs> lookupAuthorities(Collection<String> keys) {
+        long start = System.nanoTime();
+        Map<String, AuthURIs> authorities = new HashMap<>();
+        for (String key : keys) {
+            AuthURIs authURIs = authSnapshot.get(key);
+            if (authURIs != null)
+                authorities.put(key, authURIs);
+        }
+        if (metrics != null) {
+            metrics.authLookups.record(System.nanoTime() - start);
+            metrics.authKeys.add(keys.size());
+        }
+        return authorities;
+    }
+
+}
@@ -0,0 +1,109 @@
+package edu.stanford;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Writes an authority snapshot file, see AuthSnapshot for the file layout.
+ * Entries can be added in any order; the key index is sorted when the writer is closed.
+ * The snapshot is written to a temporary file and then moved to the snapshot path, so a
+ * snapshot that is in use is replaced atomically.
+ */
+class AuthSnapshotWriter implements Closeable {
+
+    private final Path snapshotPath;
+    private final Path tmpPath;
+    private final DataOutputStream out;
+
+    private final List<IndexEntry> index = new ArrayList<>();
+
+    private static class IndexEntry implements Comparable<IndexEntry> {
+        final byte[] key;
+        final int offset;
+
+        IndexEntry(byte[] key, int offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+
+        @Override
+        public int compareTo(IndexEntry other) {
+            return AuthSnapshot.compareKeys(key, other.key);
+        }
+    }
+
+    AuthSnapshotWriter(Path snapshotPath) throws IOException {
+        this.snapshotPath = snapshotPath.toAbsolutePath();
+        this.tmpPath = Files.createTempFile(this.snapshotPath.getParent(), "auth_snapshot_", ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpPath.toFile()), 1 << 16));
+        out.writeInt(AuthSnapshot.MAGIC);
+        out.writeInt(AuthSnapshot.VERSION);
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    void add(String key, AuthURIs authURIs) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        index.add(new IndexEntry(keyBytes, position()));
+        writeBytes(keyBytes);
+        writeString(authURIs.getAuthID());
+        Map<String, String> uris = authURIs.getURIs();
+        out.writeByte(uris.size());
+        for (Map.Entry<String, String> uri : uris.entrySet()) {
+            writeString(uri.getKey());
+            writeString(uri.getValue());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        Collections.sort(index);
+        int indexPosition = position();
+        for (IndexEntry entry : index)
+            out.writeInt(entry.offset);
+        out.writeInt(indexPosition);
+        out.writeInt(index.size());
+        out.writeInt(AuthSnapshot.MAGIC);
+        out.close();
+        Files.move(tmpPath, snapshotPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    void abort() throws IOException {
+        out.close();
+        Files.deleteIfExists(tmpPath);
+    }
+
+    private int position() throws IOException {
+        // DataOutputStream.size() saturates at Integer.MAX_VALUE, the limit of a single memory-map
+        if (out.size() == Integer.MAX_VALUE)
+            throw new IOException("Authority snapshot exceeds the 2GB file limit: " + snapshotPath);
+        return out.size();
+    }
+
+    private void writeString(String value) throws IOException {
+        writeBytes(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        if (bytes.length > 0xFFFF)
+            throw new IOException("Authority snapshot value exceeds 65535 bytes");
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+
+}
@@ -0,0 +1,42 @@
+package edu.stanford;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * The authority-id and 92X URIs resolved for an authority-key.
+ */
+class AuthURIs {
+
+    // Cached for authority-keys that have no authority record
+    static final AuthURIs UNRESOLVED = new AuthURIs("");
+
+    private final String authID;
+    private final Map<String, String> uris = new HashMap<>();
+
+    AuthURIs(String authID) {
+        this.authID = authID;
+    }
+
+    String getAuthID() {
+        return authID;
+    }
+
+    void addURI(String tag, String uri) {
+        if (tag != null && uri != null)
+            uris.put(tag, uri.trim());
+    }
+
+    String getURI(String tag) {
+        String uri = uris.get(tag);
+        return (uri == null) ? "" : uri;
+    }
+
+    Map<String, String> getURIs() {
+        return Collections.unmodifiableMap(uris);
+    }
+
+}
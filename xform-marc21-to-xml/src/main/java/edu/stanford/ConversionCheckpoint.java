@@ -0,0 +1,203 @@
+package edu.stanford;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Checkpoints of a MARC file conversion, so an interrupted conversion resumes at the last
+ * committed byte offset of the MARC file instead of converting the whole file again.  Every
+ * record read is numbered and is done when it is written, skipped or failed; the records can be
+ * done out of order, by the pipeline threads.  A checkpoint commits the offset after the records
+ * that are all done, every interval of records, in a one line file:
+ * <pre>
+ *   marc-file TAB file-size TAB offset TAB records
+ * </pre>
+ * Before a checkpoint is written, the outputs are flushed (e.g. the current chunk is closed).
+ * The checkpoint file is written to a temporary file and renamed, so it is always complete, and
+ * it is deleted when the conversion finishes.  A checkpoint of another file, or of a file that
+ * changed size, is ignored and the conversion starts at the beginning of the file.
+ * <p>
+ * A failed record is done, so the records after it are committed, but the failures are counted
+ * and the checkpoints are held at the offset of the first failed record: when the conversion
+ * finishes with failures, the checkpoint file is kept, so a resumed conversion converts the
+ * failed records again.
+ */
+class ConversionCheckpoint {
+
+    private static final Logger log = LogManager.getLogger(ConversionCheckpoint.class.getName());
+
+    static final int DEFAULT_INTERVAL = 10000;
+
+    interface Flush {
+        void flush() throws IOException;
+    }
+
+    private final Path checkpointFile;
+    private final String marcFile;
+    private final long marcFileSize;
+    private final int interval;
+
+    private Flush flush = () -> { };
+
+    // The committed offset and records of a previous run
+    private long resumeOffset = 0;
+    private long resumeRecords = 0;
+
+    // Records read, by number: the offset after each record not yet committed, and the records
+    // done ahead of the first record that is not done, with whether they failed
+    private long recordsRead = 0;
+    private long recordsDone = 0;
+    private long committedOffset = 0;
+    private long checkpointRecords = 0;
+    private final Map<Long, Long> offsets = new HashMap<>();
+    private final Map<Long, Boolean> doneAhead = new HashMap<>();
+
+    // Records failed, and the offset and records before the first failed record committed
+    private long failures = 0;
+    private long failedOffset = -1;
+    private long failedRecords = 0;
+
+    /**
+     * @param interval the records between checkpoints
+     */
+    ConversionCheckpoint(Path checkpointFile, Path marcFile, int interval) throws IOException {
+        this.checkpointFile = checkpointFile;
+        this.marcFile = marcFile.toAbsolutePath().normalize().toString();
+        this.marcFileSize = Files.size(marcFile);
+        this.interval = interval;
+        load();
+    }
+
+    /**
+     * Flush the outputs before a checkpoint is written
+     */
+    void setFlush(Flush flush) {
+        this.flush = flush;
+    }
+
+    /**
+     * @return the offset of the MARC file to resume the conversion at
+     */
+    long getResumeOffset() {
+        return resumeOffset;
+    }
+
+    /**
+     * @return the records of the MARC file before the resume offset
+     */
+    long getResumeRecords() {
+        return resumeRecords;
+    }
+
+    /**
+     * @param offset the offset after the record, from the resume offset
+     * @return the number of the record, for done()
+     */
+    synchronized long read(long offset) {
+        long record = recordsRead++;
+        offsets.put(record, resumeOffset + offset);
+        return record;
+    }
+
+    /**
+     * @return the records failed
+     */
+    synchronized long getFailures() {
+        return failures;
+    }
+
+    /**
+     * The record is written or skipped
+     */
+    synchronized void done(long record) throws IOException {
+        done(record, false);
+    }
+
+    /**
+     * The record failed, so the checkpoints are held at its offset
+     */
+    synchronized void failed(long record) throws IOException {
+        done(record, true);
+    }
+
+    private void done(long record, boolean failed) throws IOException {
+        if (record < recordsDone || record >= recordsRead || doneAhead.containsKey(record))
+            return;
+        if (failed)
+            failures++;
+        doneAhead.put(record, failed);
+        Boolean recordFailed;
+        while ((recordFailed = doneAhead.remove(recordsDone)) != null) {
+            if (recordFailed && failedOffset < 0) {
+                failedOffset = committedOffset;
+                failedRecords = resumeRecords + recordsDone;
+            }
+            committedOffset = offsets.remove(recordsDone++);
+        }
+        if (recordsDone - checkpointRecords >= interval)
+            save();
+    }
+
+    /**
+     * The conversion finished, so it is not resumed, unless records failed
+     */
+    synchronized void finish() throws IOException {
+        if (failures == 0) {
+            Files.deleteIfExists(checkpointFile);
+            return;
+        }
+        save();
+        log.warn("Keeping the checkpoint of MARC file: " + marcFile + ", records failed: " + failures);
+    }
+
+    private void save() throws IOException {
+        flush.flush();
+        long offset = (failedOffset < 0) ? committedOffset : failedOffset;
+        long records = (failedOffset < 0) ? resumeRecords + recordsDone : failedRecords;
+        Path tmp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        String line = marcFile + '\t' + marcFileSize + '\t' + offset + '\t' + records + '\n';
+        Files.write(tmp, line.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, checkpointFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        checkpointRecords = recordsDone;
+    }
+
+    private void load() throws IOException {
+        if (!checkpointFile.toFile().isFile())
+            return;
+        List<String> lines = Files.readAllLines(checkpointFile, StandardCharsets.UTF_8);
+        String[] fields = lines.isEmpty() ? new String[0] : lines.get(0).split("\t");
+        try {
+            if (fields.length == 4 && fields[0].equals(marcFile) && Long.parseLong(fields[1]) == marcFileSize) {
+                long offset = Long.parseLong(fields[2]);
+                if (offset >= 0 && offset <= marcFileSize) {
+                    resumeOffset = offset;
+                    resumeRecords = Long.parseLong(fields[3]);
+                    committedOffset = offset;
+                    log.info("Resuming MARC file: " + marcFile + " at offset " + resumeOffset +
+                            ", after records: " + resumeRecords);
+                    return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            // not a checkpoint
+        }
+        log.warn("Ignoring the checkpoint of another MARC file: " + checkpointFile);
+    }
+
+}
@@ -0,0 +1,389 @@
+package edu.stanford;
+
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.marc4j.MarcReader;
+import org.marc4j.MarcWriter;
+import org.marc4j.converter.CharConverter;
+import org.marc4j.marc.Record;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Counters and timers of a conversion: records read, written and skipped, bytes in and out,
+ * authority lookups and their latency, the authority cache hit ratio, write latency and
+ * errors by type.  The counters are updated by all the conversion threads.  While a
+ * conversion runs, a progress line can be logged periodically and the metrics can be
+ * registered as a JMX MBean; at the end of a run, a JSON summary is logged and can be
+ * written to a file.
+ */
+class ConversionMetrics implements ConversionMetricsMBean {
+
+    private static final Logger log = LogManager.getLogger(ConversionMetrics.class.getName());
+
+    static final String MBEAN_NAME = "edu.stanford:type=ConversionMetrics,name=";
+
+    final LongAdder recordsRead = new LongAdder();
+    final LongAdder recordsWritten = new LongAdder();
+    final LongAdder recordsSkipped = new LongAdder();
+    final LongAdder bytesIn = new LongAdder();
+    final LongAdder bytesOut = new LongAdder();
+    final LongAdder authKeys = new LongAdder();
+    final Timer authLookups = new Timer();
+    final Timer writes = new Timer();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private final long startNanos = System.nanoTime();
+    private volatile AuthCache authCache = null;
+
+    private ScheduledExecutorService progressReporter = null;
+    private long progressRecords = 0;
+    private long progressNanos = startNanos;
+    private ObjectName mbeanName = null;
+
+    void setAuthCache(AuthCache cache) {
+        authCache = cache;
+    }
+
+    void error(Exception e) {
+        error(e.getClass().getSimpleName());
+    }
+
+    void error(String type) {
+        errors.computeIfAbsent(type, t -> new LongAdder()).increment();
+    }
+
+
+    // Instrumented I/O
+
+    MarcReader countingReader(MarcReader reader) {
+        return new MarcReader() {
+            @Override
+            public boolean hasNext() {
+                return reader.hasNext();
+            }
+
+            @Override
+            public Record next() {
+                Record record = reader.next();
+                recordsRead.increment();
+                return record;
+            }
+        };
+    }
+
+    /**
+     * @return a writer that counts and times the records written
+     */
+    MarcWriter timedWriter(MarcWriter writer) {
+        return new MarcWriter() {
+            @Override
+            public void write(Record record) {
+                long start = System.nanoTime();
+                writer.write(record);
+                writes.record(System.nanoTime() - start);
+                recordsWritten.increment();
+            }
+
+            @Override
+            public void setConverter(CharConverter converter) {
+                writer.setConverter(converter);
+            }
+
+            @Override
+            public CharConverter getConverter() {
+                return writer.getConverter();
+            }
+
+            @Override
+            public void close() {
+                writer.close();
+            }
+        };
+    }
+
+    InputStream countingInput(InputStream in) {
+        return new ProxyInputStream(in) {
+            // The bytes read since a mark, which are read again after a reset
+            private long sinceMark = 0;
+
+            @Override
+            protected void afterRead(int n) {
+                if (n > 0) {
+                    bytesIn.add(n);
+                    sinceMark += n;
+                }
+            }
+
+            @Override
+            public synchronized void mark(int readLimit) {
+                super.mark(readLimit);
+                sinceMark = 0;
+            }
+
+            @Override
+            public synchronized void reset() throws IOException {
+                super.reset();
+                bytesIn.add(-sinceMark);
+                sinceMark = 0;
+            }
+        };
+    }
+
+    OutputStream countingOutput(OutputStream out) {
+        return new ProxyOutputStream(out) {
+            @Override
+            protected void afterWrite(int n) {
+                bytesOut.add(n);
+            }
+        };
+    }
+
+
+    // Progress line, JSON summary and JMX
+
+    /**
+     * Log a progress line every period, until stop()
+     */
+    synchronized void startProgress(int periodSeconds) {
+        if (periodSeconds <= 0 || progressReporter != null)
+            return;
+        progressReporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "ConversionMetrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        progressReporter.scheduleAtFixedRate(() -> log.info(progress()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    synchronized void registerMBean(String name) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        mbeanName = new ObjectName(MBEAN_NAME + ObjectName.quote(name));
+        if (server.isRegistered(mbeanName))
+            server.unregisterMBean(mbeanName);
+        server.registerMBean(this, mbeanName);
+    }
+
+    /**
+     * Stop the progress line and unregister the MBean, then log the JSON summary
+     * and write it to the summary file, if any.
+     */
+    synchronized void stop(Path summaryFile) throws IOException {
+        if (progressReporter != null) {
+            progressReporter.shutdownNow();
+            progressReporter = null;
+        }
+        if (mbeanName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(mbeanName);
+            } catch (JMException e) {
+                log.warn("Failed to unregister the conversion metrics MBean", e);
+            }
+            mbeanName = null;
+        }
+        String summary = toJson();
+        log.info("Conversion metrics: " + summary);
+        if (summaryFile != null)
+            Files.write(summaryFile, (summary + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    synchronized String progress() {
+        long now = System.nanoTime();
+        long records = recordsWritten.sum();
+        double rate = perSecond(records - progressRecords, now - progressNanos);
+        progressRecords = records;
+        progressNanos = now;
+        // The root locale, so the numbers are formatted the same in every default locale
+        return String.format(Locale.ROOT, "Progress: records read=%d written=%d skipped=%d (%.1f/s, overall %.1f/s)" +
+                        " bytes in=%d out=%d auth lookups=%d (p99 %.3f ms) cache hit-ratio=%.3f errors=%d",
+                recordsRead.sum(), records, recordsSkipped.sum(), rate, getRecordsPerSecond(),
+                bytesIn.sum(), bytesOut.sum(), authLookups.count(), authLookups.percentileMillis(0.99),
+                getAuthCacheHitRatio(), getErrors());
+    }
+
+    String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        json.append("\"elapsed_seconds\":").append(number(getElapsedSeconds()));
+        json.append(",\"records_read\":").append(recordsRead.sum());
+        json.append(",\"records_written\":").append(recordsWritten.sum());
+        json.append(",\"records_skipped\":").append(recordsSkipped.sum());
+        json.append(",\"records_per_second\":").append(number(getRecordsPerSecond()));
+        json.append(",\"bytes_in\":").append(bytesIn.sum());
+        json.append(",\"bytes_out\":").append(bytesOut.sum());
+        json.append(",\"auth_keys\":").append(authKeys.sum());
+        json.append(",\"auth_lookups\":").append(authLookups.toJson());
+        AuthCache cache = authCache;
+        if (cache != null) {
+            json.append(",\"auth_cache\":{\"hits\":").append(cache.getHits())
+                    .append(",\"misses\":").append(cache.getMisses())
+                    .append(",\"hit_ratio\":").append(number(cache.hitRatio())).append('}');
+        }
+        json.append(",\"writes\":").append(writes.toJson());
+        json.append(",\"errors\":{");
+        String separator = "";
+        for (Map.Entry<String, LongAdder> error : new TreeMap<>(errors).entrySet()) {
+            json.append(separator).append('"').append(error.getKey()).append("\":").append(error.getValue().sum());
+            separator = ",";
+        }
+        json.append("}}");
+        return json.toString();
+    }
+
+    private static String number(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    private static double perSecond(long count, long nanos) {
+        return (nanos <= 0) ? 0.0 : count * 1e9 / nanos;
+    }
+
+
+    // ConversionMetricsMBean
+
+    @Override
+    public double getElapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+
+    @Override
+    public long getRecordsRead() {
+        return recordsRead.sum();
+    }
+
+    @Override
+    public long getRecordsWritten() {
+        return recordsWritten.sum();
+    }
+
+    @Override
+    public long getRecordsSkipped() {
+        return recordsSkipped.sum();
+    }
+
+    @Override
+    public double getRecordsPerSecond() {
+        return perSecond(recordsWritten.sum(), System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public long getAuthLookups() {
+        return authLookups.count();
+    }
+
+    @Override
+    public double getAuthLookupP99Millis() {
+        return authLookups.percentileMillis(0.99);
+    }
+
+    @Override
+    public double getAuthCacheHitRatio() {
+        AuthCache cache = authCache;
+        return (cache == null) ? 0.0 : cache.hitRatio();
+    }
+
+    @Override
+    public double getWriteP99Millis() {
+        return writes.percentileMillis(0.99);
+    }
+
+    @Override
+    public long getErrors() {
+        long count = 0;
+        for (LongAdder error : errors.values())
+            count += error.sum();
+        return count;
+    }
+
+
+    /**
+     * A latency timer with a histogram of power-of-two microsecond buckets, so the
+     * percentiles are approximate (an upper bound within a factor of two).
+     */
+    static class Timer {
+        private static final int BUCKETS = 40;
+
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        void record(long nanos) {
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            long micros = nanos / 1000;
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            histogram.incrementAndGet(bucket);
+        }
+
+        long count() {
+            return count.sum();
+        }
+
+        double meanMillis() {
+            long n = count.sum();
+            return (n == 0) ? 0.0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        double maxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        double percentileMillis(double p) {
+            long n = count.sum();
+            if (n == 0)
+                return 0.0;
+            long rank = (long) Math.ceil(p * n);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS; bucket++) {
+                seen += histogram.get(bucket);
+                if (seen >= rank)
+                    return Math.min((1L << bucket) / 1e3, maxMillis());
+            }
+            return maxMillis();
+        }
+
+        String toJson() {
+            return "{\"count\":" + count() +
+                    ",\"mean_ms\":" + number(meanMillis()) +
+                    ",\"p50_ms\":" + number(percentileMillis(0.50)) +
+                    ",\"p90_ms\":" + number(percentileMillis(0.90)) +
+                    ",\"p99_ms\":" + number(percentileMillis(0.99)) +
+                    ",\"max_ms\":" + number(maxMillis()) + "}";
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+package edu.stanford;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * The JMX view of the ConversionMetrics of a running conversion.
+ */
+public interface ConversionMetricsMBean {
+
+    double getElapsedSeconds();
+
+    long getRecordsRead();
+
+    long getRecordsWritten();
+
+    long getRecordsSkipped();
+
+    double getRecordsPerSecond();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getAuthLookups();
+
+    double getAuthLookupP99Millis();
+
+    double getAuthCacheHitRatio();
+
+    double getWriteP99Millis();
+
+    long getErrors();
+
+}
@@ -0,0 +1,136 @@
+package edu.stanford;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Reads a file from memory-mapped windows of the file, instead of read() calls into a buffer.
+ * The reads of a RawMarcReader copy the records from the mapped pages into the record bytes,
+ * without a BufferedInputStream between them, so a record is copied once.  The windows are
+ * mapped in turn as the file is read, from a position to an end, so a reader can read from the
+ * offset of a record (e.g. a checkpoint) or a byte range of the file (see MarcFileSplits).  The
+ * stream supports mark and reset.
+ */
+class MappedFileInputStream extends InputStream {
+
+    static final int DEFAULT_WINDOW_SIZE = 64 << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int windowSize;
+
+    private MappedByteBuffer window = null;
+    private long windowStart = 0;
+    private long position;
+    private long mark;
+
+    MappedFileInputStream(Path file) throws IOException {
+        this(file, 0, DEFAULT_WINDOW_SIZE);
+    }
+
+    MappedFileInputStream(Path file, long position, int windowSize) throws IOException {
+        this(file, position, Long.MAX_VALUE, windowSize);
+    }
+
+    /**
+     * @param position   the position in the file to read from
+     * @param end        the position in the file to read to (exclusive), or past the end of the file
+     * @param windowSize the bytes of the file mapped at a time
+     */
+    MappedFileInputStream(Path file, long position, long end, int windowSize) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.size = Math.min(end, channel.size());
+        this.windowSize = windowSize;
+        this.position = Math.min(position, size);
+        this.mark = this.position;
+    }
+
+    /**
+     * @return the position in the file of the next byte read
+     */
+    long getPosition() {
+        return position;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!mapWindow())
+            return -1;
+        position++;
+        return window.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return 0;
+        if (!mapWindow())
+            return -1;
+        int n = Math.min(len, window.remaining());
+        window.get(b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = Math.max(0, Math.min(n, size - position));
+        seek(position + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, size - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public synchronized void reset() {
+        seek(mark);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mapped windows are unmapped when they are garbage collected
+        window = null;
+        channel.close();
+    }
+
+    private void seek(long newPosition) {
+        position = newPosition;
+        if (window != null && position >= windowStart && position <= windowStart + window.limit())
+            window.position((int) (position - windowStart));
+        else
+            window = null;
+    }
+
+    /**
+     * @return false at the end of the file
+     */
+    private boolean mapWindow() throws IOException {
+        if (position >= size)
+            return false;
+        if (window == null || !window.hasRemaining()) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, Math.min(windowSize, size - windowStart));
+        }
+        return true;
+    }
+
+}
@@ -3,10 +3,19 @@ package edu.stanford;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Options;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.marc4j.MarcWriter;
 import org.marc4j.marc.Record;
 
+import javax.management.JMException;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.List;
 
 /**
  * Uses the Marc4J library to transform the MARC record to MarcXML.
@@ -17,13 +26,59 @@ import java.sql.SQLException;
  */
 class MarcConverterWithAuthorityLookup {
 
+    private static Logger authLog = LogManager.getLogger(MarcConverterWithAuthorityLookup.class.getName());
+
     AuthDBProperties authDBProperties;
     AuthDBConnection authDBConnection;
     AuthDBLookup authDBLookup;
+    AuthCache authCache;
+
+    int authCacheSize = AuthCache.DEFAULT_MAX_ENTRIES;
+    long authCacheTTL = 0;
+
+    String authSnapshotFile = null;
+
+    // Authority lookups are resolved for a batch of records at a time, by one or more threads
+    int batchSize = 1;
+    int threads = 1;
+
+    // Validate the MARC-XML records as they are written, see ValidatingMarcXmlWriter
+    boolean validate = false;
+
+    // Conversion metrics, see ConversionMetrics
+    ConversionMetrics metrics = new ConversionMetrics();
+    int progressSeconds = DEFAULT_PROGRESS_SECONDS;
+    Path metricsFile = null;
+    boolean jmx = false;
+
+    static final int DEFAULT_PROGRESS_SECONDS = 60;
+
+    // Compression of the MARC-XML output, see OutputCompression
+    OutputCompression compression = OutputCompression.NONE;
+    int compressionLevel = 0;
 
     static void addOptions(Options opts) {
         opts.addOption("h", "help", false, "help message");
         opts.addOption("p", "auth-db-property-file", true, "Authority DB connection property file");
+        opts.addOption("c", "auth-cache-size", true,
+                "Authority cache size, 0 disables the cache (default: " + AuthCache.DEFAULT_MAX_ENTRIES + ")");
+        opts.addOption("e", "auth-cache-ttl", true, "Authority cache entry time-to-live in seconds, 0 never expires (default: 0)");
+        opts.addOption("s", "auth-snapshot", true, "Authority snapshot file, used instead of the authority DB");
+        opts.addOption("b", "batch-size", true, "Number of records per authority lookup batch (default: 1)");
+        opts.addOption("t", "threads", true, "Number of authority lookup threads (default: 1)");
+        opts.addOption("v", "validate", false,
+                "Validate the MARC-XML records as they are written; invalid records are errors (default: false)");
+        opts.addOption("g", "progress-seconds", true,
+                "Seconds between progress log lines, 0 disables them (default: " + DEFAULT_PROGRESS_SECONDS + ")");
+        opts.addOption("u", "metrics-file", true, "JSON file for the conversion metrics summary");
+        opts.addOption("x", "jmx", false, "Register the conversion metrics as a JMX MBean (default: false)");
+        opts.addOption("z", "compression", true,
+                "Compress the MARC-XML output, per file or chunk: gzip or zstd (default: none)");
+        opts.addOption("q", "compression-level", true,
+                "Compression level, gzip " + OutputCompression.GZIP.minLevel + "-" + OutputCompression.GZIP.maxLevel +
+                        " or zstd " + OutputCompression.ZSTD.minLevel + "-" + OutputCompression.ZSTD.maxLevel +
+                        " (default: gzip " + OutputCompression.GZIP.defaultLevel +
+                        ", zstd " + OutputCompression.ZSTD.defaultLevel + ")");
     }
 
     static void printHelp(String className, Options options) {
@@ -49,17 +104,173 @@ class MarcConverterWithAuthorityLookup {
         }
     }
 
+    void setAuthCache(CommandLine cmd) {
+        // Set the authority cache size and time-to-live
+        try {
+            if (cmd.hasOption("c"))
+                authCacheSize = Integer.parseInt(cmd.getOptionValue("c").trim());
+            if (cmd.hasOption("e"))
+                authCacheTTL = Long.parseLong(cmd.getOptionValue("e").trim());
+        } catch (NumberFormatException ex) {
+            authCacheSize = -1;
+        }
+        if (authCacheSize < 0 || authCacheTTL < 0) {
+            System.err.println("ERROR: Authority cache size and TTL must be non-negative integers.");
+            System.exit(1);
+        }
+    }
+
+    void setAuthSnapshot(CommandLine cmd) {
+        // Resolve authority-keys from a snapshot file, instead of the authority DB
+        if (!cmd.hasOption("s"))
+            return;
+        File snapshotFile = new File(cmd.getOptionValue("s").trim());
+        if (! snapshotFile.isFile()) {
+            System.err.println("ERROR: Authority snapshot is not a file.");
+            System.exit(1);
+        }
+        authSnapshotFile = snapshotFile.toString();
+    }
+
+    void setBatchSize(CommandLine cmd) {
+        batchSize = positiveIntOption(cmd, "b", batchSize, "ERROR: Batch size must be a positive integer.");
+    }
+
+    void setThreads(CommandLine cmd) {
+        threads = positiveIntOption(cmd, "t", threads, "ERROR: Threads must be a positive integer.");
+    }
+
+    void setValidate(CommandLine cmd) {
+        validate = cmd.hasOption("v");
+    }
+
+    /**
+     * Count the invalid records of a validating writer, as errors of the conversion metrics
+     *
+     * @return the number of invalid records written by the writer
+     */
+    int reportInvalidRecords(MarcWriter writer) {
+        if (!(writer instanceof ValidatingMarcXmlWriter))
+            return 0;
+        int invalid = ((ValidatingMarcXmlWriter) writer).getInvalidRecords();
+        for (int i = 0; i < invalid; i++)
+            metrics.error(ValidatingMarcXmlWriter.INVALID_RECORD);
+        return invalid;
+    }
+
+    void setMetrics(CommandLine cmd) {
+        // Set the progress period, metrics summary file and JMX registration
+        try {
+            if (cmd.hasOption("g"))
+                progressSeconds = Integer.parseInt(cmd.getOptionValue("g").trim());
+        } catch (NumberFormatException ex) {
+            progressSeconds = -1;
+        }
+        if (progressSeconds < 0) {
+            System.err.println("ERROR: Progress seconds must be a non-negative integer.");
+            System.exit(1);
+        }
+        if (cmd.hasOption("u"))
+            metricsFile = Paths.get(cmd.getOptionValue("u").trim());
+        jmx = cmd.hasOption("x");
+    }
+
+    void setCompression(CommandLine cmd) {
+        // Set the output compression and its level
+        if (cmd.hasOption("z")) {
+            compression = OutputCompression.forName(cmd.getOptionValue("z").trim());
+            if (compression == null || compression == OutputCompression.NONE) {
+                System.err.println("ERROR: Compression must be gzip or zstd.");
+                System.exit(1);
+            }
+        }
+        compressionLevel = compression.defaultLevel;
+        if (!cmd.hasOption("q"))
+            return;
+        try {
+            compressionLevel = Integer.parseInt(cmd.getOptionValue("q").trim());
+        } catch (NumberFormatException ex) {
+            compressionLevel = -1;
+        }
+        if (compression == OutputCompression.NONE || !compression.validLevel(compressionLevel)) {
+            System.err.println("ERROR: Compression level must be in the range of the compression, gzip " +
+                    OutputCompression.GZIP.minLevel + "-" + OutputCompression.GZIP.maxLevel + " or zstd " +
+                    OutputCompression.ZSTD.minLevel + "-" + OutputCompression.ZSTD.maxLevel + ".");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return a buffered, and possibly compressed, stream to the MARC-XML output
+     */
+    OutputStream outputStream(OutputStream out) throws IOException {
+        return compression.outputStream(out, compressionLevel);
+    }
+
+    /**
+     * Start the progress log lines and the JMX MBean of the conversion metrics
+     */
+    void metricsStart() {
+        metrics.startProgress(progressSeconds);
+        if (jmx) {
+            try {
+                metrics.registerMBean(getClass().getSimpleName());
+            } catch (JMException e) {
+                authLog.warn("Failed to register the conversion metrics MBean", e);
+            }
+        }
+    }
+
+    /**
+     * Stop the conversion metrics and log their summary
+     */
+    void metricsStop() throws IOException {
+        metrics.stop(metricsFile);
+    }
+
+    static int positiveIntOption(CommandLine cmd, String opt, int defaultValue, String error) {
+        if (!cmd.hasOption(opt))
+            return defaultValue;
+        int value;
+        try {
+            value = Integer.parseInt(cmd.getOptionValue(opt).trim());
+        } catch (NumberFormatException ex) {
+            value = 0;
+        }
+        if (value < 1) {
+            System.err.println(error);
+            System.exit(1);
+        }
+        return value;
+    }
+
     Record authLookups(Record record) throws IOException, SQLException {
         authLookupInit();
         return authDBLookup.marcResolveAuthorities(record);
     }
 
+    List<Record> authLookups(List<Record> records) throws IOException, SQLException {
+        authLookupInit();
+        return authDBLookup.marcResolveAuthorities(records);
+    }
+
     void authLookupInit() throws IOException, SQLException {
         if (authDBLookup == null)
             authDBLookup = authDBLookup();
     }
 
     void authLookupClose() throws SQLException {
+        authLookupRelease();
+        if (authDBConnection != null)
+            authDBConnection.close();
+        if (authCache != null)
+            authLog.info(authCache.stats());
+    }
+
+    /**
+     * Close the authority lookup, but not a connection pool or cache it shares with other lookups.
+     */
+    void authLookupRelease() throws SQLException {
         if (authDBLookup != null) {
             authDBLookup.closeConnection();
             authDBLookup = null;
@@ -67,17 +278,40 @@ class MarcConverterWithAuthorityLookup {
     }
 
     AuthDBLookup authDBLookup() throws IOException, SQLException {
+        if (authSnapshotFile != null) {
+            AuthDBLookup lookup = new AuthSnapshotLookup(Paths.get(authSnapshotFile));
+            lookup.setMetrics(metrics);
+            setAuthTags(lookup);
+            lookup.openConnection();
+            return lookup;
+        }
         if (authDBConnection == null)
             authDBConnection = authDBConnection();
+        if (authCache == null && authCacheSize > 0)
+            authCache = new AuthCache(authCacheSize, authCacheTTL);
         AuthDBLookup lookup = new AuthDBLookup();
         lookup.setAuthDBConnection(authDBConnection);
+        lookup.setAuthCache(authCache);
+        lookup.setMetrics(metrics);
+        metrics.setAuthCache(authCache);
+        setAuthTags(lookup);
         lookup.openConnection();
         return lookup;
     }
 
+    private void setAuthTags(AuthDBLookup lookup) {
+        if (authDBProperties != null) {
+            lookup.setAuthURITags(authDBProperties.getAuthURITags());
+            lookup.setAuthLinkTags(authDBProperties.getAuthLinkTags());
+        }
+    }
+
     AuthDBConnection authDBConnection() throws IOException, SQLException {
         if (authDBProperties == null)
             authDBProperties = authDBProperties();
+        // Every lookup thread holds a pooled connection for the whole conversion
+        if (authDBProperties.getPoolMaxSize() < threads)
+            authDBProperties.setPoolMaxSize(threads);
         AuthDBConnection conn = new AuthDBConnection();
         conn.setAuthDBProperties(authDBProperties);
         return conn;
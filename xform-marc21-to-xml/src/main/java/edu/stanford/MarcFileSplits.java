@@ -0,0 +1,75 @@
+package edu.stanford;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Splits a MARC21 (ISO 2709) file into byte ranges of whole records, so the ranges can be read
+ * and converted concurrently, each by its own reader (see MappedFileInputStream).  The record
+ * boundaries are indexed by a scan of the record lengths of the leaders, skipping the records,
+ * and a boundary is only split at when the record before it ends with a record terminator (0x1D).
+ * The splits are about the same size; a file of fewer records than splits has a split per record.
+ * When a record length is not valid, the rest of the file is in the last split, where the reader
+ * fails on it as it would on the whole file.
+ */
+class MarcFileSplits {
+
+    /**
+     * @return the offsets of the splits of the file and the end of the file, for splits[i] to
+     * splits[i + 1]; at most splits + 1 offsets, and only the end of an empty file
+     */
+    static long[] splitOffsets(Path marcFile, int splits) throws IOException {
+        long size = Files.size(marcFile);
+        List<Long> offsets = new ArrayList<>(splits + 1);
+        offsets.add(0L);
+        try (InputStream input = new MappedFileInputStream(marcFile)) {
+            byte[] length = new byte[5];
+            long offset = 0;
+            while (offset < size && offsets.size() < splits) {
+                int recordLength = recordLength(input, length);
+                if (recordLength < RawMarcRecord.LEADER_LENGTH || offset + recordLength > size)
+                    break;
+                long skip = recordLength - length.length - 1;
+                if (input.skip(skip) != skip || input.read() != RawMarcRecord.RECORD_TERMINATOR)
+                    break;
+                offset += recordLength;
+                // The next split starts at the first record boundary after its share of the file
+                if (offset < size && offset >= size * offsets.size() / splits)
+                    offsets.add(offset);
+            }
+        }
+        if (size == 0)
+            offsets.clear();
+        offsets.add(size);
+        long[] splitOffsets = new long[offsets.size()];
+        for (int i = 0; i < splitOffsets.length; i++)
+            splitOffsets[i] = offsets.get(i);
+        return splitOffsets;
+    }
+
+    /**
+     * @return the record length of the leader, or -1 when it is not a record length
+     */
+    private static int recordLength(InputStream input, byte[] length) throws IOException {
+        int n = 0;
+        while (n < length.length) {
+            int read = input.read(length, n, length.length - n);
+            if (read < 0)
+                return -1;
+            n += read;
+        }
+        for (byte b : length) {
+            if (b < '0' || b > '9')
+                return -1;
+        }
+        return Integer.parseInt(new String(length, StandardCharsets.ISO_8859_1));
+    }
+
+}
@@ -1,12 +1,16 @@
 package edu.stanford;
 
 import org.apache.commons.cli.*;
+import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.Filter;
+import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
 import org.apache.logging.log4j.core.appender.FileAppender;
+import org.apache.logging.log4j.core.config.AbstractConfiguration;
 import org.apache.logging.log4j.core.config.AppenderRef;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.apache.logging.log4j.core.config.LoggerConfig;
@@ -16,9 +20,22 @@ import org.marc4j.*;
 import org.marc4j.marc.Record;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Uses the Marc4J library to transform the MARC record to MarcXML.
@@ -32,13 +49,59 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
     public static void main (String [] args) throws IOException, ParseException, SQLException {
         MarcToXML marcToXML = new MarcToXML();
         marcToXML.parseArgs(args);
+        marcToXML.metricsStart();
         marcToXML.authLookupInit();
         marcToXML.convertMarcRecords();
         marcToXML.authLookupClose();
+        marcToXML.metricsStop();
+        // With -v, records that are written but invalid fail the conversion; the records that
+        // failed to convert are only logged
+        if (marcToXML.invalidRecords.get() > 0)
+            System.exit(1);
+    }
+
+    void convertMarcRecords() throws IOException, SQLException {
+        if (checkpointFile != null) {
+            checkpoint = new ConversionCheckpoint(checkpointFile, Paths.get(marcInputFile), checkpointRecords);
+            checkpoint.setFlush(this::flushOutputs);
+        }
+        openChunkWriter();
+        try {
+            if (sharded)
+                createShards();
+            if (!xmlReplace)
+                scanExistingOutputs();
+            if (inputSplits > 1) {
+                convertMarcSplits();
+            } else {
+                setMarcReader();
+                convertMarcReader();
+            }
+            if (checkpoint != null)
+                checkpoint.finish();
+        } finally {
+            closeMarcReader();
+            checkpoint = null;
+            existingOutputs = null;
+            if (chunkWriter != null) {
+                chunkWriter.close();
+                chunkWriter = null;
+            }
+        }
     }
 
-    void convertMarcRecords() throws FileNotFoundException {
-        setMarcReader();
+    /**
+     * Convert the records of the MARC reader, with the outputs already set up.
+     */
+    void convertMarcReader() throws IOException, SQLException {
+        if (threads > 1 || batchSize > 1) {
+            // Initialize the shared authority connection and cache before the workers start
+            authLookupInit();
+            int writers = (writerThreads > 0) ? writerThreads : threads;
+            MarcToXMLPipeline pipeline = new MarcToXMLPipeline(this, threads, writers);
+            pipeline.convert(marcReader, batchSize);
+            return;
+        }
         while (marcReader.hasNext()) {
             convertMarcRecord(marcReader.next());
         }
@@ -46,22 +109,402 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
 
     void convertMarcRecord(Record record) {
         try {
+            if (!doConversion(record) || writeMarcRecord(authLookups(record)))
+                checkpointDone(record);
+            else
+                checkpointFailed(record);
+        }
+        catch (IOException | SQLException | NullPointerException | MarcException e) {
+            reportErrors(e);
+            checkpointFailed(record);
+        }
+    }
+
+    /**
+     * @return true when the record is written, false when it failed
+     */
+    boolean writeMarcRecord(Record record) {
+        if (chunkWriter != null)
+            return writeMarcChunk(record);
+        try {
+            long start = System.nanoTime();
             String xmlFilePath = xmlOutputFilePath(record);
-            File xmlFile = new File(xmlFilePath);
-            if (doConversion(xmlFile, xmlReplace)) {
-                MarcWriter writer = marcRecordWriter(xmlFilePath);
-                writer.write(authLookups(record));
-                writer.close();
-                log.info("Output MARC-XML file: " + xmlFilePath);
+            MarcWriter writer = marcRecordWriter(xmlFilePath);
+            writer.write(record);
+            writer.close();
+            reportInvalidRecords(writer);
+            metrics.writes.record(System.nanoTime() - start);
+            metrics.recordsWritten.increment();
+            logRecord(outputRecords, "Output MARC-XML file: " + xmlFilePath);
+            return true;
+        }
+        catch (IOException | NullPointerException | MarcException e) {
+            reportErrors(e);
+            return false;
+        }
+    }
+
+
+    boolean writeMarcChunk(Record record) {
+        try {
+            long start = System.nanoTime();
+            String chunkName = validate ?
+                    chunkWriter.write(record.getControlNumber(), validatedRecordXml(record)) : chunkWriter.write(record);
+            metrics.writes.record(System.nanoTime() - start);
+            metrics.recordsWritten.increment();
+            logRecord(outputRecords, "Output MARC-XML record: " + record.getControlNumber() + " in " + chunkName);
+            return true;
+        }
+        catch (IOException | NullPointerException | MarcException e) {
+            reportErrors(e);
+            return false;
+        }
+    }
+
+
+    /**
+     * @return the MARC-XML record element, as MarcXmlChunkWriter.recordXml serializes it, validated
+     */
+    byte[] validatedRecordXml(Record record) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ValidatingMarcXmlWriter writer = new ValidatingMarcXmlWriter(out, true);
+        writer.write(record);
+        writer.close();
+        reportInvalidRecords(writer);
+        return MarcXmlMarkup.INDENTED.recordXml(out.toByteArray());
+    }
+
+    /**
+     * Invalid records are written, but count as errors, so the conversion of the file fails
+     */
+    @Override
+    int reportInvalidRecords(MarcWriter writer) {
+        int invalid = super.reportInvalidRecords(writer);
+        errors.addAndGet(invalid);
+        invalidRecords.addAndGet(invalid);
+        return invalid;
+    }
+
+
+    // Raw-byte fast path: the records without authority keys are written to MARC-XML from
+    // their bytes, without the marc4j Record objects, see RawMarcRecord.  They are written as
+    // they are read, also by the reading thread of the pipeline.  It is not used for validated
+    // output, which is validated as the Record is written.
+
+    boolean fastPath = true;
+
+    void parseFastPath() {
+        fastPath = !cmd.hasOption("y");
+    }
+
+    /**
+     * @return a reader of the records for the Record conversion, which converts the records
+     * without authority keys from their bytes as it reads them (unless the fast path is off)
+     * and numbers the records for the checkpoints
+     */
+    MarcReader rawRecordReader(RawMarcReader rawReader) {
+        return new MarcReader() {
+            private Record next = null;
+
+            @Override
+            public boolean hasNext() {
+                while (next == null && rawReader.hasNext()) {
+                    RawMarcRecord raw = rawReader.nextRaw();
+                    Long number = (checkpoint == null) ? null : checkpoint.read(rawReader.getOffset());
+                    if (!fastPath || validate || !convertRawRecord(raw, number)) {
+                        next = raw.toRecord();
+                        next.setId(number);
+                    }
+                }
+                return next != null;
+            }
+
+            @Override
+            public Record next() {
+                if (!hasNext())
+                    throw new MarcException("No more MARC records");
+                Record record = next;
+                next = null;
+                return record;
+            }
+        };
+    }
+
+    /**
+     * @param number the number of the record for the checkpoints, or null
+     * @return false when the record needs the Record conversion
+     */
+    boolean convertRawRecord(RawMarcRecord raw, Long number) {
+        byte[] xml = raw.toMarcXml();
+        if (xml == null)
+            return false;
+        String controlNumber = raw.getControlNumber();
+        if (controlNumber == null)
+            return false;
+        metrics.recordsRead.increment();
+        if (!doConversion(controlNumber) || writeMarcXml(controlNumber, xml))
+            checkpointDone(number);
+        else
+            checkpointFailed(number);
+        return true;
+    }
+
+    /**
+     * @return true when the record is written, false when it failed
+     */
+    boolean writeMarcXml(String controlNumber, byte[] xml) {
+        try {
+            long start = System.nanoTime();
+            String message;
+            if (chunkWriter != null) {
+                String chunkName = chunkWriter.write(controlNumber, xml);
+                message = "Output MARC-XML record: " + controlNumber + " in " + chunkName;
             } else {
-                log.info("Skipped MARC-XML file: " + xmlFilePath);
+                String xmlFilePath = xmlOutputFilePath(controlNumber);
+                try (OutputStream out = outputStream(metrics.countingOutput(new FileOutputStream(xmlFilePath)))) {
+                    MarcXmlChunkWriter.writeDocument(out, xml);
+                }
+                message = "Output MARC-XML file: " + xmlFilePath;
             }
+            metrics.writes.record(System.nanoTime() - start);
+            metrics.recordsWritten.increment();
+            logRecord(outputRecords, message);
+            return true;
         }
-        catch (IOException | SQLException | NullPointerException | MarcException e) {
+        catch (IOException e) {
+            reportErrors(e);
+            return false;
+        }
+    }
+
+
+    // Checkpoints of the conversion, to resume it at the last checkpoint, see ConversionCheckpoint.
+    // A record is done when it is written, skipped or failed; a failed record holds the checkpoints
+    // at its offset, and keeps the checkpoint file, so a resumed conversion converts it again.
+
+    Path checkpointFile = null;
+    int checkpointRecords = ConversionCheckpoint.DEFAULT_INTERVAL;
+
+    ConversionCheckpoint checkpoint = null;
+
+    void parseCheckpoint() {
+        if (cmd.hasOption("f"))
+            checkpointFile = Paths.get(cmd.getOptionValue("f").trim());
+        checkpointRecords = positiveIntOption(cmd, "F", checkpointRecords,
+                "ERROR: Checkpoint records must be a positive integer.");
+    }
+
+    void checkpointDone(Record record) {
+        checkpointDone(record.getId());
+    }
+
+    void checkpointDone(Long number) {
+        if (checkpoint == null || number == null)
+            return;
+        try {
+            checkpoint.done(number);
+        } catch (IOException e) {
+            reportErrors(e);
+        }
+    }
+
+    void checkpointFailed(Record record) {
+        checkpointFailed(record.getId());
+    }
+
+    void checkpointFailed(Long number) {
+        if (checkpoint == null || number == null)
+            return;
+        try {
+            checkpoint.failed(number);
+        } catch (IOException e) {
             reportErrors(e);
         }
     }
 
+    /**
+     * Complete the outputs of the records written, before a checkpoint
+     */
+    void flushOutputs() throws IOException {
+        if (chunkWriter != null)
+            chunkWriter.closeChunk();
+    }
+
+
+    // Chunked output, see MarcXmlChunkWriter
+
+    static final long MEGABYTE = 1024 * 1024;
+
+    int chunkRecords = 0;
+    int chunkMegabytes = 0;
+
+    MarcXmlChunkWriter chunkWriter = null;
+
+    void openChunkWriter() throws IOException {
+        if (chunkRecords > 0 || chunkMegabytes > 0)
+            chunkWriter = new MarcXmlChunkWriter(Paths.get(xmlOutputPath), chunkRecords, chunkMegabytes * MEGABYTE);
+        if (chunkWriter != null) {
+            chunkWriter.setMetrics(metrics);
+            chunkWriter.setCompression(compression, compressionLevel);
+        }
+    }
+
+    void parseChunks() {
+        chunkRecords = positiveIntOption(cmd, "n", chunkRecords, "ERROR: Chunk records must be a positive integer.");
+        chunkMegabytes = positiveIntOption(cmd, "m", chunkMegabytes, "ERROR: Chunk megabytes must be a positive integer.");
+    }
+
+
+    // Input splits: the MARC input file is split into byte ranges of whole records, see
+    // MarcFileSplits, converted concurrently by a converter per split, each with its own reader,
+    // record counts and, for chunked output, its own chunk writer in a split directory of the
+    // output path.  When all the splits are converted, their chunks are merged in split order.
+
+    static final String SPLIT_PREFIX = "split-";
+
+    int inputSplits = 1;
+
+    // The byte range of the MARC input file to convert
+    long inputStart = 0;
+    long inputEnd = Long.MAX_VALUE;
+
+    void parseInputSplits() {
+        inputSplits = positiveIntOption(cmd, "K", inputSplits, "ERROR: Input splits must be a positive integer.");
+        if (inputSplits > 1 && checkpointFile != null) {
+            System.err.println("ERROR: Input splits cannot be checkpointed.");
+            printUsage();
+            System.exit(1);
+        }
+    }
+
+    void convertMarcSplits() throws IOException, SQLException {
+        long[] offsets = MarcFileSplits.splitOffsets(Paths.get(marcInputFile), inputSplits);
+        int splits = offsets.length - 1;
+        log.info("MARC file splits: " + splits + " of " + marcInputFile);
+        // Open the shared authority connection pool and cache before the splits are converted
+        authLookupInit();
+        List<Path> splitPaths = new ArrayList<>(splits);
+        List<Future<Boolean>> results = new ArrayList<>(splits);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, splits));
+        try {
+            for (int i = 0; i < splits; i++) {
+                MarcToXML converter = converter();
+                converter.inputStart = offsets[i];
+                converter.inputEnd = offsets[i + 1];
+                converter.outputRecords = new AtomicLong();
+                converter.skippedRecords = new AtomicLong();
+                if (chunkWriter != null) {
+                    // A split directory of a previous run holds chunks that are not in the manifest
+                    Path splitPath = Paths.get(xmlOutputPath, String.format("%s%02d", SPLIT_PREFIX, i + 1));
+                    FileUtils.deleteDirectory(splitPath.toFile());
+                    Files.createDirectories(splitPath);
+                    converter.setXmlOutputPath(splitPath.toString());
+                    converter.openChunkWriter();
+                    splitPaths.add(splitPath);
+                }
+                String split = "MARC file split " + (i + 1) + " of " + splits;
+                results.add(executor.submit(() -> convertMarcSplit(converter, split)));
+            }
+            for (Future<Boolean> result : results)
+                result(result);
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Path splitPath : splitPaths) {
+            chunkWriter.merge(splitPath);
+            FileUtils.deleteDirectory(splitPath.toFile());
+        }
+    }
+
+    /**
+     * @return true when all the records of the split are converted
+     */
+    private boolean convertMarcSplit(MarcToXML converter, String split) {
+        log.info("Converting " + split + ": bytes " + converter.inputStart + " to " + converter.inputEnd);
+        try {
+            converter.setMarcReader();
+            converter.convertMarcReader();
+        } catch (IOException | SQLException | RuntimeException e) {
+            converter.reportErrors(e);
+        } finally {
+            try {
+                converter.closeMarcReader();
+                converter.authLookupRelease();
+                if (converter.chunkWriter != null)
+                    converter.chunkWriter.close();
+            } catch (IOException | SQLException e) {
+                converter.reportErrors(e);
+            }
+        }
+        int splitErrors = converter.errors.get();
+        errors.addAndGet(splitErrors);
+        invalidRecords.addAndGet(converter.invalidRecords.get());
+        log.info("Converted " + split + ": records output " + converter.outputRecords.get() +
+                ", skipped " + converter.skippedRecords.get() + ", errors " + splitErrors);
+        return splitErrors == 0;
+    }
+
+    /**
+     * @return the result of a conversion by another thread, false when it failed
+     */
+    boolean result(Future<Boolean> result) throws IOException {
+        try {
+            return result.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            reportErrors((Exception) e.getCause());
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("MARC file conversions were interrupted", e);
+        }
+    }
+
+    /**
+     * @return a converter with the options of this converter, sharing its outputs and authority lookups
+     */
+    MarcToXML converter() {
+        MarcToXML converter = new MarcToXML();
+        converter.setMarcInputFile(marcInputFile);
+        converter.setXmlOutputPath(xmlOutputPath);
+        converter.setXmlReplace(xmlReplace);
+        converter.sharded = sharded;
+        converter.chunkWriter = chunkWriter;
+        converter.chunkRecords = chunkRecords;
+        converter.chunkMegabytes = chunkMegabytes;
+        converter.existingOutputs = existingOutputs;
+        converter.batchSize = batchSize;
+        converter.threads = threads;
+        converter.writerThreads = writerThreads;
+        converter.validate = validate;
+        converter.fastPath = fastPath;
+        converter.compression = compression;
+        converter.compressionLevel = compressionLevel;
+        converter.metrics = metrics;
+        converter.authDBProperties = authDBProperties;
+        converter.authDBConnection = authDBConnection;
+        converter.authCache = authCache;
+        converter.authCacheSize = authCacheSize;
+        converter.authCacheTTL = authCacheTTL;
+        converter.authSnapshotFile = authSnapshotFile;
+        converter.log = log;
+        converter.logEvery = logEvery;
+        converter.outputRecords = outputRecords;
+        converter.skippedRecords = skippedRecords;
+        return converter;
+    }
+
+    @Override
+    AuthDBConnection authDBConnection() throws IOException, SQLException {
+        AuthDBConnection conn = super.authDBConnection();
+        // Every split holds a pooled connection per lookup thread, besides this converter
+        int connections = inputSplits * threads + 1;
+        if (inputSplits > 1 && authDBProperties.getPoolMaxSize() < connections)
+            authDBProperties.setPoolMaxSize(connections);
+        return conn;
+    }
+
 
     // MARC input file
 
@@ -76,14 +519,14 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
         String iFile = cmd.getOptionValue("i");
         if (iFile == null) {
             System.err.println("ERROR: No MARC input file specified.");
-            printHelp(className, options);
+            printUsage();
             System.exit(1);
         }
         // Check the input file exists
         File marcFile = new File(iFile.trim());
         if (! marcFile.isFile()) {
             System.err.println("ERROR: MARC input file is not a file.");
-            printHelp(className, options);
+            printUsage();
             System.exit(1);
         }
         setMarcInputFile( marcFile.toString() );
@@ -93,15 +536,31 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
     // MARC Reader and Writer
 
     MarcReader marcReader = null;
+    InputStream marcInputStream = null;
+
+    void setMarcReader() throws IOException {
+        long position = checkpoint != null ? checkpoint.getResumeOffset() : inputStart;
+        marcInputStream = new MappedFileInputStream(Paths.get(marcInputFile), position, inputEnd,
+                MappedFileInputStream.DEFAULT_WINDOW_SIZE);
+        InputStream input = metrics.countingInput(marcInputStream);
+        if ((fastPath && !validate) || checkpoint != null)
+            marcReader = metrics.countingReader(rawRecordReader(new RawMarcReader(input)));
+        else
+            marcReader = metrics.countingReader(new MarcStreamReader(input));
+    }
 
-    void setMarcReader() throws FileNotFoundException {
-        FileInputStream marcInputFileStream = new FileInputStream(marcInputFile);
-        marcReader = new MarcStreamReader(marcInputFileStream);
+    void closeMarcReader() throws IOException {
+        if (marcInputStream != null) {
+            marcInputStream.close();
+            marcInputStream = null;
+        }
     }
 
-    MarcWriter marcRecordWriter(String filePath) throws FileNotFoundException {
-        OutputStream outFileStream = new FileOutputStream(filePath);
-        return new MarcXmlWriter(outFileStream, true);
+    MarcWriter marcRecordWriter(String filePath) throws IOException {
+        OutputStream outFileStream = outputStream(metrics.countingOutput(new FileOutputStream(filePath)));
+        if (validate)
+            return new ValidatingMarcXmlWriter(outFileStream, true);
+        return new StreamingMarcXmlWriter(outFileStream, true);
     }
 
 
@@ -117,6 +576,37 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
         setXmlReplace( cmd.hasOption("r") );
     }
 
+    Boolean doConversion(Record record) {
+        try {
+            return doConversion(controlNumber(record));
+        }
+        catch (NullPointerException e) {
+            reportErrors(e);
+        }
+        return false;
+    }
+
+    Boolean doConversion(String controlNumber) {
+        if (chunkWriter != null) {
+            if (existingOutputs == null || existingOutputs.add(controlNumber))
+                return true;
+            logRecord(skippedRecords, "Skipped MARC-XML record: " + controlNumber);
+            metrics.recordsSkipped.increment();
+            return false;
+        }
+        String xmlFilePath = xmlOutputFilePath(controlNumber);
+        if (existingOutputs != null) {
+            // Claim the file name, so a repeated control number is skipped like an existing file
+            if (existingOutputs.add(xmlOutputFileName(controlNumber)))
+                return true;
+        } else if (doConversion(new File(xmlFilePath), xmlReplace)) {
+            return true;
+        }
+        logRecord(skippedRecords, "Skipped MARC-XML file: " + xmlFilePath);
+        metrics.recordsSkipped.increment();
+        return false;
+    }
+
     Boolean doConversion(File xmlFile, Boolean xmlReplace) {
         if (!xmlFile.exists() || xmlReplace) {
             return true;
@@ -127,15 +617,113 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
     }
 
 
+    // Existing outputs, scanned at the start of a conversion so the records are skipped
+    // without a file system check per record: XML file names, or the control numbers in
+    // the manifest for chunked output.
+
+    Set<String> existingOutputs = null;
+
+    void scanExistingOutputs() throws IOException {
+        Set<String> outputs = ConcurrentHashMap.newKeySet();
+        Path outputPath = Paths.get(xmlOutputPath);
+        if (chunkWriter != null) {
+            Path manifest = outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE);
+            if (manifest.toFile().isFile()) {
+                try (BufferedReader reader = Files.newBufferedReader(manifest, StandardCharsets.UTF_8)) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        int tab = line.indexOf('\t');
+                        if (tab > 0)
+                            outputs.add(line.substring(0, tab));
+                    }
+                }
+            }
+        } else if (sharded) {
+            for (String shard : SHARDS)
+                addXmlFileNames(outputPath.resolve(shard), xmlFileSuffix(), outputs);
+        } else {
+            addXmlFileNames(outputPath, xmlFileSuffix(), outputs);
+        }
+        existingOutputs = outputs;
+        log.info("Existing MARC-XML outputs: " + outputs.size());
+    }
+
+    private static void addXmlFileNames(Path path, String suffix, Set<String> outputs) {
+        String[] names = path.toFile().list();
+        if (names == null)
+            return;
+        for (String name : names) {
+            if (name.endsWith(suffix))
+                outputs.add(name);
+        }
+    }
+
+
+    // Writer threads for the conversion pipeline, see MarcToXMLPipeline
+
+    int writerThreads = 0;
+
+    void parseWriterThreads() {
+        writerThreads = positiveIntOption(cmd, "w", threads, "ERROR: Writer threads must be a positive integer.");
+    }
+
+
     // Output for XML files
 
     String xmlOutputFilePath(Record record) {
-        String cn = record.getControlNumber();
-        String outFileName = cn.replaceAll(" ", "_").toLowerCase() + ".xml";
-        Path outFilePath = Paths.get(xmlOutputPath, outFileName);
+        return xmlOutputFilePath(controlNumber(record));
+    }
+
+    String xmlOutputFilePath(String controlNumber) {
+        String outFileName = xmlOutputFileName(controlNumber);
+        Path outFilePath = sharded ?
+                Paths.get(xmlOutputPath, shard(outFileName), outFileName) :
+                Paths.get(xmlOutputPath, outFileName);
         return outFilePath.toString();
     }
 
+    String xmlOutputFileName(Record record) {
+        return xmlOutputFileName(controlNumber(record));
+    }
+
+    String xmlOutputFileName(String controlNumber) {
+        return controlNumber.replace(' ', '_').toLowerCase() + xmlFileSuffix();
+    }
+
+    private String xmlFileSuffix() {
+        return ".xml" + compression.extension;
+    }
+
+    private static String controlNumber(Record record) {
+        return Objects.requireNonNull(record.getControlNumber(), "MARC record has no control number");
+    }
+
+    // Sharded output: XML files in 256 subdirectories, by a hash of the file name,
+    // so the output directories stay small enough for fast file system operations.
+
+    static final String[] SHARDS = new String[256];
+
+    static {
+        for (int i = 0; i < SHARDS.length; i++)
+            SHARDS[i] = String.format("%02x", i);
+    }
+
+    boolean sharded = false;
+
+    static String shard(String fileName) {
+        // String.hashCode() is specified, so the shard of a file name is stable
+        return SHARDS[fileName.hashCode() & 0xFF];
+    }
+
+    void createShards() throws IOException {
+        for (String shard : SHARDS)
+            Files.createDirectories(Paths.get(xmlOutputPath, shard));
+    }
+
+    void parseSharded() {
+        sharded = cmd.hasOption("d");
+    }
+
     String xmlOutputPath = null;
 
     void setXmlOutputPath(String path) {
@@ -147,14 +735,14 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
         String oPath = cmd.getOptionValue("o");
         if (oPath == null) {
             System.err.println("ERROR: No MARC-XML output path specified.");
-            printHelp(className, options);
+            printUsage();
             System.exit(1);
         }
         // Check the output path exists
         File path = new File(oPath.trim());
         if (! path.isDirectory()) {
             System.err.println("ERROR: MARC-XML output path is not a directory.");
-            printHelp(className, options);
+            printUsage();
             System.exit(1);
         }
         setXmlOutputPath( path.toString() );
@@ -163,9 +751,38 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
 
     // Logging
 
+    // The number of records that failed to convert, or were written but are invalid
+    final AtomicInteger errors = new AtomicInteger();
+
+    // The number of records that were written but are invalid, with -v
+    final AtomicInteger invalidRecords = new AtomicInteger();
+
     void reportErrors(Exception e) {
+        errors.incrementAndGet();
+        metrics.error(e);
         log.fatal( "FAILED", e );
-        e.printStackTrace(System.err);
+        // The stack trace is in the log, STDERR only gets a line per failure
+        System.err.println("FAILED: " + e);
+    }
+
+    // Per-record log lines: every record, or a line every logEvery records
+
+    int logEvery = 1;
+
+    // The records output and skipped, shared by the file converters of a batch
+    AtomicLong outputRecords = new AtomicLong();
+    AtomicLong skippedRecords = new AtomicLong();
+
+    void logRecord(AtomicLong records, String message) {
+        long count = records.incrementAndGet();
+        if (logEvery == 1)
+            log.info(message);
+        else if (count % logEvery == 0)
+            log.info(message + " (records: " + count + ")");
+    }
+
+    void parseLogEvery() {
+        logEvery = positiveIntOption(cmd, "k", logEvery, "ERROR: Log every must be a positive integer.");
     }
 
     Logger log;
@@ -174,6 +791,11 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
 
     static String logFileDefault = "log/MarcToXML.log";
 
+    // Log to the file asynchronously, through a bounded queue and a background thread
+    boolean asyncLog = false;
+
+    static final int ASYNC_LOG_QUEUE_SIZE = 8192;
+
     void setLogger(String logFile) {
         // See src/main/resources/log4j2.xml for configuration details.
         // This method uses a programmatic approach to add a file logger.
@@ -186,29 +808,58 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
         logFile = cmd.getOptionValue("l");
         if (logFile == null)
             logFile = logFileDefault;
+        asyncLog = cmd.hasOption("a");
         setLogger( logFile.trim() );
     }
 
     private void addLogFileAppender(String filename) {
         if (filename == null)
             return;
-        String loggerName = MarcToXML.class.getName();
+        // Log all the edu.stanford classes, including authority lookup errors and statistics
+        String loggerName = MarcToXML.class.getPackage().getName();
         String fileAppenderName = "LOGFile";
+        String asyncAppenderName = "ASYNCLOGFile";
         LoggerContext context = (LoggerContext) LogManager.getContext(false);
         Configuration config = context.getConfiguration();
+        if (config instanceof AbstractConfiguration) {
+            // Stop and replace the appenders of a previous log file, because
+            // the async appender refers to its file appender by name
+            ((AbstractConfiguration) config).removeAppender(asyncAppenderName);
+            ((AbstractConfiguration) config).removeAppender(fileAppenderName);
+        }
+        // The line number (%L) needs the caller location, which is too costly to capture for async logging
+        String pattern = asyncLog ?
+                "%d{yyyy-MM-dd HH:mm:ss} %-5p %c{1} - %m%n" : "%d{yyyy-MM-dd HH:mm:ss} %-5p %c{1}:%L - %m%n";
         PatternLayout layout = PatternLayout.newBuilder()
                 .withConfiguration(config)
-                .withPattern("%d{yyyy-MM-dd HH:mm:ss} %-5p %c{1}:%L - %m%n")
+                .withPattern(pattern)
                 .build();
-        FileAppender appender = FileAppender.newBuilder()
+        FileAppender fileAppender = FileAppender.newBuilder()
                 .withFileName(filename)
                 .withName(fileAppenderName)
                 .withLayout(layout)
+                .withBufferedIo(true)
+                .withImmediateFlush(!asyncLog)
                 .build();
-        appender.start();
-        config.addAppender(appender);
+        fileAppender.start();
+        config.addAppender(fileAppender);
+        Appender appender = fileAppender;
+        if (asyncLog) {
+            // The logging threads only queue the events, a background thread writes the file
+            // and flushes it at the end of a batch of events.  The queue blocks when it is full.
+            appender = AsyncAppender.newBuilder()
+                    .setName(asyncAppenderName)
+                    .setAppenderRefs(new AppenderRef[] {AppenderRef.createAppenderRef(fileAppenderName, null, null)})
+                    .setConfiguration(config)
+                    .setBufferSize(ASYNC_LOG_QUEUE_SIZE)
+                    .setBlocking(true)
+                    .setIncludeLocation(false)
+                    .build();
+            appender.start();
+            config.addAppender(appender);
+        }
 
-        AppenderRef ref = AppenderRef.createAppenderRef(fileAppenderName, null, null);
+        AppenderRef ref = AppenderRef.createAppenderRef(appender.getName(), null, null);
         AppenderRef[] appenderRefs = new AppenderRef[] {ref};
 
         Boolean loggerAdd = false;
@@ -244,26 +895,66 @@ class MarcToXML extends MarcConverterWithAuthorityLookup {
         opts.addOption("i", "inputFile", true, "MARC input file (binary .mrc file expected; required)");
         opts.addOption("o", "outputPath", true, "MARC XML output path (default: ENV[\"LD4P_MARCXML\"])");
         opts.addOption("l", "logFile", true, "Log file output (default: " + logFileDefault + ")");
+        opts.addOption("a", "async-log", false, "Write the log file asynchronously (default: false)");
+        opts.addOption("k", "log-every", true,
+                "Log a line every this many records output or skipped, instead of every record (default: 1)");
         opts.addOption("r", "replace", false, "Replace existing XML files (default: false)");
+        opts.addOption("w", "writer-threads", true, "Number of MARC-XML writer threads (default: --threads)");
+        opts.addOption("d", "sharded", false,
+                "Write the XML files into 256 hash-prefix subdirectories of the output path (default: false)");
+        opts.addOption("y", "no-fast-path", false,
+                "Convert all the records with marc4j Records, without the raw-byte fast path for records without authority keys (default: false)");
+        opts.addOption("n", "chunk-records", true,
+                "Write MARC-XML chunk files of this many records and a manifest, instead of a file per record");
+        opts.addOption("m", "chunk-megabytes", true,
+                "Write MARC-XML chunk files of about this many megabytes and a manifest, instead of a file per record");
+        opts.addOption("f", "checkpoint-file", true,
+                "Checkpoint file, to resume an interrupted conversion of the input file at its last checkpoint");
+        opts.addOption("F", "checkpoint-records", true,
+                "Records between checkpoints, with --checkpoint-file (default: " + ConversionCheckpoint.DEFAULT_INTERVAL + ")");
+        opts.addOption("K", "input-splits", true,
+                "Split the input file into this many byte ranges of records, converted concurrently (default: 1)");
         MarcConverterWithAuthorityLookup.addOptions(opts);
         return opts;
     }
 
+    void printUsage() {
+        printHelp(className, options);
+    }
+
     void parseArgs(String [] args) throws ParseException {
         CommandLineParser parser = new DefaultParser();
         cmd = parser.parse(options, args);
         if (cmd.hasOption('h')) {
             // Print the help message and exit
-            printHelp(className, options);
+            printUsage();
             System.exit(0);
         }
         // Parse required options
         parseInputFile();
+        parseOptions();
+    }
+
+    void parseOptions() {
         // Parse optional options
         setAuthDBProperties(cmd);
+        setAuthCache(cmd);
+        setAuthSnapshot(cmd);
         parseOutputPath();
         parseLogFile();
+        parseLogEvery();
         parseXmlReplace();
+        setBatchSize(cmd);
+        setThreads(cmd);
+        setValidate(cmd);
+        setMetrics(cmd);
+        setCompression(cmd);
+        parseWriterThreads();
+        parseChunks();
+        parseSharded();
+        parseFastPath();
+        parseCheckpoint();
+        parseInputSplits();
     }
 
 }
@@ -0,0 +1,287 @@
+package edu.stanford;
+
+import org.apache.commons.cli.*;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Converts all the MARC files of a directory, or a glob of MARC files, to MARC-XML in one JVM.
+ * The files are converted concurrently by file threads, with the MarcToXML options, and share
+ * the authority DB connection pool, the authority cache, the scan of existing outputs and the
+ * chunk writer.  The result of each file is reported on STDOUT, for scripts to archive the
+ * converted files:
+ * <pre>
+ *   CONVERTED TAB marc-file
+ *   FAILED TAB marc-file
+ * </pre>
+ * A file fails when it cannot be read or any of its records fails to convert or, validated,
+ * is invalid.  An input without MARC files is not an error; an input directory that is
+ * missing or cannot be read is.
+ */
+class MarcToXMLBatch extends MarcToXML {
+
+    static final String CONVERTED = "CONVERTED";
+    static final String FAILED = "FAILED";
+
+    public static void main (String [] args) throws IOException, ParseException, SQLException {
+        MarcToXMLBatch marcToXMLBatch = new MarcToXMLBatch();
+        marcToXMLBatch.parseArgs(args);
+        if (marcToXMLBatch.marcFiles.isEmpty()) {
+            // An empty input directory is the normal case between MARC file drops
+            marcToXMLBatch.log.info("No MARC files to convert: " + marcToXMLBatch.cmd.getOptionValue("i").trim());
+            return;
+        }
+        marcToXMLBatch.metricsStart();
+        int failures = marcToXMLBatch.convertMarcFiles();
+        marcToXMLBatch.authLookupClose();
+        marcToXMLBatch.metricsStop();
+        if (failures > 0)
+            System.exit(1);
+    }
+
+    /**
+     * @return the number of MARC files that failed to convert
+     */
+    int convertMarcFiles() throws IOException, SQLException {
+        log.info("MARC files to convert: " + marcFiles.size());
+        ExecutorService executor = Executors.newFixedThreadPool(fileThreads);
+        try {
+            openOutputs();
+            int failures = convertMarcFiles(marcFiles, executor);
+            log.info("Converted MARC files: " + (marcFiles.size() - failures) + ", failed: " + failures);
+            return failures;
+        } finally {
+            executor.shutdownNow();
+            closeOutputs();
+        }
+    }
+
+    /**
+     * Set up the outputs and authority lookups shared by the file converters
+     */
+    void openOutputs() throws IOException, SQLException {
+        openChunkWriter();
+        if (sharded)
+            createShards();
+        if (!xmlReplace)
+            scanExistingOutputs();
+        // Open the shared authority connection pool and cache before the files are converted
+        authLookupInit();
+    }
+
+    void closeOutputs() throws IOException {
+        existingOutputs = null;
+        if (chunkWriter != null) {
+            chunkWriter.close();
+            chunkWriter = null;
+        }
+    }
+
+    /**
+     * Convert the MARC files with the file threads of the executor and report their results
+     *
+     * @return the number of MARC files that failed to convert
+     */
+    int convertMarcFiles(List<Path> files, ExecutorService executor) throws IOException {
+        List<Future<Boolean>> results = new ArrayList<>(files.size());
+        for (Path marcFile : files)
+            results.add(executor.submit(() -> convertMarcFile(marcFile)));
+        int failures = 0;
+        for (int i = 0; i < files.size(); i++) {
+            boolean converted = result(results.get(i));
+            if (!converted)
+                failures++;
+            reportFile(files.get(i), converted);
+        }
+        return failures;
+    }
+
+    /**
+     * @return true when all the records of the MARC file are converted
+     */
+    boolean convertMarcFile(Path marcFile) {
+        MarcToXML converter = fileConverter(marcFile);
+        log.info("Converting MARC file: " + marcFile);
+        try {
+            converter.setMarcReader();
+            converter.convertMarcReader();
+        } catch (IOException | SQLException | RuntimeException e) {
+            converter.reportErrors(e);
+        } finally {
+            try {
+                converter.closeMarcReader();
+                converter.authLookupRelease();
+            } catch (IOException | SQLException e) {
+                converter.reportErrors(e);
+            }
+        }
+        int fileErrors = converter.errors.get();
+        errors.addAndGet(fileErrors);
+        if (fileErrors > 0)
+            log.error("Failed MARC file: " + marcFile + " (errors: " + fileErrors + ")");
+        else
+            log.info("Converted MARC file: " + marcFile);
+        return fileErrors == 0;
+    }
+
+    /**
+     * @return a converter for one MARC file, sharing the outputs and authority lookups of the batch
+     */
+    MarcToXML fileConverter(Path marcFile) {
+        MarcToXML converter = converter();
+        converter.setMarcInputFile(marcFile.toString());
+        return converter;
+    }
+
+    @Override
+    AuthDBConnection authDBConnection() throws IOException, SQLException {
+        AuthDBConnection conn = super.authDBConnection();
+        // Every file thread holds a pooled connection per lookup thread, besides the batch connection
+        int connections = fileThreads * threads + 1;
+        if (authDBProperties.getPoolMaxSize() < connections)
+            authDBProperties.setPoolMaxSize(connections);
+        return conn;
+    }
+
+
+    // Results on STDOUT
+
+    PrintStream results = System.out;
+
+    synchronized void reportFile(Path marcFile, boolean converted) {
+        results.println((converted ? CONVERTED : FAILED) + '\t' + marcFile);
+        results.flush();
+    }
+
+
+    // MARC input files
+
+    List<Path> marcFiles = new ArrayList<>();
+
+    private static final Pattern GLOB_CHARS = Pattern.compile("[*?\\[{]");
+
+    void setMarcFiles(List<Path> files) {
+        marcFiles = files;
+    }
+
+    /**
+     * @param input a directory, for all the .mrc files in it and its subdirectories,
+     *              or a glob of file names in a directory, e.g. data/Marc/*.mrc
+     * @return the MARC files, in name order
+     * @throws IOException when the input directory, or the directory of the glob, cannot be read
+     */
+    static List<Path> marcFiles(String input) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Path inputPath = Paths.get(input);
+        if (inputPath.toFile().isDirectory()) {
+            if (!Files.isReadable(inputPath))
+                throw new IOException("MARC input directory is not readable: " + inputPath);
+            try (Stream<Path> paths = Files.walk(inputPath)) {
+                paths.filter(path -> path.toString().endsWith(".mrc") && path.toFile().isFile())
+                        .forEach(files::add);
+            }
+        } else {
+            Path dir = (inputPath.getParent() == null) ? Paths.get(".") : inputPath.getParent();
+            String glob = inputPath.getFileName().toString();
+            // A name that is not a glob is a missing input directory
+            if (!dir.toFile().isDirectory() || !GLOB_CHARS.matcher(glob).find())
+                throw new IOException("MARC input directory not found: " + inputPath);
+            if (!Files.isReadable(dir))
+                throw new IOException("MARC input directory is not readable: " + dir);
+            try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir, glob)) {
+                for (Path path : paths) {
+                    if (path.toFile().isFile())
+                        files.add(path);
+                }
+            }
+        }
+        Collections.sort(files);
+        return files;
+    }
+
+    void parseInputFiles() {
+        // Parse and set the input files
+        String input = cmd.getOptionValue("i");
+        if (input == null) {
+            System.err.println("ERROR: No MARC input directory or glob specified.");
+            printUsage();
+            System.exit(1);
+        }
+        List<Path> files = Collections.emptyList();
+        try {
+            files = marcFiles(input.trim());
+        } catch (IOException | RuntimeException e) {
+            System.err.println("ERROR: Failure to list MARC input files: " + e.getMessage());
+            System.exit(1);
+        }
+        setMarcFiles(files);
+    }
+
+
+    // Threads converting MARC files concurrently
+
+    int fileThreads = 1;
+
+    void parseFileThreads() {
+        fileThreads = positiveIntOption(cmd, "j", fileThreads, "ERROR: File threads must be a positive integer.");
+    }
+
+
+    // Command line interface
+
+    static Options batchOptions = setBatchOptions();
+
+    static String batchClassName = MarcToXMLBatch.class.getName();
+
+    static Options setBatchOptions() {
+        Options opts = new Options();
+        opts.addOption("i", "input", true,
+                "MARC input directory, or glob of binary .mrc files (e.g. 'data/Marc/*.mrc'; required)");
+        opts.addOption("j", "file-threads", true, "Number of MARC files converted concurrently (default: 1)");
+        // The batch reports the converted files, instead of checkpoints of a file,
+        // and converts files concurrently, instead of the splits of a file
+        for (Option option : MarcToXML.setOptions().getOptions()) {
+            if (!Arrays.asList("i", "f", "F", "K").contains(option.getOpt()))
+                opts.addOption(option);
+        }
+        return opts;
+    }
+
+    @Override
+    void printUsage() {
+        printHelp(batchClassName, batchOptions);
+    }
+
+    @Override
+    void parseArgs(String [] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        cmd = parser.parse(batchOptions, args);
+        if (cmd.hasOption('h')) {
+            // Print the help message and exit
+            printUsage();
+            System.exit(0);
+        }
+        // Parse required options
+        parseInputFiles();
+        parseOptions();
+        parseFileThreads();
+    }
+
+}
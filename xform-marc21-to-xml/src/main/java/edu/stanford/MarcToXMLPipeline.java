@@ -0,0 +1,200 @@
+package edu.stanford;
+
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Converts MARC records to MARC-XML files with a pipeline of threads:
+ * the calling thread reads batches of records, authority lookup workers resolve the
+ * authority-keys (each worker has its own AuthDBLookup and connection) and writer
+ * workers write the MARC-XML files.  The stages are connected by bounded queues, so
+ * the reader cannot get far ahead of the workers.
+ */
+class MarcToXMLPipeline {
+
+    // Marks the end of the records in a queue
+    private static final List<Record> END = new ArrayList<>();
+
+    private static final long POLL_MILLISECONDS = 100;
+    private static final long SHUTDOWN_SECONDS = 10;
+
+    private final MarcToXML marcToXML;
+    private final int lookupThreads;
+    private final int writerThreads;
+
+    private final BlockingQueue<List<Record>> lookupQueue;
+    private final BlockingQueue<List<Record>> writeQueue;
+
+    private final AtomicInteger lookupsRunning;
+    private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+    MarcToXMLPipeline(MarcToXML marcToXML, int lookupThreads, int writerThreads) {
+        this.marcToXML = marcToXML;
+        this.lookupThreads = lookupThreads;
+        this.writerThreads = writerThreads;
+        this.lookupQueue = new ArrayBlockingQueue<>(2 * lookupThreads);
+        this.writeQueue = new ArrayBlockingQueue<>(2 * writerThreads);
+        this.lookupsRunning = new AtomicInteger(lookupThreads);
+    }
+
+    void convert(MarcReader marcReader, int batchSize) throws IOException, SQLException {
+        ExecutorService executor = Executors.newFixedThreadPool(lookupThreads + writerThreads);
+        try {
+            for (int i = 0; i < lookupThreads; i++)
+                executor.execute(this::lookupWorker);
+            for (int i = 0; i < writerThreads; i++)
+                executor.execute(this::writerWorker);
+            readRecords(marcReader, batchSize);
+            executor.shutdown();
+            while (!executor.awaitTermination(POLL_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                // wait for the workers to finish the queued records
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            executor.shutdownNow();
+            awaitWorkers(executor);
+        }
+        throwFailure();
+    }
+
+    private void awaitWorkers(ExecutorService executor) {
+        // After a failure, the interrupted workers may still be writing a record
+        try {
+            executor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readRecords(MarcReader marcReader, int batchSize) throws InterruptedException {
+        List<Record> records = new ArrayList<>(batchSize);
+        while (marcReader.hasNext()) {
+            records.add(marcReader.next());
+            if (records.size() >= batchSize) {
+                if (!put(lookupQueue, records))
+                    return;
+                records = new ArrayList<>(batchSize);
+            }
+        }
+        if (!records.isEmpty() && !put(lookupQueue, records))
+            return;
+        for (int i = 0; i < lookupThreads; i++)
+            put(lookupQueue, END);
+    }
+
+    private void lookupWorker() {
+        AuthDBLookup lookup = null;
+        try {
+            lookup = marcToXML.authDBLookup();
+            List<Record> records;
+            while ((records = take(lookupQueue)) != END) {
+                List<Record> converts = new ArrayList<>(records.size());
+                for (Record record : records) {
+                    if (marcToXML.doConversion(record))
+                        converts.add(record);
+                    else
+                        marcToXML.checkpointDone(record);
+                }
+                lookup.marcResolveAuthorities(converts);
+                if (!put(writeQueue, converts))
+                    return;
+            }
+        } catch (IOException | SQLException | InterruptedException | RuntimeException e) {
+            fail(e);
+        } finally {
+            closeLookup(lookup);
+            // The last lookup worker to finish tells the writers there are no more records
+            if (lookupsRunning.decrementAndGet() == 0) {
+                for (int i = 0; i < writerThreads; i++) {
+                    if (!putQuietly(writeQueue, END))
+                        break;
+                }
+            }
+        }
+    }
+
+    private void writerWorker() {
+        try {
+            List<Record> records;
+            while ((records = take(writeQueue)) != END) {
+                for (Record record : records) {
+                    if (marcToXML.writeMarcRecord(record))
+                        marcToXML.checkpointDone(record);
+                    else
+                        marcToXML.checkpointFailed(record);
+                }
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void closeLookup(AuthDBLookup lookup) {
+        if (lookup == null)
+            return;
+        try {
+            lookup.closeConnection();
+        } catch (SQLException e) {
+            marcToXML.reportErrors(e);
+        }
+    }
+
+    // Queue operations give up when any stage fails, so no stage waits on a stage that stopped.
+
+    private boolean put(BlockingQueue<List<Record>> queue, List<Record> records) throws InterruptedException {
+        while (failure.get() == null) {
+            if (queue.offer(records, POLL_MILLISECONDS, TimeUnit.MILLISECONDS))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean putQuietly(BlockingQueue<List<Record>> queue, List<Record> records) {
+        try {
+            return put(queue, records);
+        } catch (InterruptedException e) {
+            fail(e);
+            return false;
+        }
+    }
+
+    private List<Record> take(BlockingQueue<List<Record>> queue) throws InterruptedException {
+        while (failure.get() == null) {
+            List<Record> records = queue.poll(POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+            if (records != null)
+                return records;
+        }
+        return END;
+    }
+
+    private void fail(Exception e) {
+        failure.compareAndSet(null, e);
+    }
+
+    private void throwFailure() throws IOException, SQLException {
+        Exception e = failure.get();
+        if (e == null)
+            return;
+        if (e instanceof IOException)
+            throw (IOException) e;
+        if (e instanceof SQLException)
+            throw (SQLException) e;
+        if (e instanceof InterruptedException)
+            throw new InterruptedIOException("MARC-XML conversion was interrupted");
+        throw (RuntimeException) e;
+    }
+
+}
@@ -4,11 +4,14 @@ import org.apache.commons.cli.*;
 import org.marc4j.MarcReader;
 import org.marc4j.MarcStreamReader;
 import org.marc4j.MarcWriter;
-import org.marc4j.MarcXmlWriter;
 import org.marc4j.marc.Record;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Uses the Marc4J library to transform the MARC record to MarcXML.
@@ -22,21 +25,52 @@ class MarcToXMLStream extends MarcConverterWithAuthorityLookup {
     public static void main (String [] args) throws IOException, SQLException, ParseException {
         MarcToXMLStream marcToXMLStream = new MarcToXMLStream();
         marcToXMLStream.parseArgs(args);
+        marcToXMLStream.metricsStart();
         marcToXMLStream.authLookupInit();
         marcToXMLStream.convertRecords();
         marcToXMLStream.authLookupClose();
+        marcToXMLStream.metricsStop();
+        if (marcToXMLStream.invalidRecords > 0)
+            System.exit(1);
     }
 
+    // The invalid MARC-XML records written, with validate
+    int invalidRecords = 0;
+
     void convertRecords() throws IOException, SQLException {
-        while (marcReader.hasNext()) {
-            Record record = marcReader.next();
-            marcWriter.write(authLookups(record));
+        MarcReader reader = metrics.countingReader(marcReader);
+        MarcWriter writer = metrics.timedWriter(marcWriter);
+        if (threads > 1) {
+            // Resolve the authority-keys concurrently, but write the records in input order
+            authLookupInit();
+            new MarcToXMLStreamPipeline(this, threads, maxInFlight).convert(reader, writer, batchSize);
+            writer.close();
+            invalidRecords = reportInvalidRecords(marcWriter);
+            return;
+        }
+        List<Record> records = new ArrayList<>(batchSize);
+        while (reader.hasNext()) {
+            records.add(reader.next());
+            if (records.size() >= batchSize) {
+                writeRecords(records, writer);
+                records.clear();
+            }
         }
-        marcWriter.close();
+        writeRecords(records, writer);
+        writer.close();
+        invalidRecords = reportInvalidRecords(marcWriter);
+    }
+
+    private void writeRecords(List<Record> records, MarcWriter writer) throws IOException, SQLException {
+        if (records.isEmpty())
+            return;
+        for (Record record : authLookups(records))
+            writer.write(record);
     }
 
-    private MarcReader marcReader = new MarcStreamReader(System.in);
-    private MarcWriter marcWriter = new MarcXmlWriter(System.out, true);
+    private MarcReader marcReader = new MarcStreamReader(metrics.countingInput(System.in));
+    private MarcWriter marcWriter = new StreamingMarcXmlWriter(
+            new BufferedOutputStream(metrics.countingOutput(System.out), OutputCompression.BUFFER_SIZE), true);
 
     public void setMarcReader(MarcReader reader) {
         marcReader = reader;
@@ -46,6 +80,21 @@ class MarcToXMLStream extends MarcConverterWithAuthorityLookup {
         marcWriter = writer;
     }
 
+    // Records read but not yet written, in the parallel mode
+    static final int DEFAULT_MAX_IN_FLIGHT = 1000;
+    int maxInFlight = DEFAULT_MAX_IN_FLIGHT;
+
+    void setMaxInFlight(CommandLine cmd) {
+        maxInFlight = positiveIntOption(cmd, "M", maxInFlight, "ERROR: Max in-flight records must be a positive integer.");
+    }
+
+    // Indent the MARC-XML, as MarcXmlWriter does by default
+    boolean indent = true;
+
+    void setIndent(CommandLine cmd) {
+        indent = !cmd.hasOption("N");
+    }
+
     static String className = MarcToXMLStream.class.getName();
 
     // Apache Commons-CLI Options
@@ -56,10 +105,13 @@ class MarcToXMLStream extends MarcConverterWithAuthorityLookup {
     static Options setOptions() {
         Options opts = new Options();
         MarcConverterWithAuthorityLookup.addOptions(opts);
+        opts.addOption("M", "max-in-flight", true,
+                "Maximum records read but not yet written, with --threads (default: " + DEFAULT_MAX_IN_FLIGHT + ")");
+        opts.addOption("N", "no-indent", false, "Write the MARC-XML without indentation (default: false)");
         return opts;
     }
 
-    void parseArgs(String [] args) throws ParseException {
+    void parseArgs(String [] args) throws ParseException, IOException {
         CommandLineParser parser = new DefaultParser();
         cmd = parser.parse(options, args);
         if (cmd.hasOption('h')) {
@@ -69,6 +121,19 @@ class MarcToXMLStream extends MarcConverterWithAuthorityLookup {
         }
         // Parse optional options
         setAuthDBProperties(cmd);
+        setAuthCache(cmd);
+        setAuthSnapshot(cmd);
+        setBatchSize(cmd);
+        setThreads(cmd);
+        setMaxInFlight(cmd);
+        setValidate(cmd);
+        setMetrics(cmd);
+        setCompression(cmd);
+        setIndent(cmd);
+        if (validate || compression != OutputCompression.NONE || !indent) {
+            OutputStream out = outputStream(metrics.countingOutput(System.out));
+            setMarcWriter(validate ? new ValidatingMarcXmlWriter(out, indent) : new StreamingMarcXmlWriter(out, indent));
+        }
     }
 
 }
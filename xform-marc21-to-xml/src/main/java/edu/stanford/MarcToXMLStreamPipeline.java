@@ -0,0 +1,210 @@
+package edu.stanford;
+
+import org.marc4j.MarcReader;
+import org.marc4j.MarcWriter;
+import org.marc4j.marc.Record;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+
+/**
+ * Converts a stream of MARC records to a MARC-XML stream, resolving the authority-keys
+ * with several threads while preserving the record order of the input stream.
+ * A reader thread numbers the batches of records it reads, authority lookup workers
+ * (each with its own AuthDBLookup and connection) resolve the batches in any order,
+ * and the calling thread uses a reorder buffer to write the batches in sequence to
+ * the single MarcWriter.  The number of records in flight, read but not yet written,
+ * is bounded so the reorder buffer cannot grow without limit.
+ */
+class MarcToXMLStreamPipeline {
+
+    private static final long POLL_MILLISECONDS = 100;
+    private static final long SHUTDOWN_SECONDS = 10;
+
+    private static class Batch {
+        final long sequence;
+        final List<Record> records;
+
+        Batch(long sequence, List<Record> records) {
+            this.sequence = sequence;
+            this.records = records;
+        }
+    }
+
+    // Marks the end of the batches in the lookup queue
+    private static final Batch END = new Batch(-1, new ArrayList<>());
+
+    private final MarcConverterWithAuthorityLookup converter;
+    private final int lookupThreads;
+    private final int maxInFlight;
+
+    private final BlockingQueue<Batch> lookupQueue = new LinkedBlockingQueue<>();
+    private final Semaphore inFlight;
+
+    // The reorder buffer and pipeline state are guarded by this object's monitor
+    private final Map<Long, List<Record>> resolved = new HashMap<>();
+    private long batchCount = -1;
+    private Exception failure = null;
+
+    MarcToXMLStreamPipeline(MarcConverterWithAuthorityLookup converter, int lookupThreads, int maxInFlight) {
+        this.converter = converter;
+        this.lookupThreads = lookupThreads;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+    }
+
+    void convert(MarcReader marcReader, MarcWriter marcWriter, int batchSize) throws IOException, SQLException {
+        int readSize = Math.min(batchSize, maxInFlight);
+        // Daemon threads, because a reader blocked on STDIN cannot be interrupted
+        ExecutorService executor = Executors.newFixedThreadPool(lookupThreads + 1, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            executor.execute(() -> readRecords(marcReader, readSize));
+            for (int i = 0; i < lookupThreads; i++)
+                executor.execute(this::lookupWorker);
+            writeRecords(marcWriter);
+            executor.shutdown();
+            while (!failed() && !executor.awaitTermination(POLL_MILLISECONDS, TimeUnit.MILLISECONDS)) {
+                // wait for the workers to close their authority lookups
+            }
+        } catch (InterruptedException e) {
+            fail(e);
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            executor.shutdownNow();
+            awaitWorkers(executor);
+        }
+        throwFailure();
+    }
+
+    private void awaitWorkers(ExecutorService executor) {
+        // The lookup workers stop promptly once interrupted, the reader only when its input does
+        try {
+            executor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeRecords(MarcWriter marcWriter) throws InterruptedException {
+        long sequence = 0;
+        while (true) {
+            List<Record> records;
+            synchronized (this) {
+                while (failure == null && !resolved.containsKey(sequence) && sequence != batchCount)
+                    wait();
+                if (failure != null || sequence == batchCount)
+                    return;
+                records = resolved.remove(sequence);
+            }
+            for (Record record : records)
+                marcWriter.write(record);
+            inFlight.release(records.size());
+            sequence++;
+        }
+    }
+
+    private void readRecords(MarcReader marcReader, int batchSize) {
+        try {
+            long sequence = 0;
+            List<Record> records = new ArrayList<>(batchSize);
+            while (marcReader.hasNext()) {
+                if (!acquire(1))
+                    return;
+                records.add(marcReader.next());
+                if (records.size() >= batchSize) {
+                    lookupQueue.put(new Batch(sequence++, records));
+                    records = new ArrayList<>(batchSize);
+                }
+            }
+            if (!records.isEmpty())
+                lookupQueue.put(new Batch(sequence++, records));
+            synchronized (this) {
+                batchCount = sequence;
+                notifyAll();
+            }
+            for (int i = 0; i < lookupThreads; i++)
+                lookupQueue.put(END);
+        } catch (InterruptedException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+    private void lookupWorker() {
+        AuthDBLookup lookup = null;
+        try {
+            lookup = converter.authDBLookup();
+            Batch batch;
+            while ((batch = take()) != END) {
+                lookup.marcResolveAuthorities(batch.records);
+                synchronized (this) {
+                    resolved.put(batch.sequence, batch.records);
+                    notifyAll();
+                }
+            }
+        } catch (IOException | SQLException | InterruptedException | RuntimeException e) {
+            fail(e);
+        } finally {
+            if (lookup != null) {
+                try {
+                    lookup.closeConnection();
+                } catch (SQLException e) {
+                    fail(e);
+                }
+            }
+        }
+    }
+
+    // Waiting operations give up when any stage fails, so no stage waits on a stage that stopped.
+
+    private boolean acquire(int permits) throws InterruptedException {
+        while (!failed()) {
+            if (inFlight.tryAcquire(permits, POLL_MILLISECONDS, TimeUnit.MILLISECONDS))
+                return true;
+        }
+        return false;
+    }
+
+    private Batch take() throws InterruptedException {
+        while (!failed()) {
+            Batch batch = lookupQueue.poll(POLL_MILLISECONDS, TimeUnit.MILLISECONDS);
+            if (batch != null)
+                return batch;
+        }
+        return END;
+    }
+
+    private synchronized boolean failed() {
+        return failure != null;
+    }
+
+    private synchronized void fail(Exception e) {
+        if (failure == null)
+            failure = e;
+        notifyAll();
+    }
+
+    private synchronized void throwFailure() throws IOException, SQLException {
+        if (failure == null)
+            return;
+        if (failure instanceof IOException)
+            throw (IOException) failure;
+        if (failure instanceof SQLException)
+            throw (SQLException) failure;
+        if (failure instanceof InterruptedException)
+            throw new InterruptedIOException("MARC-XML conversion was interrupted");
+        throw (RuntimeException) failure;
+    }
+
+}
@@ -0,0 +1,315 @@
+package edu.stanford;
+
+import org.apache.commons.cli.*;
+import org.apache.logging.log4j.LogManager;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Watches a MARC directory and converts the .mrc files dropped into it, as they are complete,
+ * until it is stopped (e.g. with SIGTERM).  It converts the files as MarcToXMLBatch does, but in
+ * one long-running JVM, so the authority DB connection pool, the authority cache, the scan of
+ * existing outputs and the chunk writer stay open between the files.  A file is complete when
+ * its size and modification time have not changed for the settle time; files that are renamed
+ * into the directory when they are complete can use a settle time of 0.  The converted files
+ * are moved to the archive path, when there is one, and the result of each file is reported on
+ * STDOUT as MarcToXMLBatch reports it.  A failed file, or a converted file without an archive
+ * path, is not converted again until it changes.  The authority cache entries expire (see -e),
+ * so that the authority changes are picked up by a watch that runs for weeks.
+ */
+class MarcToXMLWatch extends MarcToXMLBatch {
+
+    public static void main (String [] args) throws IOException, ParseException, SQLException {
+        MarcToXMLWatch marcToXMLWatch = new MarcToXMLWatch();
+        marcToXMLWatch.parseArgs(args);
+        // Finish the files in progress when the JVM is stopped, and log them, then stop log4j;
+        // run with -Dlog4j.shutdownHookEnabled=false so that log4j does not stop in parallel
+        Thread watchThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            marcToXMLWatch.stopWatching();
+            try {
+                watchThread.join(TimeUnit.SECONDS.toMillis(SHUTDOWN_SECONDS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            LogManager.shutdown();
+        }));
+        marcToXMLWatch.metricsStart();
+        marcToXMLWatch.watchMarcFiles();
+        marcToXMLWatch.authLookupClose();
+        marcToXMLWatch.metricsStop();
+    }
+
+    static final long POLL_MILLIS = 1000;
+
+    // The longest wait for the files in progress when the JVM is stopped
+    static final long SHUTDOWN_SECONDS = 60;
+
+    private volatile boolean watching = true;
+
+    void stopWatching() {
+        watching = false;
+    }
+
+    /**
+     * Convert the complete MARC files of the watch path, until stopWatching()
+     */
+    void watchMarcFiles() throws IOException, SQLException {
+        log.info("Watching MARC files: " + watchPath);
+        ExecutorService executor = Executors.newFixedThreadPool(fileThreads);
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            openOutputs();
+            watchPath.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            // The files dropped before the watch started
+            offerMarcFiles();
+            while (watching) {
+                WatchKey key = watcher.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                            offerMarcFiles();
+                        else
+                            offerMarcFile(watchPath.resolve((Path) event.context()));
+                    }
+                    key.reset();
+                }
+                List<Path> files = completeMarcFiles(System.nanoTime());
+                if (files.isEmpty())
+                    continue;
+                int failures = convertMarcFiles(files, executor);
+                // The records of the converted files are complete in the chunks
+                if (chunkWriter != null)
+                    chunkWriter.closeChunk();
+                log.info("Converted MARC files: " + (files.size() - failures) + ", failed: " + failures);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+            closeOutputs();
+            log.info("Stopped watching MARC files: " + watchPath);
+        }
+    }
+
+
+    // MARC files waiting to be complete, and the MARC files done (failed, or converted without an
+    // archive path) that are left in the watched directory, by their size and modification time
+
+    private static class FileState {
+        final long size;
+        final long modified;
+        final long unchangedSince;
+
+        FileState(Path file, long now) {
+            File f = file.toFile();
+            size = f.length();
+            modified = f.lastModified();
+            unchangedSince = now;
+        }
+
+        boolean sameFile(FileState other) {
+            return size == other.size && modified == other.modified;
+        }
+    }
+
+    private final Map<Path, FileState> pendingFiles = new HashMap<>();
+    private final Map<Path, FileState> doneFiles = new HashMap<>();
+
+    void offerMarcFiles() throws IOException {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(watchPath, "*.mrc")) {
+            for (Path path : paths)
+                offerMarcFile(path);
+        }
+    }
+
+    void offerMarcFile(Path file) {
+        if (!file.toString().endsWith(".mrc") || pendingFiles.containsKey(file))
+            return;
+        if (!file.toFile().isFile())
+            return;
+        FileState state = new FileState(file, System.nanoTime());
+        FileState done = doneFiles.get(file);
+        if (done != null && done.sameFile(state))
+            return;
+        doneFiles.remove(file);
+        pendingFiles.put(file, state);
+    }
+
+    /**
+     * @param now the System.nanoTime() of the check
+     * @return the pending files that have not changed for the settle time, in name order
+     */
+    List<Path> completeMarcFiles(long now) {
+        List<Path> files = new ArrayList<>();
+        Iterator<Map.Entry<Path, FileState>> pending = pendingFiles.entrySet().iterator();
+        while (pending.hasNext()) {
+            Map.Entry<Path, FileState> entry = pending.next();
+            Path file = entry.getKey();
+            if (!file.toFile().isFile()) {
+                pending.remove();
+                continue;
+            }
+            FileState state = new FileState(file, now);
+            if (!state.sameFile(entry.getValue())) {
+                entry.setValue(state);
+            } else if (now - entry.getValue().unchangedSince >= TimeUnit.SECONDS.toNanos(settleSeconds)) {
+                files.add(file);
+                pending.remove();
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    @Override
+    synchronized void reportFile(Path marcFile, boolean converted) {
+        if (converted)
+            converted = archiveMarcFile(marcFile);
+        if (!converted || archivePath == null)
+            doneFiles.put(marcFile, new FileState(marcFile, System.nanoTime()));
+        super.reportFile(marcFile, converted);
+    }
+
+    private boolean archiveMarcFile(Path marcFile) {
+        if (archivePath == null)
+            return true;
+        try {
+            Path archived = archivePath.resolve(marcFile.getFileName());
+            Files.move(marcFile, archived, StandardCopyOption.REPLACE_EXISTING);
+            log.info("Archived MARC file: " + marcFile + " to " + archived);
+            return true;
+        } catch (IOException e) {
+            reportErrors(e);
+            return false;
+        }
+    }
+
+
+    // Watched MARC directory and archive
+
+    Path watchPath = null;
+    Path archivePath = null;
+
+    static final int DEFAULT_SETTLE_SECONDS = 10;
+    int settleSeconds = DEFAULT_SETTLE_SECONDS;
+
+    void parseWatchPath() {
+        // Parse and set the watched directory
+        String input = cmd.getOptionValue("i");
+        if (input == null) {
+            System.err.println("ERROR: No MARC input directory specified.");
+            printUsage();
+            System.exit(1);
+        }
+        File path = new File(input.trim());
+        if (! path.isDirectory()) {
+            System.err.println("ERROR: MARC input path is not a directory.");
+            printUsage();
+            System.exit(1);
+        }
+        watchPath = path.toPath();
+    }
+
+    void parseArchivePath() {
+        if (!cmd.hasOption("A"))
+            return;
+        File path = new File(cmd.getOptionValue("A").trim());
+        if (! path.isDirectory()) {
+            System.err.println("ERROR: MARC archive path is not a directory.");
+            System.exit(1);
+        }
+        archivePath = path.toPath();
+    }
+
+    // A watch runs for weeks, so its authority cache entries expire by default
+    static final long DEFAULT_AUTH_CACHE_TTL = 3600;
+
+    @Override
+    void setAuthCache(CommandLine cmd) {
+        authCacheTTL = DEFAULT_AUTH_CACHE_TTL;
+        super.setAuthCache(cmd);
+        if (authCacheTTL == 0) {
+            System.err.println("ERROR: Authority cache TTL must be positive for a watch.");
+            System.exit(1);
+        }
+    }
+
+    void parseSettleSeconds() {
+        try {
+            if (cmd.hasOption("S"))
+                settleSeconds = Integer.parseInt(cmd.getOptionValue("S").trim());
+        } catch (NumberFormatException ex) {
+            settleSeconds = -1;
+        }
+        if (settleSeconds < 0) {
+            System.err.println("ERROR: Settle seconds must be a non-negative integer.");
+            System.exit(1);
+        }
+    }
+
+
+    // Command line interface
+
+    static Options watchOptions = setWatchOptions();
+
+    static String watchClassName = MarcToXMLWatch.class.getName();
+
+    static Options setWatchOptions() {
+        Options opts = new Options();
+        opts.addOption("i", "input", true, "MARC input directory, watched for binary .mrc files (required)");
+        opts.addOption("A", "archive-path", true, "Directory for the converted MARC files (default: leave them)");
+        opts.addOption("S", "settle-seconds", true,
+                "Seconds a MARC file is unchanged before it is converted (default: " + DEFAULT_SETTLE_SECONDS + ")");
+        opts.addOption("e", "auth-cache-ttl", true,
+                "Authority cache entry time-to-live in seconds (default: " + DEFAULT_AUTH_CACHE_TTL + ")");
+        for (Option option : MarcToXMLBatch.setBatchOptions().getOptions()) {
+            if (!"i".equals(option.getOpt()) && !"e".equals(option.getOpt()))
+                opts.addOption(option);
+        }
+        return opts;
+    }
+
+    @Override
+    void printUsage() {
+        printHelp(watchClassName, watchOptions);
+    }
+
+    @Override
+    void parseArgs(String [] args) throws ParseException {
+        CommandLineParser parser = new DefaultParser();
+        cmd = parser.parse(watchOptions, args);
+        if (cmd.hasOption('h')) {
+            // Print the help message and exit
+            printUsage();
+            System.exit(0);
+        }
+        // Parse required options
+        parseWatchPath();
+        parseOptions();
+        parseFileThreads();
+        parseArchivePath();
+        parseSettleSeconds();
+    }
+
+}
@@ -9,12 +9,26 @@ import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
-import java.io.File;
-import java.io.IOException;
-import java.io.InputStream;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 /**
- *
+ * Validates MARC-XML files with the MARC21slim schema: one file (-i), all the .xml files of a
+ * directory (-d), compressed or not (.xml.gz and .xml.zst, see OutputCompression), or a list of
+ * files (-f).  A compressed file is decompressed as it is validated.  The schema is compiled
+ * once and each validation thread has its own Validator, because a Validator is not
+ * thread-safe.  For a directory or list of files, the invalid files are printed with a summary
+ * of the counts.
  */
 public class MarcXMLValidator {
 
@@ -27,6 +41,10 @@ public class MarcXMLValidator {
         Options opts = new Options();
         opts.addOption("h", "help", false, "help message");
         opts.addOption("i", "inputFile", true, "MARC-XML input file");
+        opts.addOption("d", "directory", true, "MARC-XML input directory, to validate all its .xml, .xml.gz and .xml.zst files");
+        opts.addOption("f", "file-list", true, "File of MARC-XML input files, one per line ('-' for STDIN)");
+        opts.addOption("t", "threads", true,
+                "Number of validation threads, with --directory or --file-list (default: available processors)");
         return opts;
     }
 
@@ -60,6 +78,13 @@ public class MarcXMLValidator {
             printHelp();
             System.exit(0);
         }
+        if (cmd.hasOption("d") || cmd.hasOption("f")) {
+            ValidationCounts counts = validateFiles();
+            System.out.println(counts);
+            if (counts.invalid.get() > 0)
+                System.exit(1);
+            return;
+        }
         String marcXmlFilePath = parseInputFile( cmd.getOptionValue("i") );
         if (valid(marcXmlFilePath)) {
             System.out.println("VALID:   " + marcXmlFilePath);
@@ -69,29 +94,146 @@ public class MarcXMLValidator {
     }
 
     static boolean valid(String marcXmlFilePath) {
-        try {
-            File xmlFile = new File(marcXmlFilePath);
-            Source xmlSource = new StreamSource(xmlFile);
-            setMarcXmlValidator();
-            marcXmlValidator.validate(xmlSource);
+        String error = validationError(marcXmlFilePath);
+        if (error == null)
             return true;
+        System.err.println(error);
+        return false;
+    }
+
+    /**
+     * @return the validation error message, or null for a valid file
+     */
+    static String validationError(String marcXmlFilePath) {
+        OutputCompression compression = OutputCompression.forFile(marcXmlFilePath);
+        if (compression == null)
+            compression = OutputCompression.NONE;
+        File xmlFile = new File(marcXmlFilePath);
+        try (InputStream in = compression.inputStream(new FileInputStream(xmlFile))) {
+            Source xmlSource = new StreamSource(in, xmlFile.toURI().toString());
+            marcXmlValidator().validate(xmlSource);
+            return null;
         } catch (Exception e) {
-            System.err.println(e.getMessage());
-            return false;
+            return String.valueOf(e.getMessage());
+        }
+    }
+
+
+    // Validation of many files
+
+    // Files queued per validation thread, so a long file list is not queued all at once
+    private static final int QUEUED_FILES_PER_THREAD = 100;
+
+    static class ValidationCounts {
+        final AtomicLong valid = new AtomicLong();
+        final AtomicLong invalid = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return "Validated MARC-XML files: " + (valid.get() + invalid.get()) +
+                    ", valid: " + valid.get() + ", invalid: " + invalid.get();
+        }
+    }
+
+    static ValidationCounts validateFiles() {
+        int threads = MarcConverterWithAuthorityLookup.positiveIntOption(cmd, "t",
+                Runtime.getRuntime().availableProcessors(), "ERROR: Threads must be a positive integer.");
+        try (Stream<Path> files = cmd.hasOption("d") ?
+                directoryFiles(cmd.getOptionValue("d").trim()) : listedFiles(cmd.getOptionValue("f").trim())) {
+            return validateFiles(files.iterator(), threads);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("ERROR: Failure to list MARC-XML input files: " + e.getMessage());
+            System.exit(1);
+        } catch (InterruptedException e) {
+            System.err.println("ERROR: MARC-XML validation was interrupted.");
+            System.exit(1);
         }
+        return null;
+    }
+
+    static Stream<Path> directoryFiles(String directory) throws IOException {
+        return Files.walk(Paths.get(directory))
+                .filter(path -> OutputCompression.forFile(path.toString()) != null && path.toFile().isFile());
+    }
+
+    static Stream<Path> listedFiles(String fileList) throws IOException {
+        BufferedReader reader = fileList.equals("-") ?
+                new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)) :
+                Files.newBufferedReader(Paths.get(fileList), StandardCharsets.UTF_8);
+        return reader.lines()
+                .map(String::trim)
+                .filter(line -> !line.isEmpty())
+                .map(Paths::get)
+                .onClose(() -> {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
     }
 
-    private static Validator marcXmlValidator = null;
+    /**
+     * Validate the files with a pool of threads, printing the invalid files.
+     */
+    static ValidationCounts validateFiles(Iterator<Path> files, int threads) throws InterruptedException {
+        ValidationCounts counts = new ValidationCounts();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Semaphore queued = new Semaphore(QUEUED_FILES_PER_THREAD * threads);
+        try {
+            while (files.hasNext()) {
+                Path file = files.next();
+                queued.acquire();
+                executor.execute(() -> {
+                    try {
+                        String error = validationError(file.toString());
+                        if (error == null) {
+                            counts.valid.incrementAndGet();
+                        } else {
+                            counts.invalid.incrementAndGet();
+                            System.err.println(file + ": " + error);
+                            System.out.println("INVALID: " + file);
+                        }
+                    } finally {
+                        queued.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // wait for the queued files
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return counts;
+    }
 
-    private static void setMarcXmlValidator() throws SAXException, IOException {
-        if (marcXmlValidator == null) {
+
+    // The MARC21slim schema is compiled once; a Schema is thread-safe, but a Validator is not
+
+    private static Schema marcXmlSchema = null;
+
+    private static final ThreadLocal<Validator> marcXmlValidators = new ThreadLocal<>();
+
+    static synchronized Schema marcXmlSchema() throws SAXException {
+        if (marcXmlSchema == null) {
             // MARC21 XSD Schema is from https://www.loc.gov/standards/marcxml/schema/MARC21slim.xsd
             InputStream isSchema = MarcXMLValidator.class.getResourceAsStream("/MARC21slim.xsd");
             Source schemaSource = new StreamSource(isSchema);
             SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-            Schema schema = schemaFactory.newSchema(schemaSource);
-            marcXmlValidator = schema.newValidator();
+            marcXmlSchema = schemaFactory.newSchema(schemaSource);
+        }
+        return marcXmlSchema;
+    }
+
+    private static Validator marcXmlValidator() throws SAXException {
+        Validator validator = marcXmlValidators.get();
+        if (validator == null) {
+            validator = marcXmlSchema().newValidator();
+            marcXmlValidators.set(validator);
         }
+        return validator;
     }
 
 }
\ No newline at end of file
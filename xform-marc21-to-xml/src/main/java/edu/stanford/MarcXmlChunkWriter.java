@@ -0,0 +1,272 @@
+package edu.stanford;
+
+import org.marc4j.marc.Record;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Writes MARC-XML records into rolling chunk files, each a MARC-XML collection, instead of
+ * a file per record.  A chunk is closed after a number of records or bytes, and the next
+ * record starts a new chunk.  A manifest in the output path maps the control number of each
+ * record to its chunk file and the byte offset and length of its record element:
+ * <pre>
+ *   control-number TAB chunk-file TAB offset TAB length
+ * </pre>
+ * The manifest entries of a chunk are kept until the chunk is closed, and only then appended
+ * to the manifest, so no entry of the manifest refers to a chunk that is not complete, e.g.
+ * after the conversion is killed.
+ * Records are serialized by the calling threads and appended to the current chunk in turn,
+ * so several writer threads can share a chunk writer.  The chunk numbers continue after
+ * the chunks of a previous run in the same output path and the manifest is appended.
+ * The chunks may be compressed, see OutputCompression, with the offsets and lengths of the
+ * manifest in the uncompressed chunk.  The chunks of other chunk writers, e.g. of the splits of
+ * a MARC file, are appended after the chunks of a chunk writer by merge().
+ */
+class MarcXmlChunkWriter implements Closeable {
+
+    static final String MANIFEST_FILE = "manifest.tsv";
+    static final String CHUNK_PREFIX = "marcxml-";
+    static final String CHUNK_SUFFIX = ".xml";
+
+    // A chunk name, with any compression extension
+    private static final Pattern CHUNK_NAME = Pattern.compile(
+            Pattern.quote(CHUNK_PREFIX) + "([0-9]+)" + Pattern.quote(CHUNK_SUFFIX) + "(\\.[a-z]+)?");
+
+    // The collection start and end of a MarcXmlWriter document, around the records
+    private static final byte[] COLLECTION_START = MarcXmlMarkup.INDENTED.collectionStart;
+    private static final byte[] COLLECTION_END = MarcXmlMarkup.INDENTED.collectionEnd;
+
+    private final Path outputPath;
+    private final int maxRecords;
+    private final long maxBytes;
+    private final Writer manifest;
+
+    private ConversionMetrics metrics = null;
+    private OutputCompression compression = OutputCompression.NONE;
+    private int compressionLevel = 0;
+
+    private int chunkNumber;
+    private String chunkName = null;
+    private OutputStream chunk = null;
+    private long chunkBytes = 0;
+    private int chunkRecords = 0;
+    // The manifest entries of the current chunk
+    private final StringBuilder chunkEntries = new StringBuilder();
+
+    /**
+     * @param maxRecords the records per chunk, 0 for no limit
+     * @param maxBytes   the bytes per chunk (a chunk is closed after the record that reaches it), 0 for no limit
+     */
+    MarcXmlChunkWriter(Path outputPath, int maxRecords, long maxBytes) throws IOException {
+        this.outputPath = outputPath;
+        this.maxRecords = maxRecords;
+        this.maxBytes = maxBytes;
+        this.chunkNumber = lastChunkNumber(outputPath);
+        this.manifest = Files.newBufferedWriter(outputPath.resolve(MANIFEST_FILE), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Count the bytes written to the chunk files, see ConversionMetrics
+     */
+    void setMetrics(ConversionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Compress the chunk files, see OutputCompression
+     */
+    void setCompression(OutputCompression compression, int compressionLevel) {
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * @return the chunk file name for the record
+     */
+    String write(Record record) throws IOException {
+        return write(record.getControlNumber(), recordXml(record));
+    }
+
+    /**
+     * @param xml the MARC-XML record, as recordXml(record) serializes it
+     * @return the chunk file name for the record
+     */
+    synchronized String write(String controlNumber, byte[] xml) throws IOException {
+        if (chunk == null)
+            openChunk();
+        String name = chunkName;
+        // The manifest offset and length are those of the record element, without the indentation
+        int start = indexOf(xml, (byte) '<');
+        int end = lastIndexOf(xml, (byte) '>') + 1;
+        chunk.write(xml);
+        chunkEntries.append(controlNumber).append('\t').append(name).append('\t')
+                .append(chunkBytes + start).append('\t').append(end - start).append('\n');
+        chunkBytes += xml.length;
+        chunkRecords++;
+        if ((maxRecords > 0 && chunkRecords >= maxRecords) || (maxBytes > 0 && chunkBytes >= maxBytes))
+            closeChunk();
+        return name;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            closeChunk();
+        } finally {
+            manifest.close();
+        }
+    }
+
+    private void openChunk() throws IOException {
+        chunkNumber++;
+        chunkName = chunkName(chunkNumber) + compression.extension;
+        File chunkFile = outputPath.resolve(chunkName).toFile();
+        OutputStream out = new FileOutputStream(chunkFile);
+        if (metrics != null)
+            out = metrics.countingOutput(out);
+        chunk = compression.outputStream(out, compressionLevel);
+        chunk.write(COLLECTION_START);
+        chunkBytes = COLLECTION_START.length;
+        chunkRecords = 0;
+    }
+
+    /**
+     * Close the current chunk, so its records and manifest entries are complete for readers;
+     * the next record starts a new chunk.
+     */
+    synchronized void closeChunk() throws IOException {
+        if (chunk == null)
+            return;
+        try {
+            chunk.write(COLLECTION_END);
+            chunk.close();
+            // The manifest entries of a chunk are written when the chunk is complete
+            manifest.write(chunkEntries.toString());
+            manifest.flush();
+        } finally {
+            chunk = null;
+            chunkEntries.setLength(0);
+        }
+    }
+
+    /**
+     * Append the chunks of another chunk writer, closed, after the chunks of this one: its chunks
+     * are moved from its output path to the next chunk numbers of this one, in order, and its
+     * manifest entries are appended to the manifest with the new chunk names.
+     */
+    synchronized void merge(Path chunkPath) throws IOException {
+        closeChunk();
+        Map<Integer, String> chunks = new TreeMap<>();
+        String[] names = chunkPath.toFile().list();
+        if (names == null)
+            throw new IOException("MARC-XML chunk path is not a directory: " + chunkPath);
+        for (String name : names) {
+            Matcher m = CHUNK_NAME.matcher(name);
+            if (m.matches())
+                chunks.put(Integer.parseInt(m.group(1)), name);
+        }
+        Map<String, String> merged = new HashMap<>();
+        for (String name : chunks.values()) {
+            Matcher m = CHUNK_NAME.matcher(name);
+            m.matches();
+            chunkNumber++;
+            String mergedName = chunkName(chunkNumber) + (m.group(2) == null ? "" : m.group(2));
+            Files.move(chunkPath.resolve(name), outputPath.resolve(mergedName));
+            merged.put(name, mergedName);
+        }
+        Path chunkManifest = chunkPath.resolve(MANIFEST_FILE);
+        if (chunkManifest.toFile().isFile()) {
+            try (BufferedReader reader = Files.newBufferedReader(chunkManifest, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String[] fields = line.split("\t", -1);
+                    if (fields.length > 1 && merged.containsKey(fields[1]))
+                        fields[1] = merged.get(fields[1]);
+                    manifest.write(String.join("\t", fields) + '\n');
+                }
+            }
+            Files.delete(chunkManifest);
+        }
+        manifest.flush();
+    }
+
+    static String chunkName(int chunkNumber) {
+        return String.format("%s%05d%s", CHUNK_PREFIX, chunkNumber, CHUNK_SUFFIX);
+    }
+
+    private static int lastChunkNumber(Path outputPath) throws IOException {
+        int last = 0;
+        String[] names = outputPath.toFile().list();
+        if (names == null)
+            throw new IOException("MARC-XML output path is not a directory: " + outputPath);
+        for (String name : names) {
+            Matcher m = CHUNK_NAME.matcher(name);
+            if (m.matches())
+                last = Math.max(last, Integer.parseInt(m.group(1)));
+        }
+        return last;
+    }
+
+    /**
+     * @return the MARC-XML of a record, as it is written between the collection start and end
+     */
+    static byte[] recordXml(Record record) throws IOException {
+        byte[] xml = StreamingMarcXmlWriter.recordXml(record);
+        if (xml != null)
+            return xml;
+        xml = MarcXmlMarkup.document(record, true, null);
+        int end = xml.length - COLLECTION_END.length;
+        if (end < COLLECTION_START.length)
+            throw new IOException("Unexpected MARC-XML document for record: " + record.getControlNumber());
+        return Arrays.copyOfRange(xml, COLLECTION_START.length, end);
+    }
+
+    /**
+     * Write the MARC-XML document of a record, as MarcXmlWriter writes it
+     *
+     * @param xml the MARC-XML record, as recordXml(record) serializes it
+     */
+    static void writeDocument(OutputStream out, byte[] xml) throws IOException {
+        byte[] document = new byte[COLLECTION_START.length + xml.length + COLLECTION_END.length];
+        System.arraycopy(COLLECTION_START, 0, document, 0, COLLECTION_START.length);
+        System.arraycopy(xml, 0, document, COLLECTION_START.length, xml.length);
+        System.arraycopy(COLLECTION_END, 0, document, COLLECTION_START.length + xml.length, COLLECTION_END.length);
+        out.write(document);
+    }
+
+    private static int indexOf(byte[] bytes, byte b) {
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] bytes, byte b) {
+        for (int i = bytes.length - 1; i >= 0; i--) {
+            if (bytes[i] == b)
+                return i;
+        }
+        return -1;
+    }
+
+}
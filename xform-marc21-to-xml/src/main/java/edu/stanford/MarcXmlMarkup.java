@@ -0,0 +1,106 @@
+package edu.stanford;
+
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.converter.CharConverter;
+import org.marc4j.marc.Record;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * The markup of the MarcXmlWriter output, between the data of a record, for the serializers
+ * that write the same MARC-XML without the MarcXmlWriter (RawMarcRecord and
+ * StreamingMarcXmlWriter).  The markup is the MARC21slim markup of the marc4j MarcXmlWriter,
+ * with or without indentation, written out here; StreamingMarcXmlWriterTest compares the
+ * output with the MarcXmlWriter byte for byte, for a marc4j version that writes it otherwise.
+ * A document of a collection is the collection start, the record elements and the collection
+ * end, or the empty document of a collection without records.
+ */
+class MarcXmlMarkup {
+
+    static final MarcXmlMarkup INDENTED = new MarcXmlMarkup(true);
+    static final MarcXmlMarkup UNINDENTED = new MarcXmlMarkup(false);
+
+    static MarcXmlMarkup markup(boolean indent) {
+        return indent ? INDENTED : UNINDENTED;
+    }
+
+    final boolean indent;
+
+    final byte[] emptyDocument;
+    final byte[] collectionStart;
+    final byte[] collectionEnd;
+
+    final byte[] recordStart;
+    final byte[] leaderEnd;
+    final byte[] controlFieldStart;
+    final byte[] controlFieldTagEnd;
+    final byte[] controlFieldEnd;
+    final byte[] dataFieldStart;
+    final byte[] ind1;
+    final byte[] ind2;
+    final byte[] dataFieldTagEnd;
+    final byte[] subfieldStart;
+    final byte[] subfieldCodeEnd;
+    final byte[] subfieldEnd;
+    final byte[] dataFieldEnd;
+    final byte[] recordEnd;
+
+    private static final String DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>";
+    private static final String COLLECTION = "<marcxml:collection xmlns:marcxml=\"http://www.loc.gov/MARC21/slim\"";
+
+    private MarcXmlMarkup(boolean indent) {
+        this.indent = indent;
+        // The line end and the indentation of the records, their fields and subfields
+        String line = indent ? "\n" : "";
+        String record = indent ? "  " : "";
+        String field = indent ? "    " : "";
+        String subfield = indent ? "      " : "";
+
+        emptyDocument = ascii(DECLARATION + COLLECTION + (indent ? ">\n</marcxml:collection>\n" : "/>\n"));
+        collectionStart = ascii(DECLARATION + COLLECTION + ">" + line);
+        collectionEnd = ascii("</marcxml:collection>\n");
+
+        recordStart = ascii(record + "<marcxml:record>" + line + field + "<marcxml:leader>");
+        leaderEnd = ascii("</marcxml:leader>" + line);
+        controlFieldStart = ascii(field + "<marcxml:controlfield tag=\"");
+        controlFieldTagEnd = ascii("\">");
+        controlFieldEnd = ascii("</marcxml:controlfield>" + line);
+        dataFieldStart = ascii(field + "<marcxml:datafield tag=\"");
+        ind1 = ascii("\" ind1=\"");
+        ind2 = ascii("\" ind2=\"");
+        dataFieldTagEnd = ascii("\">" + line);
+        subfieldStart = ascii(subfield + "<marcxml:subfield code=\"");
+        subfieldCodeEnd = ascii("\">");
+        subfieldEnd = ascii("</marcxml:subfield>" + line);
+        dataFieldEnd = ascii(field + "</marcxml:datafield>" + line);
+        recordEnd = ascii(record + "</marcxml:record>" + line);
+    }
+
+    /**
+     * @return the record element of a MarcXmlWriter document of one record
+     */
+    byte[] recordXml(byte[] document) {
+        return Arrays.copyOfRange(document, collectionStart.length, document.length - collectionEnd.length);
+    }
+
+    /**
+     * @return the MarcXmlWriter document of a record
+     */
+    static byte[] document(Record record, boolean indent, CharConverter converter) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcXmlWriter writer = new MarcXmlWriter(out, "UTF-8", indent);
+        writer.setConverter(converter);
+        writer.write(record);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+}
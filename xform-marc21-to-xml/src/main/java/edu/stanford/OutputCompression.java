@@ -0,0 +1,111 @@
+package edu.stanford;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * The compression of the MARC-XML output files, chunks or stream: none, gzip or zstd.
+ * The output streams are buffered with a large buffer above the compressor, so the small
+ * writes of the XML writers reach the compressor (or the file) in large blocks.  A compressed
+ * file has the extension of its compression after the .xml extension, e.g. 123.xml.gz, and
+ * is read back, e.g. to be validated, by the input stream of its compression.
+ */
+enum OutputCompression {
+
+    NONE("none", "", 0, 0, 0),
+    GZIP("gzip", ".gz", 1, 9, 6),
+    ZSTD("zstd", ".zst", 1, 22, 3);
+
+    static final int BUFFER_SIZE = 1 << 16;
+
+    final String name;
+    final String extension;
+    final int minLevel;
+    final int maxLevel;
+    final int defaultLevel;
+
+    OutputCompression(String name, String extension, int minLevel, int maxLevel, int defaultLevel) {
+        this.name = name;
+        this.extension = extension;
+        this.minLevel = minLevel;
+        this.maxLevel = maxLevel;
+        this.defaultLevel = defaultLevel;
+    }
+
+    /**
+     * @return the compression of the name, or null for an unknown name
+     */
+    static OutputCompression forName(String name) {
+        for (OutputCompression compression : values()) {
+            if (compression.name.equalsIgnoreCase(name))
+                return compression;
+        }
+        return null;
+    }
+
+    /**
+     * @return the compression of a MARC-XML file name, e.g. NONE for 123.xml and GZIP for
+     * 123.xml.gz, or null for a name that is not a MARC-XML file name
+     */
+    static OutputCompression forFile(String name) {
+        for (OutputCompression compression : values()) {
+            if (name.endsWith(".xml" + compression.extension))
+                return compression;
+        }
+        return null;
+    }
+
+    boolean validLevel(int level) {
+        return level >= minLevel && level <= maxLevel;
+    }
+
+    /**
+     * @return a buffered stream, compressing at the level, that closes the output when it is closed
+     */
+    OutputStream outputStream(OutputStream out, int level) throws IOException {
+        switch (this) {
+            case GZIP:
+                // The deflater writes to the output in blocks of the buffer size
+                out = new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        def.setLevel(level);
+                    }
+                };
+                break;
+            case ZSTD:
+                out = new ZstdOutputStream(out, level);
+                break;
+            default:
+                break;
+        }
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    /**
+     * @return a buffered stream, decompressing the input, that closes the input when it is closed
+     */
+    InputStream inputStream(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                in = new GZIPInputStream(in, BUFFER_SIZE);
+                break;
+            case ZSTD:
+                in = new ZstdInputStream(in);
+                break;
+            default:
+                break;
+        }
+        return new BufferedInputStream(in, BUFFER_SIZE);
+    }
+
+}
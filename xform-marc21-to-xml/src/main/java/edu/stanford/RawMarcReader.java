@@ -0,0 +1,98 @@
+package edu.stanford;
+
+import org.marc4j.MarcException;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Reads the records of a MARC21 (ISO 2709) stream as their bytes, see RawMarcRecord, with the
+ * record length of the leader and without parsing the fields.  The encoding of each record is
+ * chosen as MarcStreamReader chooses it: UTF-8 for leader/09 'a', ISO-8859-1 for leader/09 ' '
+ * and otherwise the encoding of the previous record, so a record parsed with toRecord() is
+ * the record that a MarcStreamReader reads from the same stream.
+ */
+class RawMarcReader implements MarcReader {
+
+    static final String UTF8 = "UTF8";
+    static final String ISO_8859_1 = "ISO-8859-1";
+
+    private final DataInputStream input;
+
+    private String encoding = "ISO8859_1";
+
+    private long offset = 0;
+
+    RawMarcReader(InputStream input) {
+        this.input = new DataInputStream(input.markSupported() ? input : new BufferedInputStream(input));
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            input.mark(10);
+            if (input.read() == -1)
+                return false;
+            input.reset();
+            return true;
+        } catch (IOException e) {
+            throw new MarcException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the next record, parsed, for a reader of Records
+     */
+    @Override
+    public Record next() {
+        return nextRaw().toRecord();
+    }
+
+    RawMarcRecord nextRaw() {
+        try {
+            byte[] leader = new byte[RawMarcRecord.LEADER_LENGTH];
+            input.readFully(leader);
+            int length = recordLength(leader);
+            byte[] bytes = Arrays.copyOf(leader, length);
+            input.readFully(bytes, leader.length, length - leader.length);
+            offset += length;
+            if (leader[9] == 'a')
+                encoding = UTF8;
+            else if (leader[9] == ' ')
+                encoding = ISO_8859_1;
+            return new RawMarcRecord(bytes, encoding);
+        } catch (EOFException e) {
+            throw new MarcException("Premature end of file encountered", e);
+        } catch (IOException e) {
+            throw new MarcException("an error occured reading input", e);
+        }
+    }
+
+    /**
+     * @return the bytes of the records read, the offset of the next record in the stream
+     */
+    long getOffset() {
+        return offset;
+    }
+
+    private static int recordLength(byte[] leader) {
+        try {
+            int length = Integer.parseInt(new String(leader, 0, 5, StandardCharsets.ISO_8859_1));
+            if (length < RawMarcRecord.LEADER_LENGTH)
+                throw new MarcException("unable to parse record length");
+            return length;
+        } catch (NumberFormatException e) {
+            throw new MarcException("unable to parse record length", e);
+        }
+    }
+
+}
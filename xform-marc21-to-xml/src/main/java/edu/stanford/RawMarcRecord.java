@@ -0,0 +1,347 @@
+package edu.stanford;
+
+import org.marc4j.MarcStreamReader;
+import org.marc4j.marc.Record;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * A MARC21 record as its ISO 2709 bytes, read by RawMarcReader.  A record without authority
+ * keys ('=' or '?' subfields) is serialized to MARC-XML directly from its bytes, without the
+ * Record, DataField and Subfield objects; the MARC-XML is the same as the MarcXmlWriter output
+ * (see MarcXmlChunkWriter.recordXml).  Any record that the byte serialization does not cover
+ * exactly, e.g. a record with control characters, MARC-8 or invalid UTF-8 data, or a
+ * malformed directory, is left to the Record conversion: toMarcXml() returns null and
+ * toRecord() parses the record with a MarcStreamReader.
+ */
+class RawMarcRecord {
+
+    static final byte FIELD_TERMINATOR = 0x1E;
+    static final byte RECORD_TERMINATOR = 0x1D;
+    static final byte SUBFIELD_DELIMITER = 0x1F;
+
+    static final int LEADER_LENGTH = 24;
+    private static final int DIRECTORY_ENTRY_LENGTH = 12;
+
+    // The leader positions that a marc4j Leader parses and writes as numbers
+    private static final int[] LEADER_DIGITS = {0, 1, 2, 3, 4, 10, 11, 12, 13, 14, 15, 16};
+
+    // The markup of the MarcXmlWriter output
+    private static final MarcXmlMarkup MARKUP = MarcXmlMarkup.INDENTED;
+
+    private static final byte[] AMP = MarcXmlMarkup.ascii("&amp;");
+    private static final byte[] LT = MarcXmlMarkup.ascii("&lt;");
+    private static final byte[] GT = MarcXmlMarkup.ascii("&gt;");
+
+    private final byte[] bytes;
+    private final String encoding;
+
+    /**
+     * @param encoding the encoding of the record data, as MarcStreamReader chooses it
+     */
+    RawMarcRecord(byte[] bytes, String encoding) {
+        this.bytes = bytes;
+        this.encoding = encoding;
+    }
+
+    byte[] getBytes() {
+        return bytes;
+    }
+
+    String getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the record parsed by a MarcStreamReader, as if it was read from the MARC file
+     */
+    Record toRecord() {
+        return new MarcStreamReader(new ByteArrayInputStream(bytes), encoding).next();
+    }
+
+    /**
+     * @return the data of the first 001 field, or null
+     */
+    String getControlNumber() {
+        if (!validDirectory())
+            return null;
+        int base = baseAddress();
+        for (int entry = LEADER_LENGTH; entry < base - 1; entry += DIRECTORY_ENTRY_LENGTH) {
+            if (bytes[entry] == '0' && bytes[entry + 1] == '0' && bytes[entry + 2] == '1') {
+                int start = base + number(entry + 7, 5);
+                int end = start + number(entry + 3, 4) - 1;
+                return new String(bytes, start, end - start, charset());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return true when a subfield of the record is an authority key, '=' or '?'
+     */
+    boolean hasAuthorityKeys() {
+        for (int i = LEADER_LENGTH; i < bytes.length - 1; i++) {
+            if (bytes[i] == SUBFIELD_DELIMITER && (bytes[i + 1] == '=' || bytes[i + 1] == '?'))
+                return true;
+        }
+        return false;
+    }
+
+
+    // MARC-XML serialization
+
+    /**
+     * @return the MARC-XML record element, as MarcXmlChunkWriter.recordXml writes it,
+     * or null when the record has authority keys or needs the Record conversion
+     */
+    byte[] toMarcXml() {
+        if (!validDirectory() || hasAuthorityKeys())
+            return null;
+        XmlBytes xml = new XmlBytes(2 * bytes.length + 512);
+        xml.append(MARKUP.recordStart);
+        xml.append(bytes, 0, LEADER_LENGTH);
+        xml.append(MARKUP.leaderEnd);
+        // MarcXmlWriter writes the control fields before the data fields, each in the record order
+        int base = baseAddress();
+        for (int pass = 0; pass < 2; pass++) {
+            for (int entry = LEADER_LENGTH; entry < base - 1; entry += DIRECTORY_ENTRY_LENGTH) {
+                int start = base + number(entry + 7, 5);
+                int end = start + number(entry + 3, 4) - 1;
+                boolean control = controlTag(entry);
+                if (pass == 0 && control) {
+                    if (!appendControlField(xml, entry, start, end))
+                        return null;
+                } else if (pass == 1 && !control) {
+                    if (!appendDataField(xml, entry, start, end))
+                        return null;
+                }
+            }
+        }
+        xml.append(MARKUP.recordEnd);
+        return xml.toByteArray();
+    }
+
+    private boolean appendControlField(XmlBytes xml, int entry, int start, int end) {
+        if (start == end)
+            return false;
+        xml.append(MARKUP.controlFieldStart);
+        xml.append(bytes, entry, 3);
+        xml.append(MARKUP.controlFieldTagEnd);
+        if (!appendText(xml, start, end))
+            return false;
+        xml.append(MARKUP.controlFieldEnd);
+        return true;
+    }
+
+    private boolean appendDataField(XmlBytes xml, int entry, int start, int end) {
+        // Two indicators, then subfields only: MarcStreamReader drops any other data
+        if (end - start < 4 || bytes[start + 2] != SUBFIELD_DELIMITER)
+            return false;
+        if (!attributeChar(bytes[start]) || !attributeChar(bytes[start + 1]))
+            return false;
+        xml.append(MARKUP.dataFieldStart);
+        xml.append(bytes, entry, 3);
+        xml.append(MARKUP.ind1).append(bytes[start]);
+        xml.append(MARKUP.ind2).append(bytes[start + 1]);
+        xml.append(MARKUP.dataFieldTagEnd);
+        int subfield = start + 2;
+        while (subfield < end) {
+            int data = subfield + 2;
+            if (data > end || !attributeChar(bytes[subfield + 1]))
+                return false;
+            int next = data;
+            while (next < end && bytes[next] != SUBFIELD_DELIMITER)
+                next++;
+            if (next == data)
+                return false;
+            xml.append(MARKUP.subfieldStart).append(bytes[subfield + 1]).append(MARKUP.subfieldCodeEnd);
+            if (!appendText(xml, data, next))
+                return false;
+            xml.append(MARKUP.subfieldEnd);
+            subfield = next;
+        }
+        xml.append(MARKUP.dataFieldEnd);
+        return true;
+    }
+
+    /**
+     * Append the data as escaped UTF-8 text.
+     *
+     * @return false for data that MarcXmlWriter does not write as is: control characters,
+     * invalid UTF-8, and characters the XML serializer writes as character references
+     */
+    private boolean appendText(XmlBytes xml, int start, int end) {
+        boolean utf8 = utf8();
+        int i = start;
+        while (i < end) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                if (b < 0x20 || b == 0x7F)
+                    return false;
+                if (b == '&')
+                    xml.append(AMP);
+                else if (b == '<')
+                    xml.append(LT);
+                else if (b == '>')
+                    xml.append(GT);
+                else
+                    xml.append((byte) b);
+                i++;
+            } else if (!utf8) {
+                // ISO-8859-1 to UTF-8, without the C1 control characters
+                if (b < 0xA0 || !latin1())
+                    return false;
+                xml.append((byte) (0xC0 | (b >> 6))).append((byte) (0x80 | (b & 0x3F)));
+                i++;
+            } else {
+                int n = utf8Length(i, end);
+                if (n == 0)
+                    return false;
+                xml.append(bytes, i, n);
+                i += n;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the length of the UTF-8 sequence at i, or 0 for an invalid sequence, a C1 control
+     * character, a line or paragraph separator, a noncharacter or a supplementary character
+     */
+    private int utf8Length(int i, int end) {
+        int b = bytes[i] & 0xFF;
+        if (b >= 0xC2 && b <= 0xDF) {
+            if (i + 1 >= end || !continuation(bytes[i + 1]))
+                return 0;
+            return (b == 0xC2 && (bytes[i + 1] & 0xFF) < 0xA0) ? 0 : 2;
+        }
+        if (b >= 0xE0 && b <= 0xEF) {
+            if (i + 2 >= end || !continuation(bytes[i + 1]) || !continuation(bytes[i + 2]))
+                return 0;
+            int b1 = bytes[i + 1] & 0xFF;
+            int b2 = bytes[i + 2] & 0xFF;
+            if ((b == 0xE0 && b1 < 0xA0) || (b == 0xED && b1 >= 0xA0))
+                return 0;
+            if (b == 0xE2 && b1 == 0x80 && (b2 == 0xA8 || b2 == 0xA9))
+                return 0;
+            if (b == 0xEF && b1 == 0xBF && b2 >= 0xBE)
+                return 0;
+            return 3;
+        }
+        return 0;
+    }
+
+    private static boolean continuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * @return true for a tag, indicator or subfield code that is written in an attribute as is
+     */
+    private static boolean attributeChar(byte b) {
+        return b >= 0x20 && b < 0x7F && b != '&' && b != '<' && b != '>' && b != '"';
+    }
+
+    private boolean utf8() {
+        return "UTF8".equals(encoding) || "UTF-8".equals(encoding);
+    }
+
+    private boolean latin1() {
+        return "ISO-8859-1".equals(encoding) || "ISO8859_1".equals(encoding);
+    }
+
+    private Charset charset() {
+        return utf8() ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+    }
+
+
+    // Leader and directory
+
+    private Boolean validDirectory = null;
+
+    /**
+     * @return true when the leader and directory are those of a well-formed record, with
+     * the fields in the directory order, each ending at its field terminator
+     */
+    private boolean validDirectory() {
+        if (validDirectory == null)
+            validDirectory = checkDirectory();
+        return validDirectory;
+    }
+
+    private boolean checkDirectory() {
+        int length = bytes.length;
+        if (length < LEADER_LENGTH + 2 || bytes[length - 1] != RECORD_TERMINATOR)
+            return false;
+        for (int i = 0; i < LEADER_LENGTH; i++) {
+            if (!attributeChar(bytes[i]))
+                return false;
+        }
+        for (int i : LEADER_DIGITS) {
+            if (!digit(bytes[i]))
+                return false;
+        }
+        int base = baseAddress();
+        if (base < LEADER_LENGTH + 1 || base > length - 1 || (base - LEADER_LENGTH - 1) % DIRECTORY_ENTRY_LENGTH != 0)
+            return false;
+        if (bytes[base - 1] != FIELD_TERMINATOR)
+            return false;
+        int fieldStart = base;
+        for (int entry = LEADER_LENGTH; entry < base - 1; entry += DIRECTORY_ENTRY_LENGTH) {
+            for (int i = entry; i < entry + 3; i++) {
+                if (!tagChar(bytes[i]))
+                    return false;
+            }
+            for (int i = entry + 3; i < entry + DIRECTORY_ENTRY_LENGTH; i++) {
+                if (!digit(bytes[i]))
+                    return false;
+            }
+            // The leader is not a field
+            if (bytes[entry] == '0' && bytes[entry + 1] == '0' && bytes[entry + 2] == '0')
+                return false;
+            int fieldLength = number(entry + 3, 4);
+            if (base + number(entry + 7, 5) != fieldStart || fieldLength < 1)
+                return false;
+            int fieldEnd = fieldStart + fieldLength - 1;
+            if (fieldEnd >= length - 1 || bytes[fieldEnd] != FIELD_TERMINATOR)
+                return false;
+            for (int i = fieldStart; i < fieldEnd; i++) {
+                if (bytes[i] == FIELD_TERMINATOR || bytes[i] == RECORD_TERMINATOR)
+                    return false;
+            }
+            fieldStart = fieldEnd + 1;
+        }
+        return fieldStart == length - 1;
+    }
+
+    private int baseAddress() {
+        return number(12, 5);
+    }
+
+    /**
+     * @return true for a control field tag, 001 to 009, see org.marc4j.marc.impl.Verifier
+     */
+    private boolean controlTag(int entry) {
+        return bytes[entry] == '0' && bytes[entry + 1] == '0' && digit(bytes[entry + 2]);
+    }
+
+    private int number(int offset, int length) {
+        int n = 0;
+        for (int i = offset; i < offset + length; i++)
+            n = 10 * n + (bytes[i] - '0');
+        return n;
+    }
+
+    private static boolean digit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private static boolean tagChar(byte b) {
+        return digit(b) || (b >= 'A' && b <= 'Z') || (b >= 'a' && b <= 'z');
+    }
+
+}
@@ -0,0 +1,207 @@
+package edu.stanford;
+
+import org.marc4j.MarcException;
+import org.marc4j.MarcWriter;
+import org.marc4j.converter.CharConverter;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * Writes a MARC-XML collection of records, as the MarcXmlWriter writes it, byte for byte, but
+ * without the SAX and Transformer pipeline of the MarcXmlWriter: the leader, control fields and
+ * data fields of each record are escaped and written with the markup of the MarcXmlWriter (see
+ * MarcXmlMarkup) into a buffer that is reused for every record.  Any record that this
+ * serialization does not cover exactly, e.g. a record with control characters, characters that
+ * the XML serializer writes as character references, or an empty field or subfield, is written
+ * by a MarcXmlWriter, as is every record with a character converter.  The MARC-XML is indented,
+ * as MarcToXML writes it, or not.
+ */
+class StreamingMarcXmlWriter implements MarcWriter {
+
+    private static final byte[] AMP = MarcXmlMarkup.ascii("&amp;");
+    private static final byte[] LT = MarcXmlMarkup.ascii("&lt;");
+    private static final byte[] GT = MarcXmlMarkup.ascii("&gt;");
+
+    // A buffer per thread, for the record elements of recordXml()
+    private static final ThreadLocal<XmlBytes> RECORD_BUFFER = ThreadLocal.withInitial(() -> new XmlBytes(8192));
+
+    private final OutputStream out;
+    private final MarcXmlMarkup markup;
+    private final XmlBytes xml = new XmlBytes(8192);
+
+    private CharConverter converter = null;
+    private boolean started = false;
+
+    StreamingMarcXmlWriter(OutputStream out, boolean indent) {
+        this.out = out;
+        this.markup = MarcXmlMarkup.markup(indent);
+    }
+
+    @Override
+    public void write(Record record) {
+        xml.reset();
+        if (converter != null || !appendRecord(xml, record, markup)) {
+            xml.reset();
+            xml.append(markup.recordXml(MarcXmlMarkup.document(record, markup.indent, converter)));
+        }
+        try {
+            if (!started) {
+                out.write(markup.collectionStart);
+                started = true;
+            }
+            xml.writeTo(out);
+        } catch (IOException e) {
+            throw new MarcException("IO Error occured while writing record", e);
+        }
+    }
+
+    @Override
+    public void setConverter(CharConverter converter) {
+        this.converter = converter;
+    }
+
+    @Override
+    public CharConverter getConverter() {
+        return converter;
+    }
+
+    @Override
+    public void close() {
+        try {
+            out.write(started ? markup.collectionEnd : markup.emptyDocument);
+            out.close();
+        } catch (IOException e) {
+            throw new MarcException("IO Error occured on close", e);
+        }
+    }
+
+    /**
+     * @return the indented MARC-XML record element, as MarcXmlChunkWriter.recordXml writes it,
+     * or null when the record needs the MarcXmlWriter
+     */
+    static byte[] recordXml(Record record) {
+        XmlBytes xml = RECORD_BUFFER.get();
+        xml.reset();
+        return appendRecord(xml, record, MarcXmlMarkup.INDENTED) ? xml.toByteArray() : null;
+    }
+
+    /**
+     * @return false when the record needs the MarcXmlWriter
+     */
+    private static boolean appendRecord(XmlBytes xml, Record record, MarcXmlMarkup markup) {
+        Leader leader = record.getLeader();
+        if (leader == null)
+            return false;
+        xml.append(markup.recordStart);
+        if (!appendAttribute(xml, leader.toString()))
+            return false;
+        xml.append(markup.leaderEnd);
+        // MarcXmlWriter writes the control fields before the data fields, each in the record order
+        for (ControlField field : record.getControlFields()) {
+            xml.append(markup.controlFieldStart);
+            if (!appendAttribute(xml, field.getTag()))
+                return false;
+            xml.append(markup.controlFieldTagEnd);
+            if (!appendText(xml, field.getData()))
+                return false;
+            xml.append(markup.controlFieldEnd);
+        }
+        for (DataField field : record.getDataFields()) {
+            List<Subfield> subfields = field.getSubfields();
+            if (subfields.isEmpty())
+                return false;
+            xml.append(markup.dataFieldStart);
+            if (!appendAttribute(xml, field.getTag()))
+                return false;
+            xml.append(markup.ind1);
+            if (!appendAttribute(xml, field.getIndicator1()))
+                return false;
+            xml.append(markup.ind2);
+            if (!appendAttribute(xml, field.getIndicator2()))
+                return false;
+            xml.append(markup.dataFieldTagEnd);
+            for (Subfield subfield : subfields) {
+                xml.append(markup.subfieldStart);
+                if (!appendAttribute(xml, subfield.getCode()))
+                    return false;
+                xml.append(markup.subfieldCodeEnd);
+                if (!appendText(xml, subfield.getData()))
+                    return false;
+                xml.append(markup.subfieldEnd);
+            }
+            xml.append(markup.dataFieldEnd);
+        }
+        xml.append(markup.recordEnd);
+        return true;
+    }
+
+    /**
+     * @return false for a value that is not written in an attribute as is
+     */
+    private static boolean appendAttribute(XmlBytes xml, String value) {
+        if (value == null)
+            return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (!appendAttribute(xml, value.charAt(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean appendAttribute(XmlBytes xml, char c) {
+        if (c < 0x20 || c >= 0x7F || c == '&' || c == '<' || c == '>' || c == '"')
+            return false;
+        xml.append((byte) c);
+        return true;
+    }
+
+    /**
+     * Append the data as escaped UTF-8 text.
+     *
+     * @return false for data that MarcXmlWriter does not write as is: no data, control characters,
+     * and characters the XML serializer writes as character references
+     */
+    private static boolean appendText(XmlBytes xml, String data) {
+        if (data == null || data.isEmpty())
+            return false;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c < 0x80) {
+                if (c < 0x20 || c == 0x7F)
+                    return false;
+                if (c == '&')
+                    xml.append(AMP);
+                else if (c == '<')
+                    xml.append(LT);
+                else if (c == '>')
+                    xml.append(GT);
+                else
+                    xml.append((byte) c);
+            } else if (c < 0x800) {
+                // Without the C1 control characters
+                if (c < 0xA0)
+                    return false;
+                xml.append((byte) (0xC0 | (c >> 6))).append((byte) (0x80 | (c & 0x3F)));
+            } else {
+                // Without the surrogates of supplementary characters, the line and paragraph
+                // separators and the noncharacters U+FFFE and U+FFFF
+                if (Character.isSurrogate(c) || c == 0x2028 || c == 0x2029 || c >= 0xFFFE)
+                    return false;
+                xml.append((byte) (0xE0 | (c >> 12)))
+                        .append((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .append((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,183 @@
+package edu.stanford;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.marc4j.MarcException;
+import org.marc4j.converter.CharConverter;
+import org.marc4j.marc.ControlField;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Leader;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.xml.sax.Attributes;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import javax.xml.validation.ValidatorHandler;
+import java.io.OutputStream;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * A StreamingMarcXmlWriter that validates the records with the MARC21slim schema as they are
+ * written.  The output is written by the StreamingMarcXmlWriter, so it is the same as the
+ * MarcXmlWriter output, and each record is validated from its fields, as the SAX events of a
+ * MARC-XML document of the record sent to a ValidatorHandler for the compiled schema (see
+ * MarcXMLValidator), so it is serialized once and validated without parsing the output.
+ * Invalid records are logged with their validation errors and counted; they are still written.
+ * The converters report the invalid records as errors of the conversion (see
+ * MarcConverterWithAuthorityLookup.reportInvalidRecords).
+ */
+class ValidatingMarcXmlWriter extends StreamingMarcXmlWriter {
+
+    private static final Logger log = LogManager.getLogger(ValidatingMarcXmlWriter.class.getName());
+
+    // The error type of the invalid records in the conversion metrics
+    static final String INVALID_RECORD = "InvalidMarcXmlRecord";
+
+    private static final String MARC21_NS = "http://www.loc.gov/MARC21/slim";
+
+    // A ValidatorHandler is not thread-safe, so there is one per thread
+    private static final ThreadLocal<RecordValidator> RECORD_VALIDATORS = ThreadLocal.withInitial(RecordValidator::new);
+
+    private int invalidRecords = 0;
+
+    ValidatingMarcXmlWriter(OutputStream out, boolean indent) {
+        super(out, indent);
+    }
+
+    @Override
+    public void write(Record record) {
+        super.write(record);
+        String errors = RECORD_VALIDATORS.get().validationErrors(record, getConverter());
+        if (errors != null) {
+            invalidRecords++;
+            log.error("Invalid MARC-XML record: " + record.getControlNumber() + ": " + errors);
+        }
+    }
+
+    /**
+     * @return the number of invalid records written
+     */
+    int getInvalidRecords() {
+        return invalidRecords;
+    }
+
+    /**
+     * Validates the MARC-XML document of a record, as the MarcXmlWriter writes its elements, from
+     * the fields of the record.
+     */
+    private static class RecordValidator {
+        private static final Attributes NO_ATTRIBUTES = new AttributesImpl();
+
+        private final ValidatorHandler validator;
+        private final RecordErrors recordErrors = new RecordErrors();
+        private final AttributesImpl attributes = new AttributesImpl();
+        private CharConverter converter = null;
+
+        RecordValidator() {
+            try {
+                validator = MarcXMLValidator.marcXmlSchema().newValidatorHandler();
+            } catch (SAXException e) {
+                throw new MarcException("Failed to set up the MARC-XML validation", e);
+            }
+            validator.setErrorHandler(recordErrors);
+        }
+
+        /**
+         * @return the validation errors of the record, or null when it is valid
+         */
+        String validationErrors(Record record, CharConverter converter) {
+            this.converter = converter;
+            try {
+                validator.startDocument();
+                validator.startPrefixMapping("", MARC21_NS);
+                startElement("collection", NO_ATTRIBUTES);
+                startElement("record", NO_ATTRIBUTES);
+                Leader leader = record.getLeader();
+                if (leader != null)
+                    element("leader", NO_ATTRIBUTES, leader.toString());
+                for (ControlField field : record.getControlFields())
+                    element("controlfield", attributes("tag", field.getTag()), data(field.getData()));
+                for (DataField field : record.getDataFields()) {
+                    attributes("tag", field.getTag());
+                    attributes.addAttribute("", "ind1", "ind1", "CDATA", String.valueOf(field.getIndicator1()));
+                    attributes.addAttribute("", "ind2", "ind2", "CDATA", String.valueOf(field.getIndicator2()));
+                    startElement("datafield", attributes);
+                    for (Subfield subfield : field.getSubfields())
+                        element("subfield", attributes("code", String.valueOf(subfield.getCode())), data(subfield.getData()));
+                    endElement("datafield");
+                }
+                endElement("record");
+                endElement("collection");
+                validator.endPrefixMapping("");
+                validator.endDocument();
+            } catch (SAXException e) {
+                throw new MarcException("Failed to validate the MARC-XML record: " + record.getControlNumber(), e);
+            }
+            return recordErrors.take();
+        }
+
+        private Attributes attributes(String name, String value) {
+            attributes.clear();
+            attributes.addAttribute("", name, name, "CDATA", value);
+            return attributes;
+        }
+
+        private String data(String data) {
+            return (converter == null || data == null) ? data : converter.convert(data);
+        }
+
+        private void element(String name, Attributes atts, String text) throws SAXException {
+            startElement(name, atts);
+            if (text != null && !text.isEmpty())
+                validator.characters(text.toCharArray(), 0, text.length());
+            endElement(name);
+        }
+
+        private void startElement(String name, Attributes atts) throws SAXException {
+            validator.startElement(MARC21_NS, name, name, atts);
+        }
+
+        private void endElement(String name) throws SAXException {
+            validator.endElement(MARC21_NS, name, name);
+        }
+    }
+
+    /**
+     * Collects the validation errors of a record, without stopping the validation.
+     */
+    private static class RecordErrors implements ErrorHandler {
+        private StringBuilder errors = null;
+
+        String take() {
+            String taken = (errors == null) ? null : errors.toString();
+            errors = null;
+            return taken;
+        }
+
+        private void add(SAXParseException e) {
+            if (errors == null)
+                errors = new StringBuilder(e.getMessage());
+            else
+                errors.append("; ").append(e.getMessage());
+        }
+
+        @Override
+        public void warning(SAXParseException e) {
+        }
+
+        @Override
+        public void error(SAXParseException e) {
+            add(e);
+        }
+
+        @Override
+        public void fatalError(SAXParseException e) {
+            add(e);
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+package edu.stanford;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Stanford University Libraries, DLSS
+ *
+ * A growable byte array for serialized MARC-XML, without the synchronization of a
+ * ByteArrayOutputStream, that can be reset and reused for the next record.
+ */
+class XmlBytes {
+
+    private byte[] buffer;
+    private int size = 0;
+
+    XmlBytes(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    XmlBytes append(byte b) {
+        ensure(1);
+        buffer[size++] = b;
+        return this;
+    }
+
+    XmlBytes append(byte[] b) {
+        return append(b, 0, b.length);
+    }
+
+    XmlBytes append(byte[] b, int offset, int length) {
+        ensure(length);
+        System.arraycopy(b, offset, buffer, size, length);
+        size += length;
+        return this;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void reset() {
+        size = 0;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, size);
+    }
+
+    private void ensure(int length) {
+        if (size + length > buffer.length)
+            buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, size + length));
+    }
+
+}
@@ -0,0 +1,77 @@
+package edu.stanford;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AuthCacheTest {
+
+    private AuthCache authCache;
+    private AuthURIs authURIs;
+
+    @Before
+    public void setUp() {
+        authCache = new AuthCache(2, 0);
+        authURIs = new AuthURIs("n  80035584");
+        authURIs.addURI("920", SqliteTestUtils.AUTH_URI_360386_920);
+    }
+
+    @Test
+    public void getMiss() {
+        assertNull(authCache.get("360386"));
+        assertEquals(0, authCache.getHits());
+        assertEquals(1, authCache.getMisses());
+    }
+
+    @Test
+    public void getHit() {
+        authCache.put("360386", authURIs);
+        assertSame(authURIs, authCache.get("360386"));
+        assertEquals(1, authCache.getHits());
+        assertEquals(0, authCache.getMisses());
+        assertEquals(1.0, authCache.hitRatio(), 0.0);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        authCache.put("1", authURIs);
+        authCache.put("2", authURIs);
+        authCache.get("1");
+        authCache.put("3", authURIs);
+        assertEquals(2, authCache.size());
+        assertEquals(1, authCache.getEvictions());
+        assertNull(authCache.get("2"));
+        assertNotNull(authCache.get("1"));
+        assertNotNull(authCache.get("3"));
+    }
+
+    @Test
+    public void expiresEntries() throws InterruptedException {
+        authCache = new AuthCache(2, 1);
+        authCache.put("360386", authURIs);
+        assertNotNull(authCache.get("360386"));
+        TimeUnit.MILLISECONDS.sleep(1100);
+        assertNull(authCache.get("360386"));
+        assertEquals(1, authCache.getExpirations());
+        assertEquals(0, authCache.size());
+    }
+
+    @Test
+    public void stats() {
+        authCache.put("360386", authURIs);
+        authCache.get("360386");
+        authCache.get("1075272");
+        String stats = authCache.stats();
+        assertThat(stats, containsString("entries=1/2"));
+        assertThat(stats, containsString("hits=1"));
+        assertThat(stats, containsString("misses=1"));
+    }
+
+}
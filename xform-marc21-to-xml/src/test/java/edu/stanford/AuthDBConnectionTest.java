@@ -3,12 +3,12 @@ package edu.stanford;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import oracle.ucp.jdbc.PoolDataSource;
 
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.Properties;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.*;
@@ -58,12 +58,34 @@ public class AuthDBConnectionTest {
     }
 
     @Test
-    public void dataSourceCache() throws Exception {
-        Properties cacheProps = authDBConnection.dataSourceCache();
-        assertEquals(cacheProps.getProperty("MinLimit"), "1");
-        assertEquals(cacheProps.getProperty("InitialLimit"), "1");
-        assertEquals(cacheProps.getProperty("AbandonedConnectionTimeout"), "100");
-        assertEquals(cacheProps.getProperty("PropertyCheckInterval"), "80");
+    public void poolDataSource() throws Exception {
+        AuthDBConnection poolConnection = new AuthDBConnection();
+        authDBProperties.setPoolMinSize(2);
+        authDBProperties.setPoolMaxSize(6);
+        poolConnection.setAuthDBProperties(authDBProperties);
+        PoolDataSource pool = poolConnection.poolDataSource();
+        assertEquals(AuthDBConnection.CONNECTION_FACTORY, pool.getConnectionFactoryClassName());
+        assertEquals(authDBProperties.getURL(), pool.getURL());
+        assertEquals(authDBProperties.getUserName(), pool.getUser());
+        assertEquals(2, pool.getInitialPoolSize());
+        assertEquals(2, pool.getMinPoolSize());
+        assertEquals(6, pool.getMaxPoolSize());
+        assertEquals(authDBProperties.getPoolIdleTimeout(), pool.getInactiveConnectionTimeout());
+        assertTrue(pool.getValidateConnectionOnBorrow());
+        assertEquals(authDBProperties.getValidationQuery(), pool.getSQLForValidateConnection());
+        assertEquals(authDBProperties.getStatementCacheSize(), pool.getMaxStatements());
+    }
+
+    @Test
+    public void dataSourceIsShared() throws Exception {
+        AuthDBConnection poolConnection = new AuthDBConnection();
+        poolConnection.setAuthDBProperties(authDBProperties);
+        DataSource dataSource = poolConnection.dataSource();
+        assertThat(dataSource, instanceOf(PoolDataSource.class));
+        assertSame(dataSource, poolConnection.dataSource());
+        // Closing a pool that never opened a connection has nothing to shut down
+        poolConnection.close();
+        assertNotSame(dataSource, poolConnection.dataSource());
     }
 
 }
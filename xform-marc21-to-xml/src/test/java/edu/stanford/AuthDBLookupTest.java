@@ -4,11 +4,22 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.marc4j.marc.impl.DataFieldImpl;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.junit.Assert.*;
@@ -80,4 +91,253 @@ public class AuthDBLookupTest {
         Record record = authLookup.marcResolveAuthorities(marcRecord);
         assertNotEquals(record, marcRecord);
     }
-}
\ No newline at end of file
+
+    private List<String> subfieldData(Record record, String tag, char code) {
+        List<String> data = new ArrayList<>();
+        DataField field = (DataField) record.getVariableField(tag);
+        for (Subfield sf : field.getSubfields(code))
+            data.add(sf.getData());
+        return data;
+    }
+
+    private void assertAuthResolved(Record record) {
+        assertEquals(Arrays.asList(SqliteTestUtils.AUTH_URI_360386_920, SqliteTestUtils.AUTH_URI_360386_922),
+                subfieldData(record, "100", '0'));
+        assertEquals(Arrays.asList(SqliteTestUtils.AUTH_URI_1075272_921),
+                subfieldData(record, "650", '0'));
+        assertTrue(subfieldData(record, "100", '=').isEmpty());
+        assertTrue(subfieldData(record, "650", '=').isEmpty());
+    }
+
+    @Test
+    public void marcResolveAuthoritiesAddsURIs() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        Record record = marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath);
+        assertEquals(record, authLookup.marcResolveAuthorities(record));
+        assertAuthResolved(record);
+    }
+
+    @Test
+    public void marcResolveAuthoritiesWithAuthURITags() throws Exception {
+        authLookup.setAuthURITags(new String[]{"922", "920"});
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        Record record = marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath);
+        authLookup.marcResolveAuthorities(record);
+        // The URIs are added in the order of the configured tags, other tags are not resolved
+        assertEquals(Arrays.asList(SqliteTestUtils.AUTH_URI_360386_922, SqliteTestUtils.AUTH_URI_360386_920),
+                subfieldData(record, "100", '0'));
+        assertTrue(subfieldData(record, "650", '0').isEmpty());
+        assertTrue(subfieldData(record, "650", '=').isEmpty());
+    }
+
+    @Test
+    public void marcResolveAuthoritiesBatch() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        List<Record> records = Arrays.asList(
+                marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath),
+                marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath));
+        assertEquals(records, authLookup.marcResolveAuthorities(records));
+        for (Record record : records)
+            assertAuthResolved(record);
+    }
+
+    private static DataField subfieldOrderField(DataField field) {
+        MarcFactory factory = MarcFactory.newInstance();
+        field.addSubfield(factory.newSubfield('a', "Wind quintets"));
+        field.addSubfield(factory.newSubfield('=', "^A1075272"));
+        field.addSubfield(factory.newSubfield('?', "UNAUTHORIZED"));
+        field.addSubfield(factory.newSubfield('v', "Scores"));
+        field.addSubfield(factory.newSubfield('=', "^A360386"));
+        field.addSubfield(factory.newSubfield('=', "^A999999"));
+        field.addSubfield(factory.newSubfield('x', "Parts"));
+        return field;
+    }
+
+    private static void assertSubfieldOrder(DataField field) {
+        // The other subfields keep their order, followed by the URIs in the order of their keys
+        List<String> subfields = new ArrayList<>();
+        for (Subfield sf : field.getSubfields())
+            subfields.add(sf.getCode() + sf.getData());
+        assertEquals(Arrays.asList("aWind quintets", "vScores", "xParts", "0" + SqliteTestUtils.AUTH_URI_1075272_921,
+                "0" + SqliteTestUtils.AUTH_URI_360386_920, "0" + SqliteTestUtils.AUTH_URI_360386_922), subfields);
+    }
+
+    @Test
+    public void marcResolveAuthoritiesSubfieldOrder() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        MarcFactory factory = MarcFactory.newInstance();
+        Record record = factory.newRecord();
+        DataField field = subfieldOrderField(factory.newDataField("650", ' ', '0'));
+        record.addVariableField(field);
+        DataField note = factory.newDataField("500", ' ', ' ');
+        note.addSubfield(factory.newSubfield('a', "No authority subfields"));
+        record.addVariableField(note);
+        authLookup.marcResolveAuthorities(record);
+        assertSubfieldOrder(field);
+        assertEquals(1, note.getSubfields().size());
+    }
+
+    @Test
+    public void marcResolveAuthoritiesSubfieldCopies() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        Record record = MarcFactory.newInstance().newRecord();
+        // A DataField whose getSubfields() is a copy is edited through the DataField API
+        DataField field = subfieldOrderField(new DataFieldImpl("650", ' ', '0') {
+            @Override
+            public List<Subfield> getSubfields() {
+                return new ArrayList<>(super.getSubfields());
+            }
+        });
+        record.addVariableField(field);
+        authLookup.marcResolveAuthorities(record);
+        assertSubfieldOrder(field);
+    }
+
+    private Record linkTagsRecord() {
+        MarcFactory factory = MarcFactory.newInstance();
+        Record record = factory.newRecord();
+        for (String tag : new String[]{"500", "650"}) {
+            DataField field = factory.newDataField(tag, ' ', ' ');
+            field.addSubfield(factory.newSubfield('a', "Subfield a"));
+            field.addSubfield(factory.newSubfield('=', "^A1075272"));
+            field.addSubfield(factory.newSubfield('?', "UNAUTHORIZED"));
+            record.addVariableField(field);
+        }
+        return record;
+    }
+
+    @Test
+    public void marcResolveAuthoritiesLinkTags() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        // The heading fields are linkable, by default; the authority subfields of a 500 note are removed
+        Record record = authLookup.marcResolveAuthorities(linkTagsRecord());
+        assertEquals(Arrays.asList(SqliteTestUtils.AUTH_URI_1075272_921), subfieldData(record, "650", '0'));
+        assertTrue(subfieldData(record, "500", '0').isEmpty());
+        for (String tag : new String[]{"500", "650"}) {
+            assertTrue(subfieldData(record, tag, '=').isEmpty());
+            assertTrue(subfieldData(record, tag, '?').isEmpty());
+            assertEquals(Arrays.asList("Subfield a"), subfieldData(record, tag, 'a'));
+        }
+        // All the data fields are linkable with XXX
+        authLookup.setAuthLinkTags(new String[]{"XXX"});
+        record = authLookup.marcResolveAuthorities(linkTagsRecord());
+        for (String tag : new String[]{"500", "650"})
+            assertEquals(Arrays.asList(SqliteTestUtils.AUTH_URI_1075272_921), subfieldData(record, tag, '0'));
+        // Only the configured tags are linkable; the authority subfields of the others are removed
+        authLookup.setAuthLinkTags(new String[]{"5X0"});
+        record = authLookup.marcResolveAuthorities(linkTagsRecord());
+        assertEquals(Arrays.asList(SqliteTestUtils.AUTH_URI_1075272_921), subfieldData(record, "500", '0'));
+        assertTrue(subfieldData(record, "650", '0').isEmpty());
+        assertTrue(subfieldData(record, "650", '=').isEmpty());
+        assertTrue(subfieldData(record, "650", '?').isEmpty());
+        assertEquals(Arrays.asList("Subfield a"), subfieldData(record, "650", 'a'));
+    }
+
+    @Test
+    public void linkTagBitmap() {
+        BitSet bitmap = AuthDBLookup.linkTagBitmap(new String[]{"1XX", "650", "7X0"});
+        assertEquals(100 + 1 + 10, bitmap.cardinality());
+        assertTrue(bitmap.get(100) && bitmap.get(199) && bitmap.get(650) && bitmap.get(700) && bitmap.get(790));
+        assertFalse(bitmap.get(651) || bitmap.get(701) || bitmap.get(500) || bitmap.get(900));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void linkTagBitmapInvalid() {
+        AuthDBLookup.linkTagBitmap(new String[]{"6X"});
+    }
+
+    @Test
+    public void lookupAuthorities() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        Map<String, AuthURIs> authorities = authLookup.lookupAuthorities(Arrays.asList("360386", "1075272", "999"));
+        assertEquals(2, authorities.size());
+        assertFalse(authorities.containsKey("999"));
+        AuthURIs authURIs = authorities.get("360386");
+        assertEquals("n  80035584", authURIs.getAuthID());
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_920, authURIs.getURI("920"));
+        assertEquals("", authURIs.getURI("921"));
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_922, authURIs.getURI("922"));
+    }
+
+    @Test
+    public void lookupAuthoritiesCached() throws Exception {
+        AuthCache authCache = new AuthCache(10, 0);
+        authLookup.setAuthCache(authCache);
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        authLookup.lookupAuthorities(Arrays.asList("360386", "999"));
+        assertEquals(2, authCache.size());
+        assertSame(AuthURIs.UNRESOLVED, authCache.get("999"));
+        // Cached lookups do not query the authority DB
+        authLookup.closeConnection();
+        Map<String, AuthURIs> authorities = authLookup.lookupAuthorities(Arrays.asList("360386", "999"));
+        assertEquals(1, authorities.size());
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_920, authorities.get("360386").getURI("920"));
+    }
+
+    @Test
+    public void lookupAuthoritiesFailureNotCached() throws Exception {
+        AuthCache authCache = new AuthCache(10, 0);
+        authLookup.setAuthCache(authCache);
+        authLookup.openConnection();
+        // The authority tables are missing, so the query fails
+        PrintStream stderr = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            assertTrue(authLookup.lookupAuthorities(Arrays.asList("360386")).isEmpty());
+        } finally {
+            System.setErr(stderr);
+        }
+        assertEquals(0, authCache.size());
+    }
+
+    @Test
+    public void queryAuthoritiesReusesStatements() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        // Both IN-lists are padded to the same bucket size, so they share a prepared statement
+        Map<String, AuthURIs> authorities = authLookup.queryAuthorities(Arrays.asList("360386", "1075272", "999"));
+        assertEquals(2, authorities.size());
+        authorities = authLookup.queryAuthorities(Arrays.asList("1075272", "360386"));
+        assertEquals(2, authorities.size());
+        assertEquals(SqliteTestUtils.AUTH_URI_1075272_921, authorities.get("1075272").getURI("921"));
+        authorities = authLookup.queryAuthorities(Arrays.asList("360386"));
+        assertEquals(1, authorities.size());
+        // A key with SQL syntax is bound as a value
+        assertTrue(authLookup.queryAuthorities(Arrays.asList("360386' OR '1'='1")).isEmpty());
+    }
+
+    @Test
+    public void queryAuthoritiesManyKeys() throws Exception {
+        authLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authLookup.dbConnection);
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < AuthDBLookup.AUTH_QUERY_SIZE + 20; i++)
+            keys.add("missing" + i);
+        keys.add("360386");
+        Map<String, AuthURIs> authorities = authLookup.queryAuthorities(keys);
+        assertEquals(1, authorities.size());
+        assertEquals("n  80035584", authorities.get("360386").getAuthID());
+    }
+
+    @Test
+    public void bucketSize() {
+        assertEquals(1, AuthDBLookup.bucketSize(1));
+        assertEquals(10, AuthDBLookup.bucketSize(2));
+        assertEquals(100, AuthDBLookup.bucketSize(51));
+        assertEquals(AuthDBLookup.AUTH_QUERY_SIZE, AuthDBLookup.bucketSize(AuthDBLookup.AUTH_QUERY_SIZE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void bucketSizeTooLarge() {
+        AuthDBLookup.bucketSize(AuthDBLookup.AUTH_QUERY_SIZE + 1);
+    }
+
+}
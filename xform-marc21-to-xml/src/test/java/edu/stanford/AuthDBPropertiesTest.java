@@ -89,6 +89,69 @@ public class AuthDBPropertiesTest {
         assertEquals(serverConf.getProperty("SERVICE_NAME"), customProps.getService());
     }
 
+    @Test
+    public void testPoolProperties() throws IOException {
+        setServerConf();
+        assertEquals(serverConf.getProperty("POOL_MIN_SIZE"), String.valueOf(authProps.getPoolMinSize()));
+        assertEquals(serverConf.getProperty("POOL_MAX_SIZE"), String.valueOf(authProps.getPoolMaxSize()));
+        assertEquals(serverConf.getProperty("POOL_IDLE_TIMEOUT"), String.valueOf(authProps.getPoolIdleTimeout()));
+        assertEquals(serverConf.getProperty("STATEMENT_CACHE_SIZE"), String.valueOf(authProps.getStatementCacheSize()));
+        assertEquals(serverConf.getProperty("VALIDATION_QUERY"), authProps.getValidationQuery());
+    }
+
+    @Test
+    public void testPoolPropertyDefaults() {
+        Properties properties = new Properties();
+        properties.setProperty("SERVER", "db.example.com");
+        AuthDBProperties defaultProps = new AuthDBProperties(properties);
+        assertEquals(AuthDBProperties.DEFAULT_POOL_MIN_SIZE, defaultProps.getPoolMinSize());
+        assertEquals(AuthDBProperties.DEFAULT_POOL_MAX_SIZE, defaultProps.getPoolMaxSize());
+        assertEquals(AuthDBProperties.DEFAULT_POOL_IDLE_TIMEOUT, defaultProps.getPoolIdleTimeout());
+        assertEquals(AuthDBProperties.DEFAULT_STATEMENT_CACHE_SIZE, defaultProps.getStatementCacheSize());
+        assertEquals(AuthDBProperties.DEFAULT_VALIDATION_QUERY, defaultProps.getValidationQuery());
+    }
+
+    @Test (expected = NumberFormatException.class)
+    public void testPoolPropertyInvalid() {
+        Properties properties = new Properties();
+        properties.setProperty("POOL_MAX_SIZE", "many");
+        new AuthDBProperties(properties);
+    }
+
+    @Test
+    public void testAuthURITags() throws IOException {
+        setServerConf();
+        assertEquals(serverConf.getProperty("AUTH_URI_TAGS"), String.join(",", authProps.getAuthURITags()));
+        Properties properties = new Properties();
+        assertArrayEquals(AuthDBLookup.AUTH_URI_TAGS, new AuthDBProperties(properties).getAuthURITags());
+        properties.setProperty("AUTH_URI_TAGS", " 920, 923 ,924");
+        assertArrayEquals(new String[]{"920", "923", "924"}, new AuthDBProperties(properties).getAuthURITags());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testAuthURITagsInvalid() {
+        Properties properties = new Properties();
+        properties.setProperty("AUTH_URI_TAGS", "920,92X");
+        new AuthDBProperties(properties);
+    }
+
+    @Test
+    public void testAuthLinkTags() throws IOException {
+        setServerConf();
+        assertEquals(serverConf.getProperty("AUTH_LINK_TAGS"), String.join(",", authProps.getAuthLinkTags()));
+        Properties properties = new Properties();
+        assertArrayEquals(AuthDBLookup.AUTH_LINK_TAGS, new AuthDBProperties(properties).getAuthLinkTags());
+        properties.setProperty("AUTH_LINK_TAGS", " 100, 6xx ,7X0");
+        assertArrayEquals(new String[]{"100", "6XX", "7X0"}, new AuthDBProperties(properties).getAuthLinkTags());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testAuthLinkTagsInvalid() {
+        Properties properties = new Properties();
+        properties.setProperty("AUTH_LINK_TAGS", "1XX,6*");
+        new AuthDBProperties(properties);
+    }
+
     @Test
     public void testServer() throws Exception {
         // Same code is used to test setter/getter
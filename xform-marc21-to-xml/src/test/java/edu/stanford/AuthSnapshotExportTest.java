@@ -0,0 +1,141 @@
+package edu.stanford;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AuthSnapshotExportTest {
+
+    @Rule
+    public final ExpectedSystemExit exit = ExpectedSystemExit.none();
+
+    private static String usage = "usage: " + AuthSnapshotExport.className;
+
+    private MarcTestUtils marcTestUtils;
+    private AuthSnapshotExport authSnapshotExport;
+    private Path snapshotPath;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        snapshotPath = marcTestUtils.outputPath.resolve("auth.snapshot");
+        authSnapshotExport = new AuthSnapshotExport();
+        authSnapshotExport.snapshotPath = snapshotPath;
+        authSnapshotExport.authDBLookup = SqliteTestUtils.sqliteAuthDBLookup();
+        authSnapshotExport.authDBLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(authSnapshotExport.authDBLookup.dbConnection);
+    }
+
+    @After
+    public void tearDown() throws IOException, SQLException {
+        authSnapshotExport.authLookupClose();
+        authSnapshotExport = null;
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    private void exportSnapshot() throws IOException, SQLException {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            authSnapshotExport.exportSnapshot();
+        } finally {
+            System.setOut(stdout);
+        }
+    }
+
+    @Test
+    public void exportSnapshotTest() throws Exception {
+        exportSnapshot();
+        AuthSnapshot snapshot = new AuthSnapshot(snapshotPath);
+        assertEquals(2, snapshot.size());
+        AuthURIs authURIs = snapshot.get("360386");
+        assertEquals("n  80035584", authURIs.getAuthID());
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_920, authURIs.getURI("920"));
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_922, authURIs.getURI("922"));
+        assertEquals(SqliteTestUtils.AUTH_URI_1075272_921, snapshot.get("1075272").getURI("921"));
+    }
+
+    @Test
+    public void refreshSnapshotTest() throws Exception {
+        exportSnapshot();
+        // Change the authority DB, then refresh only the changed keys
+        Statement s = authSnapshotExport.authDBLookup.dbConnection.createStatement();
+        s.executeUpdate("DELETE FROM AUTHORITY WHERE authority_key = '360386'");
+        s.executeUpdate("UPDATE AUTHORVED SET tag = 'http://example.com/updated' WHERE offset = 2");
+        s.executeUpdate("INSERT INTO AUTHORITY VALUES ('42', 'n 42', 3)");
+        s.close();
+        authSnapshotExport.updatePath = snapshotPath;
+        authSnapshotExport.refreshKeys = new LinkedHashSet<>(Arrays.asList("360386", "42"));
+        exportSnapshot();
+        AuthSnapshot snapshot = new AuthSnapshot(snapshotPath);
+        assertEquals(2, snapshot.size());
+        assertNull(snapshot.get("360386"));
+        assertEquals("n 42", snapshot.get("42").getAuthID());
+        // Keys that are not refreshed are copied from the existing snapshot
+        assertEquals(SqliteTestUtils.AUTH_URI_1075272_921, snapshot.get("1075272").getURI("921"));
+    }
+
+    @Test
+    public void mainHelp() throws Exception {
+        exit.expectSystemExit();
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        String[] args = new String[]{"-h"};
+        AuthSnapshotExport.main(args);
+        assertThat(outContent.toString(), containsString(usage));
+        System.setOut(stdout);
+    }
+
+    @Test
+    public void mainOutputFileMissing() throws Exception {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            AuthSnapshotExport.main(new String[]{});
+        } finally {
+            assertEquals("ERROR: No authority snapshot output file specified.\n", errContent.toString());
+            System.setErr(stderr);
+        }
+    }
+
+    @Test
+    public void parseRefreshRequiresKeys() throws Exception {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[]{"-o", snapshotPath.toString(), "-u", snapshotPath.toString()};
+            authSnapshotExport.parseArgs(args);
+        } catch (ParseException e) {
+            fail(e.getMessage());
+        } finally {
+            assertThat(errContent.toString(), containsString("requires both an existing snapshot and a keys file"));
+            System.setErr(stderr);
+        }
+    }
+
+}
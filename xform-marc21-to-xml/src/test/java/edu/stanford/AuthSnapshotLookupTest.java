@@ -0,0 +1,76 @@
+package edu.stanford;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AuthSnapshotLookupTest {
+
+    private MarcTestUtils marcTestUtils;
+    private AuthSnapshotLookup authLookup;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        Path snapshotPath = marcTestUtils.outputPath.resolve("auth.snapshot");
+        AuthDBLookup dbLookup = SqliteTestUtils.sqliteAuthDBLookup();
+        dbLookup.openConnection();
+        SqliteTestUtils.createAuthorityTables(dbLookup.dbConnection);
+        AuthSnapshotWriter writer = new AuthSnapshotWriter(snapshotPath);
+        dbLookup.exportAuthorities(writer);
+        writer.close();
+        dbLookup.closeConnection();
+        authLookup = new AuthSnapshotLookup(snapshotPath);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+        authLookup = null;
+    }
+
+    @Test
+    public void openConnection() throws IOException {
+        assertNull(authLookup.authSnapshot);
+        authLookup.openConnection();
+        assertNotNull(authLookup.authSnapshot);
+        assertNull(authLookup.dbConnection);
+        authLookup.closeConnection();
+        assertNull(authLookup.authSnapshot);
+    }
+
+    @Test
+    public void lookupAuthorities() throws IOException {
+        authLookup.openConnection();
+        Map<String, AuthURIs> authorities = authLookup.lookupAuthorities(Arrays.asList("360386", "1075272", "999"));
+        assertEquals(2, authorities.size());
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_922, authorities.get("360386").getURI("922"));
+        assertEquals(SqliteTestUtils.AUTH_URI_1075272_921, authorities.get("1075272").getURI("921"));
+    }
+
+    @Test
+    public void marcResolveAuthorities() throws Exception {
+        authLookup.openConnection();
+        Record record = marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath);
+        authLookup.marcResolveAuthorities(record);
+        DataField field = (DataField) record.getVariableField("100");
+        assertEquals(2, field.getSubfields('0').size());
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_920, field.getSubfields('0').get(0).getData());
+        assertTrue(field.getSubfields('=').isEmpty());
+    }
+
+}
@@ -0,0 +1,97 @@
+package edu.stanford;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class AuthSnapshotTest {
+
+    private MarcTestUtils marcTestUtils;
+    private Path snapshotPath;
+
+    private AuthURIs authURIs(String authID, String tag, String uri) {
+        AuthURIs authURIs = new AuthURIs(authID);
+        authURIs.addURI(tag, uri);
+        return authURIs;
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        snapshotPath = marcTestUtils.outputPath.resolve("auth.snapshot");
+        // Add the keys out of order, the writer sorts the key index
+        AuthSnapshotWriter writer = new AuthSnapshotWriter(snapshotPath);
+        writer.add("360386", authURIs("n  80035584", "920", SqliteTestUtils.AUTH_URI_360386_920));
+        writer.add("1075272", authURIs("sh 85146947", "921", SqliteTestUtils.AUTH_URI_1075272_921));
+        writer.add("Ämellér", authURIs("", "922", "http://example.com/ämellér"));
+        writer.add("2", new AuthURIs("2"));
+        writer.close();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    @Test
+    public void get() throws IOException {
+        AuthSnapshot snapshot = new AuthSnapshot(snapshotPath);
+        assertEquals(4, snapshot.size());
+        AuthURIs authURIs = snapshot.get("360386");
+        assertEquals("n  80035584", authURIs.getAuthID());
+        assertEquals(SqliteTestUtils.AUTH_URI_360386_920, authURIs.getURI("920"));
+        assertEquals("", authURIs.getURI("921"));
+        assertEquals(SqliteTestUtils.AUTH_URI_1075272_921, snapshot.get("1075272").getURI("921"));
+        assertEquals("http://example.com/ämellér", snapshot.get("Ämellér").getURI("922"));
+        assertTrue(snapshot.get("2").getURIs().isEmpty());
+    }
+
+    @Test
+    public void getMissing() throws IOException {
+        AuthSnapshot snapshot = new AuthSnapshot(snapshotPath);
+        assertNull(snapshot.get("3"));
+        assertNull(snapshot.get("36038"));
+        assertNull(snapshot.get("3603860"));
+        assertNull(snapshot.get(""));
+    }
+
+    @Test
+    public void keyOrder() throws IOException {
+        AuthSnapshot snapshot = new AuthSnapshot(snapshotPath);
+        assertEquals("1075272", snapshot.getKey(0));
+        assertEquals("2", snapshot.getKey(1));
+        assertEquals("360386", snapshot.getKey(2));
+        assertEquals("Ämellér", snapshot.getKey(3));
+        assertEquals("sh 85146947", snapshot.get(0).getAuthID());
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidSnapshot() throws IOException {
+        Path invalidPath = marcTestUtils.createOutputFile("invalid", ".snapshot");
+        Files.write(invalidPath, "not an authority snapshot".getBytes(StandardCharsets.UTF_8));
+        new AuthSnapshot(invalidPath);
+    }
+
+    @Test
+    public void abortWriter() throws IOException {
+        Path abortPath = marcTestUtils.outputPath.resolve("abort.snapshot");
+        AuthSnapshotWriter writer = new AuthSnapshotWriter(abortPath);
+        writer.add("360386", new AuthURIs("n  80035584"));
+        writer.abort();
+        assertFalse(abortPath.toFile().exists());
+        assertEquals(1, marcTestUtils.outputPath.toFile().list().length);
+    }
+
+}
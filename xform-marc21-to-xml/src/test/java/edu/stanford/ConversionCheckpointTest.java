@@ -0,0 +1,116 @@
+package edu.stanford;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ConversionCheckpointTest {
+
+    private MarcTestUtils marcTestUtils;
+    private Path marcFile;
+    private Path checkpointFile;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.marcFileResource, marcTestUtils.marcFileResource, marcTestUtils.marcFileResource);
+        checkpointFile = marcTestUtils.outputPath.resolve("convert.checkpoint");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    private String[] checkpointLine() throws Exception {
+        return new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim().split("\t");
+    }
+
+    @Test
+    public void checkpointsCommitRecordsDone() throws Exception {
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint(checkpointFile, marcFile, 2);
+        AtomicInteger flushes = new AtomicInteger();
+        checkpoint.setFlush(flushes::incrementAndGet);
+        long first = checkpoint.read(100);
+        long second = checkpoint.read(250);
+        long third = checkpoint.read(300);
+        // Records done out of order are committed after the records before them
+        checkpoint.done(second);
+        checkpoint.done(third);
+        assertFalse(checkpointFile.toFile().exists());
+        checkpoint.done(first);
+        String[] line = checkpointLine();
+        assertEquals(marcFile.toAbsolutePath().normalize().toString(), line[0]);
+        assertEquals(String.valueOf(Files.size(marcFile)), line[1]);
+        assertEquals("300", line[2]);
+        assertEquals("3", line[3]);
+        assertEquals(1, flushes.get());
+        checkpoint.finish();
+        assertFalse(checkpointFile.toFile().exists());
+    }
+
+    @Test
+    public void resumeAtCheckpoint() throws Exception {
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint(checkpointFile, marcFile, 1);
+        assertEquals(0, checkpoint.getResumeOffset());
+        checkpoint.done(checkpoint.read(120));
+        checkpoint = new ConversionCheckpoint(checkpointFile, marcFile, 1);
+        assertEquals(120, checkpoint.getResumeOffset());
+        assertEquals(1, checkpoint.getResumeRecords());
+        // The offsets of the resumed records are from the resume offset
+        checkpoint.done(checkpoint.read(80));
+        assertEquals("200", checkpointLine()[2]);
+        assertEquals("2", checkpointLine()[3]);
+    }
+
+    @Test
+    public void ignoreCheckpointOfAnotherFile() throws Exception {
+        Files.write(checkpointFile, ("other.mrc\t" + Files.size(marcFile) + "\t120\t1\n").getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, new ConversionCheckpoint(checkpointFile, marcFile, 1).getResumeOffset());
+        String changedSize = marcFile.toAbsolutePath().normalize() + "\t1\t120\t1\n";
+        Files.write(checkpointFile, changedSize.getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, new ConversionCheckpoint(checkpointFile, marcFile, 1).getResumeOffset());
+    }
+
+    @Test
+    public void failedRecordHoldsCheckpointBack() throws Exception {
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint(checkpointFile, marcFile, 1);
+        checkpoint.done(checkpoint.read(100));
+        checkpoint.read(200);
+        checkpoint.done(checkpoint.read(300));
+        assertEquals("100", checkpointLine()[2]);
+    }
+
+    @Test
+    public void failedRecordIsDone() throws Exception {
+        ConversionCheckpoint checkpoint = new ConversionCheckpoint(checkpointFile, marcFile, 1);
+        checkpoint.done(checkpoint.read(100));
+        long failed = checkpoint.read(200);
+        long third = checkpoint.read(300);
+        checkpoint.done(third);
+        checkpoint.failed(failed);
+        assertEquals(1, checkpoint.getFailures());
+        // The records after the failed record are committed, but the checkpoint is held at it
+        checkpoint.done(checkpoint.read(400));
+        assertEquals("100", checkpointLine()[2]);
+        assertEquals("1", checkpointLine()[3]);
+        // The checkpoint is kept, to convert the failed record again
+        checkpoint.finish();
+        assertEquals("100", checkpointLine()[2]);
+        assertEquals(100, new ConversionCheckpoint(checkpointFile, marcFile, 1).getResumeOffset());
+    }
+
+}
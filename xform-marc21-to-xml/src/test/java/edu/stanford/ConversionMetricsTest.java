@@ -0,0 +1,196 @@
+package edu.stanford;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcReader;
+import org.marc4j.MarcStreamReader;
+import org.marc4j.MarcWriter;
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.Record;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ConversionMetricsTest {
+
+    private MarcTestUtils marcTestUtils;
+    private ConversionMetrics metrics;
+
+    @Before
+    public void setUp() throws IOException {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        metrics = new ConversionMetrics();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        metrics.stop(null);
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    @Test
+    public void timerPercentiles() {
+        ConversionMetrics.Timer timer = new ConversionMetrics.Timer();
+        assertEquals(0.0, timer.percentileMillis(0.99), 0.0);
+        for (int i = 0; i < 98; i++)
+            timer.record(TimeUnit.MICROSECONDS.toNanos(100));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(10));
+        timer.record(TimeUnit.MILLISECONDS.toNanos(20));
+        assertEquals(100, timer.count());
+        // The percentiles are the upper bounds of power-of-two microsecond buckets
+        assertEquals(0.128, timer.percentileMillis(0.50), 0.0);
+        assertEquals(0.128, timer.percentileMillis(0.98), 0.0);
+        assertEquals(16.384, timer.percentileMillis(0.99), 0.0);
+        assertEquals(20.0, timer.percentileMillis(1.0), 0.0);
+        assertEquals(20.0, timer.maxMillis(), 0.0);
+        assertEquals((98 * 0.1 + 30) / 100, timer.meanMillis(), 1e-9);
+    }
+
+    @Test
+    public void countingReader() throws IOException {
+        try (InputStream in = new FileInputStream(marcTestUtils.authMarcFilePath)) {
+            MarcReader reader = metrics.countingReader(new MarcStreamReader(metrics.countingInput(in)));
+            while (reader.hasNext())
+                reader.next();
+        }
+        assertEquals(1, metrics.getRecordsRead());
+        assertEquals(new File(marcTestUtils.authMarcFilePath).length(), metrics.getBytesIn());
+    }
+
+    @Test
+    public void countingInputMarkedStream() throws IOException {
+        // The bytes read again after a reset are counted once
+        try (InputStream in = new MappedFileInputStream(Paths.get(marcTestUtils.authMarcFilePath))) {
+            MarcReader reader = new RawMarcReader(metrics.countingInput(in));
+            while (reader.hasNext())
+                reader.next();
+        }
+        assertEquals(new File(marcTestUtils.authMarcFilePath).length(), metrics.getBytesIn());
+    }
+
+    @Test
+    public void countingOutput() throws IOException {
+        OutputStream out = metrics.countingOutput(new NullOutputStream());
+        out.write('<');
+        out.write("record/>".getBytes(StandardCharsets.UTF_8));
+        out.write("<record/>".getBytes(StandardCharsets.UTF_8), 1, 3);
+        assertEquals(12, metrics.getBytesOut());
+    }
+
+    @Test
+    public void timedWriter() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcWriter writer = metrics.timedWriter(new MarcXmlWriter(metrics.countingOutput(out), true));
+        Record record = marcTestUtils.getMarcRecord();
+        writer.write(record);
+        writer.write(record);
+        writer.close();
+        assertEquals(2, metrics.getRecordsWritten());
+        assertEquals(2, metrics.writes.count());
+        assertEquals(out.size(), metrics.getBytesOut());
+    }
+
+    @Test
+    public void errorsByType() {
+        metrics.error(new SQLException("SQL exception message"));
+        metrics.error(new SQLException("SQL exception message"));
+        metrics.error(new NullPointerException());
+        assertEquals(3, metrics.getErrors());
+        assertThat(metrics.toJson(), containsString("\"errors\":{\"NullPointerException\":1,\"SQLException\":2}"));
+    }
+
+    @Test
+    public void jsonSummary() throws IOException {
+        AuthCache cache = new AuthCache(10, 0);
+        cache.put("key", AuthURIs.UNRESOLVED);
+        cache.get("key");
+        cache.get("missing");
+        metrics.setAuthCache(cache);
+        metrics.recordsRead.add(3);
+        metrics.recordsWritten.add(2);
+        metrics.recordsSkipped.add(1);
+        metrics.authKeys.add(5);
+        metrics.authLookups.record(TimeUnit.MICROSECONDS.toNanos(500));
+        Path summaryFile = marcTestUtils.outputPath.resolve("metrics.json");
+        metrics.stop(summaryFile);
+        String json = new String(Files.readAllBytes(summaryFile), StandardCharsets.UTF_8);
+        assertThat(json, startsWith("{\"elapsed_seconds\":"));
+        assertThat(json, containsString("\"records_read\":3,\"records_written\":2,\"records_skipped\":1,"));
+        assertThat(json, containsString("\"auth_keys\":5,\"auth_lookups\":{\"count\":1,\"mean_ms\":0.500,"));
+        assertThat(json, containsString("\"auth_cache\":{\"hits\":1,\"misses\":1,\"hit_ratio\":0.500}"));
+        assertThat(json, containsString("\"writes\":{\"count\":0,"));
+        assertThat(json, containsString("\"errors\":{}}"));
+    }
+
+    @Test
+    public void progressLine() {
+        metrics.recordsRead.add(4);
+        metrics.recordsWritten.add(3);
+        assertThat(metrics.progress(), startsWith("Progress: records read=4 written=3 skipped=0"));
+        // The interval rate is since the last progress line
+        assertThat(metrics.progress(), containsString("(0.0/s,"));
+    }
+
+    @Test
+    public void formatInAnyLocale() {
+        Locale locale = Locale.getDefault();
+        // A comma-decimal locale must not change the JSON numbers or the progress line
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            AuthCache cache = new AuthCache(10, 0);
+            cache.put("key", AuthURIs.UNRESOLVED);
+            cache.get("key");
+            cache.get("missing");
+            metrics.setAuthCache(cache);
+            metrics.authLookups.record(TimeUnit.MICROSECONDS.toNanos(1500));
+            metrics.recordsWritten.add(1000000);
+            String json = metrics.toJson();
+            assertThat(json, containsString("\"hit_ratio\":0.500}"));
+            assertThat(json, containsString("\"mean_ms\":1.500,"));
+            assertFalse(json.matches(".*[0-9],[0-9].*"));
+            String progress = metrics.progress();
+            assertThat(progress, containsString("(p99 "));
+            assertThat(progress, containsString("cache hit-ratio=0.500 "));
+            assertFalse(progress.matches(".*[0-9],[0-9].*"));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+
+    @Test
+    public void registerMBean() throws Exception {
+        metrics.recordsWritten.add(7);
+        metrics.registerMBean("ConversionMetricsTest");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(ConversionMetrics.MBEAN_NAME + ObjectName.quote("ConversionMetricsTest"));
+        assertEquals(7L, server.getAttribute(name, "RecordsWritten"));
+        metrics.stop(null);
+        assertFalse(server.isRegistered(name));
+    }
+
+}
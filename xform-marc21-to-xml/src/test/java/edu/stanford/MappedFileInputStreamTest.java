@@ -0,0 +1,106 @@
+package edu.stanford;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.FileInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MappedFileInputStreamTest {
+
+    private MarcTestUtils marcTestUtils;
+    private Path marcFile;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    @Test
+    public void readsTheFileAcrossWindows() throws Exception {
+        byte[] expected = Files.readAllBytes(marcFile);
+        byte[] bytes = new byte[expected.length];
+        try (MappedFileInputStream input = new MappedFileInputStream(marcFile, 0, 100)) {
+            int n = 0;
+            while (n < bytes.length) {
+                int read = input.read(bytes, n, Math.min(64, bytes.length - n));
+                assertTrue(read > 0 && read <= 100);
+                n += read;
+            }
+            assertEquals(expected.length, input.getPosition());
+            assertEquals(-1, input.read());
+            assertEquals(-1, input.read(bytes, 0, 1));
+        }
+        assertArrayEquals(expected, bytes);
+    }
+
+    @Test
+    public void markAndResetAcrossWindows() throws Exception {
+        byte[] expected = Files.readAllBytes(marcFile);
+        try (MappedFileInputStream input = new MappedFileInputStream(marcFile, 0, 100)) {
+            assertTrue(input.markSupported());
+            byte[] bytes = new byte[90];
+            assertEquals(90, input.read(bytes));
+            input.mark(0);
+            bytes = new byte[30];
+            assertEquals(10, input.read(bytes));
+            assertEquals(20, input.read(bytes, 10, 20));
+            input.reset();
+            assertEquals(90, input.getPosition());
+            assertEquals(expected[90] & 0xFF, input.read());
+            assertArrayEquals(Arrays.copyOfRange(expected, 90, 120), bytes);
+            assertEquals(expected.length - 91, input.available());
+            assertEquals(9, input.skip(9));
+            assertEquals(expected[100] & 0xFF, input.read());
+        }
+    }
+
+    @Test
+    public void readsToTheEnd() throws Exception {
+        byte[] expected = Files.readAllBytes(marcFile);
+        try (MappedFileInputStream input = new MappedFileInputStream(marcFile, 10, 50, 16)) {
+            byte[] bytes = new byte[100];
+            int n = 0;
+            int read;
+            while ((read = input.read(bytes, n, bytes.length - n)) > 0)
+                n += read;
+            assertEquals(40, n);
+            assertArrayEquals(Arrays.copyOfRange(expected, 10, 50), Arrays.copyOf(bytes, n));
+            assertEquals(0, input.available());
+            assertEquals(0, input.skip(1));
+        }
+    }
+
+    @Test
+    public void readsTheRecordsFromAPosition() throws Exception {
+        RawMarcReader fileReader = new RawMarcReader(new FileInputStream(marcFile.toFile()));
+        long first = fileReader.nextRaw().getBytes().length;
+        try (MappedFileInputStream input = new MappedFileInputStream(marcFile, first, 1000)) {
+            RawMarcReader mappedReader = new RawMarcReader(input);
+            while (fileReader.hasNext()) {
+                assertTrue(mappedReader.hasNext());
+                assertArrayEquals(fileReader.nextRaw().getBytes(), mappedReader.nextRaw().getBytes());
+            }
+            assertFalse(mappedReader.hasNext());
+            assertEquals(Files.size(marcFile), first + mappedReader.getOffset());
+        }
+    }
+
+}
@@ -1,17 +1,21 @@
 package edu.stanford;
 
 import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.file.Path;
 import java.sql.SQLException;
 
 import static org.hamcrest.CoreMatchers.containsString;
@@ -87,6 +91,26 @@ public class MarcConverterWithAuthorityLookupTest {
         assertThat(conn, instanceOf(AuthDBConnection.class));
     }
 
+    @Test
+    public void authDBConnectionPoolFitsThreads() throws Exception {
+        marcConverterWithAuthorityLookup.authDBProperties = authDBProperties;
+        marcConverterWithAuthorityLookup.threads = authDBProperties.getPoolMaxSize() + 2;
+        marcConverterWithAuthorityLookup.authDBConnection();
+        assertEquals(marcConverterWithAuthorityLookup.threads, authDBProperties.getPoolMaxSize());
+    }
+
+    @Test
+    public void setValidate() throws Exception {
+        Options options = new Options();
+        MarcConverterWithAuthorityLookup.addOptions(options);
+        CommandLine cmd = new DefaultParser().parse(options, new String[]{"-v"});
+        marcConverterWithAuthorityLookup.setValidate(cmd);
+        assertTrue(marcConverterWithAuthorityLookup.validate);
+        cmd = new DefaultParser().parse(options, new String[]{});
+        marcConverterWithAuthorityLookup.setValidate(cmd);
+        assertFalse(marcConverterWithAuthorityLookup.validate);
+    }
+
     @Test
     public void authDBConnection_setAuthDBProperties() throws IOException, SQLException {
         marcConverterWithAuthorityLookup = spy(MarcConverterWithAuthorityLookup.class);
@@ -116,6 +140,124 @@ public class MarcConverterWithAuthorityLookupTest {
         assertEquals(authDBConnection, marcConverterWithAuthorityLookup.authDBConnection);
     }
 
+    @Test
+    public void authDBLookupUsesAuthCache() throws Exception {
+        marcConverterWithAuthorityLookup.authDBConnection = authDBConnection;
+        AuthDBLookup lookup = marcConverterWithAuthorityLookup.authDBLookup();
+        assertNotNull(marcConverterWithAuthorityLookup.authCache);
+        assertSame(marcConverterWithAuthorityLookup.authCache, lookup.authCache);
+    }
+
+    @Test
+    public void authDBLookupUsesAuthURITags() throws Exception {
+        String[] tags = {"921", "923"};
+        authDBProperties.setAuthURITags(tags);
+        authLookupMocks();
+        AuthDBLookup lookup = marcConverterWithAuthorityLookup.authDBLookup();
+        assertArrayEquals(tags, lookup.authURITags);
+    }
+
+    @Test
+    public void authDBLookupUsesAuthLinkTags() throws Exception {
+        authDBProperties.setAuthLinkTags(new String[]{"5XX"});
+        authLookupMocks();
+        AuthDBLookup lookup = marcConverterWithAuthorityLookup.authDBLookup();
+        DataField note = MarcFactory.newInstance().newDataField("500", ' ', ' ');
+        DataField heading = MarcFactory.newInstance().newDataField("650", ' ', ' ');
+        assertTrue(lookup.linkable(note));
+        assertFalse(lookup.linkable(heading));
+    }
+
+    @Test
+    public void authDBLookupWithoutAuthCache() throws Exception {
+        marcConverterWithAuthorityLookup.authDBConnection = authDBConnection;
+        marcConverterWithAuthorityLookup.authCacheSize = 0;
+        AuthDBLookup lookup = marcConverterWithAuthorityLookup.authDBLookup();
+        assertNull(marcConverterWithAuthorityLookup.authCache);
+        assertNull(lookup.authCache);
+    }
+
+    @Test
+    public void setAuthCache() {
+        CommandLine cmd = mock(CommandLine.class);
+        when(cmd.hasOption("c")).thenReturn(true);
+        when(cmd.getOptionValue("c")).thenReturn("42");
+        when(cmd.hasOption("e")).thenReturn(true);
+        when(cmd.getOptionValue("e")).thenReturn("3600");
+        marcConverterWithAuthorityLookup.setAuthCache(cmd);
+        assertEquals(42, marcConverterWithAuthorityLookup.authCacheSize);
+        assertEquals(3600, marcConverterWithAuthorityLookup.authCacheTTL);
+    }
+
+    @Test
+    public void failSetAuthCache() {
+        exit.expectSystemExitWithStatus(1);
+        CommandLine cmd = mock(CommandLine.class);
+        when(cmd.hasOption("c")).thenReturn(true);
+        when(cmd.getOptionValue("c")).thenReturn("many");
+        marcConverterWithAuthorityLookup.setAuthCache(cmd);
+    }
+
+    @Test
+    public void setCompression() throws Exception {
+        Options options = new Options();
+        MarcConverterWithAuthorityLookup.addOptions(options);
+        CommandLine cmd = new DefaultParser().parse(options, new String[]{});
+        marcConverterWithAuthorityLookup.setCompression(cmd);
+        assertEquals(OutputCompression.NONE, marcConverterWithAuthorityLookup.compression);
+        cmd = new DefaultParser().parse(options, new String[]{"-z", "gzip"});
+        marcConverterWithAuthorityLookup.setCompression(cmd);
+        assertEquals(OutputCompression.GZIP, marcConverterWithAuthorityLookup.compression);
+        assertEquals(OutputCompression.GZIP.defaultLevel, marcConverterWithAuthorityLookup.compressionLevel);
+        cmd = new DefaultParser().parse(options, new String[]{"--compression", "zstd", "--compression-level", "19"});
+        marcConverterWithAuthorityLookup.setCompression(cmd);
+        assertEquals(OutputCompression.ZSTD, marcConverterWithAuthorityLookup.compression);
+        assertEquals(19, marcConverterWithAuthorityLookup.compressionLevel);
+    }
+
+    @Test
+    public void failSetCompression() {
+        exit.expectSystemExitWithStatus(1);
+        CommandLine cmd = mock(CommandLine.class);
+        when(cmd.hasOption("z")).thenReturn(true);
+        when(cmd.getOptionValue("z")).thenReturn("bzip2");
+        marcConverterWithAuthorityLookup.setCompression(cmd);
+    }
+
+    @Test
+    public void failSetCompressionLevel() {
+        exit.expectSystemExitWithStatus(1);
+        CommandLine cmd = mock(CommandLine.class);
+        when(cmd.hasOption("z")).thenReturn(true);
+        when(cmd.getOptionValue("z")).thenReturn("gzip");
+        when(cmd.hasOption("q")).thenReturn(true);
+        when(cmd.getOptionValue("q")).thenReturn("19");
+        marcConverterWithAuthorityLookup.setCompression(cmd);
+    }
+
+    @Test
+    public void authDBLookupUsesAuthSnapshot() throws Exception {
+        marcTestUtils.createOutputPath();
+        Path snapshotPath = marcTestUtils.outputPath.resolve("auth.snapshot");
+        new AuthSnapshotWriter(snapshotPath).close();
+        CommandLine cmd = mock(CommandLine.class);
+        when(cmd.hasOption("s")).thenReturn(true);
+        when(cmd.getOptionValue("s")).thenReturn(snapshotPath.toString());
+        marcConverterWithAuthorityLookup.setAuthSnapshot(cmd);
+        AuthDBLookup lookup = marcConverterWithAuthorityLookup.authDBLookup();
+        assertThat(lookup, instanceOf(AuthSnapshotLookup.class));
+        assertNull(marcConverterWithAuthorityLookup.authDBConnection);
+    }
+
+    @Test
+    public void failSetAuthSnapshot() {
+        exit.expectSystemExitWithStatus(1);
+        CommandLine cmd = mock(CommandLine.class);
+        when(cmd.hasOption("s")).thenReturn(true);
+        when(cmd.getOptionValue("s")).thenReturn("missing.snapshot");
+        marcConverterWithAuthorityLookup.setAuthSnapshot(cmd);
+    }
+
     @Test
     public void authLookupInit_setAuthDBLookup() throws Exception {
         // Custom mocks for this test
@@ -134,6 +276,7 @@ public class MarcConverterWithAuthorityLookupTest {
         assertNotNull(marcConverterWithAuthorityLookup.authDBLookup);
         marcConverterWithAuthorityLookup.authLookupClose();
         assertNull(marcConverterWithAuthorityLookup.authDBLookup);
+        verify(authDBConnection).close();
     }
 
     @Test
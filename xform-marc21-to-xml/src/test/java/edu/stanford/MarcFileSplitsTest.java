@@ -0,0 +1,72 @@
+package edu.stanford;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MarcFileSplitsTest {
+
+    private MarcTestUtils marcTestUtils;
+    private long authRecordLength;
+    private long marcRecordLength;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        authRecordLength = new File(marcTestUtils.authMarcFilePath).length();
+        marcRecordLength = new File(marcTestUtils.marcFilePath).length();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    @Test
+    public void splitsAtRecordBoundaries() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource,
+                marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        long size = Files.size(marcFile);
+        assertArrayEquals(new long[]{0, size}, MarcFileSplits.splitOffsets(marcFile, 1));
+        // The second split starts at the first record boundary at or after half of the file
+        assertArrayEquals(new long[]{0, size / 2, size}, MarcFileSplits.splitOffsets(marcFile, 2));
+        assertArrayEquals(new long[]{0, authRecordLength + marcRecordLength, 2 * authRecordLength + marcRecordLength, size},
+                MarcFileSplits.splitOffsets(marcFile, 3));
+    }
+
+    @Test
+    public void splitPerRecord() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        long size = Files.size(marcFile);
+        assertArrayEquals(new long[]{0, authRecordLength, size}, MarcFileSplits.splitOffsets(marcFile, 10));
+    }
+
+    @Test
+    public void invalidRecordInLastSplit() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource);
+        Files.write(marcFile, "not a MARC record".getBytes(), StandardOpenOption.APPEND);
+        Files.write(marcFile, Files.readAllBytes(Paths.get(marcTestUtils.authMarcFilePath)), StandardOpenOption.APPEND);
+        long size = Files.size(marcFile);
+        assertArrayEquals(new long[]{0, authRecordLength, size}, MarcFileSplits.splitOffsets(marcFile, 10));
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile();
+        assertArrayEquals(new long[]{0}, MarcFileSplits.splitOffsets(marcFile, 4));
+    }
+
+}
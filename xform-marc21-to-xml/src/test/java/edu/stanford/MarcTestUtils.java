@@ -2,8 +2,11 @@ package edu.stanford;
 
 import org.apache.commons.io.FileUtils;
 import org.marc4j.MarcStreamReader;
+import org.marc4j.MarcStreamWriter;
 import org.marc4j.MarcWriter;
 import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
 import org.marc4j.marc.Record;
 
 import java.io.*;
@@ -23,6 +26,10 @@ public class MarcTestUtils {
     String marcFileResource = "/one_record.mrc";
     String marcFilePath = getFileResource(marcFileResource);
 
+    // A record with authority-key subfields, see SqliteTestUtils.createAuthorityTables()
+    String authMarcFileResource = "/123.mrc";
+    String authMarcFilePath = getFileResource(authMarcFileResource);
+
     Path outputPath;
     Path outputFile;
 
@@ -42,6 +49,16 @@ public class MarcTestUtils {
     }
 
 
+    // Concatenate MARC file resources into one MARC file with several records
+    Path createMarcFile(String... fileResources) throws IOException {
+        Path marcFile = createOutputFile("records", ".mrc");
+        try (OutputStream out = new FileOutputStream(marcFile.toFile())) {
+            for (String fileResource : fileResources)
+                Files.copy(new File(getFileResource(fileResource)).toPath(), out);
+        }
+        return marcFile;
+    }
+
     String getFileResource(String fileResource) {
         return getClass().getResource(fileResource).getFile();
     }
@@ -69,4 +86,22 @@ public class MarcTestUtils {
         return getMarcReader(filePath).next();
     }
 
+    Record getInvalidMarcRecord() throws Exception {
+        Record record = getMarcRecord();
+        // The MARC21slim schema allows only digits, lowercase letters and space for indicators
+        DataField field = MarcFactory.newInstance().newDataField("500", 'A', ' ');
+        field.addSubfield(MarcFactory.newInstance().newSubfield('a', "Invalid indicator"));
+        record.addVariableField(field);
+        return record;
+    }
+
+    Path writeMarcFile(Record... records) throws IOException {
+        Path marcFile = createOutputFile("records", ".mrc");
+        MarcStreamWriter writer = new MarcStreamWriter(new FileOutputStream(marcFile.toFile()), "UTF-8");
+        for (Record record : records)
+            writer.write(record);
+        writer.close();
+        return marcFile;
+    }
+
 }
\ No newline at end of file
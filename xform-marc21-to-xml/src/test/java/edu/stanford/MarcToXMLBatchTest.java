@@ -0,0 +1,244 @@
+package edu.stanford;
+
+import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MarcToXMLBatchTest {
+
+    @Rule
+    public final ExpectedSystemExit exit = ExpectedSystemExit.none();
+
+    private MarcTestUtils marcTestUtils;
+    private MarcToXMLBatch marcToXMLBatch;
+    private Path inputPath;
+    private Path outputPath;
+    private ByteArrayOutputStream results;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        inputPath = Files.createDirectory(marcTestUtils.outputPath.resolve("marc"));
+        outputPath = Files.createDirectory(marcTestUtils.outputPath.resolve("xml"));
+        marcToXMLBatch = new MarcToXMLBatch();
+        marcToXMLBatch.setXmlOutputPath(outputPath.toString());
+        Path logFile = marcTestUtils.createOutputFile("MarcToXMLBatchTest", ".log");
+        marcToXMLBatch.setLogger(logFile.toString());
+        Path dbFile = marcTestUtils.createOutputFile("authorities", ".db");
+        marcToXMLBatch.authDBConnection = SqliteTestUtils.sqliteFileAuthDBConnection(dbFile);
+        results = new ByteArrayOutputStream();
+        marcToXMLBatch.results = new PrintStream(results);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcToXMLBatch.authLookupClose();
+        marcToXMLBatch.setLogger(null);
+        marcToXMLBatch = null;
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    private Path copyMarcFile(String fileResource, Path marcFile) throws IOException {
+        Files.createDirectories(marcFile.getParent());
+        return Files.copy(Paths.get(marcTestUtils.getFileResource(fileResource)), marcFile);
+    }
+
+    @Test
+    public void marcFilesInDirectory() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.authMarcFileResource, inputPath.resolve("a.mrc"));
+        Path b = copyMarcFile(marcTestUtils.marcFileResource, inputPath.resolve("sub").resolve("b.mrc"));
+        assertTrue(inputPath.resolve("c.txt").toFile().createNewFile());
+        assertEquals(Arrays.asList(a, b), MarcToXMLBatch.marcFiles(inputPath.toString()));
+    }
+
+    @Test
+    public void marcFilesGlob() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.authMarcFileResource, inputPath.resolve("a.mrc"));
+        copyMarcFile(marcTestUtils.marcFileResource, inputPath.resolve("b.dat"));
+        copyMarcFile(marcTestUtils.marcFileResource, inputPath.resolve("sub").resolve("c.mrc"));
+        assertEquals(Arrays.asList(a), MarcToXMLBatch.marcFiles(inputPath.resolve("*.mrc").toString()));
+        assertTrue(MarcToXMLBatch.marcFiles(inputPath.resolve("*.xml").toString()).isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void marcFilesMissingDirectory() throws Exception {
+        MarcToXMLBatch.marcFiles(inputPath.resolve("missing").toString());
+    }
+
+    @Test
+    public void convertMarcFiles() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.authMarcFileResource, inputPath.resolve("a.mrc"));
+        Path b = copyMarcFile(marcTestUtils.marcFileResource, inputPath.resolve("b.mrc"));
+        marcToXMLBatch.setMarcFiles(Arrays.asList(a, b));
+        marcToXMLBatch.fileThreads = 2;
+        assertEquals(0, marcToXMLBatch.convertMarcFiles());
+        File xmlFile = outputPath.resolve("123.xml").toFile();
+        assertTrue(MarcXMLValidator.valid(xmlFile.toString()));
+        String xml = FileUtils.readFileToString(xmlFile, StandardCharsets.UTF_8);
+        assertThat(xml, containsString(SqliteTestUtils.AUTH_URI_360386_920));
+        assertTrue(outputPath.resolve("1629059.xml").toFile().exists());
+        List<String> lines = Arrays.asList(results.toString().split("\n"));
+        assertEquals(Arrays.asList(MarcToXMLBatch.CONVERTED + '\t' + a, MarcToXMLBatch.CONVERTED + '\t' + b), lines);
+        // The files share the conversion metrics
+        ConversionMetrics metrics = marcToXMLBatch.metrics;
+        assertEquals(2, metrics.getRecordsRead());
+        assertEquals(2, metrics.getRecordsWritten());
+        assertEquals(Files.size(a) + Files.size(b), metrics.getBytesIn());
+        assertEquals(Files.size(xmlFile.toPath()) + Files.size(outputPath.resolve("1629059.xml")), metrics.getBytesOut());
+        assertTrue(metrics.getAuthLookups() > 0);
+        // The MARC files are closed, so they can be archived
+        assertTrue(a.toFile().delete());
+    }
+
+    @Test
+    public void convertMarcFilesWithThreads() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.authMarcFileResource, inputPath.resolve("a.mrc"));
+        Path b = copyMarcFile(marcTestUtils.marcFileResource, inputPath.resolve("b.mrc"));
+        marcToXMLBatch.setMarcFiles(Arrays.asList(a, b));
+        marcToXMLBatch.fileThreads = 2;
+        marcToXMLBatch.threads = 2;
+        marcToXMLBatch.chunkRecords = 10;
+        assertEquals(0, marcToXMLBatch.convertMarcFiles());
+        // The files share the chunk writer
+        List<String> manifest = Files.readAllLines(outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE));
+        assertEquals(2, manifest.size());
+        assertTrue(MarcXMLValidator.valid(outputPath.resolve(MarcXmlChunkWriter.chunkName(1)).toString()));
+        assertFalse(outputPath.resolve(MarcXmlChunkWriter.chunkName(2)).toFile().exists());
+    }
+
+    @Test
+    public void convertMarcFilesToCompressedChunks() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.authMarcFileResource, inputPath.resolve("a.mrc"));
+        Path b = copyMarcFile(marcTestUtils.marcFileResource, inputPath.resolve("b.mrc"));
+        marcToXMLBatch.setMarcFiles(Arrays.asList(a, b));
+        marcToXMLBatch.chunkRecords = 10;
+        marcToXMLBatch.compression = OutputCompression.GZIP;
+        marcToXMLBatch.compressionLevel = OutputCompression.GZIP.defaultLevel;
+        assertEquals(0, marcToXMLBatch.convertMarcFiles());
+        assertTrue(outputPath.resolve(MarcXmlChunkWriter.chunkName(1) + ".gz").toFile().isFile());
+        assertFalse(outputPath.resolve(MarcXmlChunkWriter.chunkName(1)).toFile().exists());
+    }
+
+    @Test
+    public void convertMarcFilesReportsFailures() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.authMarcFileResource, inputPath.resolve("a.mrc"));
+        Path bad = inputPath.resolve("bad.mrc");
+        Files.write(bad, "This is not a MARC record, but it is long enough for a leader".getBytes(StandardCharsets.UTF_8));
+        Path missing = inputPath.resolve("missing.mrc");
+        marcToXMLBatch.setMarcFiles(Arrays.asList(a, bad, missing));
+        assertEquals(2, marcToXMLBatch.convertMarcFiles());
+        List<String> lines = Arrays.asList(results.toString().split("\n"));
+        assertEquals(Arrays.asList(
+                MarcToXMLBatch.CONVERTED + '\t' + a,
+                MarcToXMLBatch.FAILED + '\t' + bad,
+                MarcToXMLBatch.FAILED + '\t' + missing), lines);
+        assertTrue(outputPath.resolve("123.xml").toFile().exists());
+    }
+
+    @Test
+    public void convertMarcFilesReportsInvalidRecords() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.authMarcFileResource, inputPath.resolve("a.mrc"));
+        Path invalid = Files.move(marcTestUtils.writeMarcFile(marcTestUtils.getInvalidMarcRecord()),
+                inputPath.resolve("invalid.mrc"));
+        marcToXMLBatch.setMarcFiles(Arrays.asList(a, invalid));
+        marcToXMLBatch.validate = true;
+        assertEquals(1, marcToXMLBatch.convertMarcFiles());
+        List<String> lines = Arrays.asList(results.toString().split("\n"));
+        assertEquals(Arrays.asList(
+                MarcToXMLBatch.CONVERTED + '\t' + a,
+                MarcToXMLBatch.FAILED + '\t' + invalid), lines);
+        assertEquals(1, marcToXMLBatch.metrics.getErrors());
+    }
+
+    @Test
+    public void fileConverterSharesLookups() throws Exception {
+        marcToXMLBatch.authLookupInit();
+        marcToXMLBatch.threads = 3;
+        MarcToXML converter = marcToXMLBatch.fileConverter(inputPath.resolve("a.mrc"));
+        assertSame(marcToXMLBatch.authDBConnection, converter.authDBConnection);
+        assertSame(marcToXMLBatch.authCache, converter.authCache);
+        assertSame(marcToXMLBatch.log, converter.log);
+        assertEquals(3, converter.threads);
+        assertNull(converter.authDBLookup);
+    }
+
+    @Test
+    public void mainNoInputFiles() throws ParseException, IOException, SQLException {
+        // An empty input directory is not an error
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[] {"-i", inputPath.toString(), "-o", outputPath.toString(),
+                    "-l", marcTestUtils.createOutputFile("main", ".log").toString()};
+            MarcToXMLBatch.main(args);
+        } finally {
+            System.setErr(stderr);
+            System.setOut(stdout);
+        }
+        assertEquals("", errContent.toString());
+        assertEquals("", outContent.toString());
+    }
+
+    @Test
+    public void mainMissingInput() throws ParseException, IOException, SQLException {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        Path missing = inputPath.resolve("missing");
+        try {
+            String[] args = new String[] {"-i", missing.toString(), "-o", outputPath.toString()};
+            MarcToXMLBatch.main(args);
+        } finally {
+            assertEquals("ERROR: Failure to list MARC input files: MARC input directory not found: " + missing + "\n",
+                    errContent.toString());
+            System.setErr(stderr);
+        }
+    }
+
+    @Test
+    public void mainFileThreadsInvalid() throws ParseException, IOException, SQLException {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            copyMarcFile(marcTestUtils.marcFileResource, inputPath.resolve("a.mrc"));
+            String[] args = new String[] {"-i", inputPath.toString(), "-o", outputPath.toString(), "-j", "0",
+                    "-l", marcTestUtils.createOutputFile("main", ".log").toString()};
+            MarcToXMLBatch.main(args);
+        } finally {
+            assertEquals("ERROR: File threads must be a positive integer.\n", errContent.toString());
+            System.setErr(stderr);
+        }
+    }
+
+}
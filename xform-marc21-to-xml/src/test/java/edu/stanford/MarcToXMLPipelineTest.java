@@ -0,0 +1,409 @@
+package edu.stanford;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcException;
+import org.marc4j.MarcReader;
+import org.marc4j.marc.Record;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.instanceOf;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class MarcToXMLPipelineTest {
+
+    private MarcTestUtils marcTestUtils;
+    private MarcToXML marcToXML;
+    private Path outputPath;
+    private Path logFile;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        outputPath = Files.createDirectory(marcTestUtils.outputPath.resolve("xml"));
+        marcToXML = new MarcToXML();
+        marcToXML.setXmlOutputPath(outputPath.toString());
+        logFile = marcTestUtils.createOutputFile("MarcToXMLPipelineTest", ".log");
+        marcToXML.setLogger(logFile.toString());
+        Path dbFile = marcTestUtils.createOutputFile("authorities", ".db");
+        marcToXML.authDBConnection = SqliteTestUtils.sqliteFileAuthDBConnection(dbFile);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcToXML.authLookupClose();
+        marcToXML.setLogger(null);
+        marcToXML = null;
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    private String xmlOutput(String controlNumber) throws IOException {
+        File xmlFile = outputPath.resolve(controlNumber + ".xml").toFile();
+        assertTrue(xmlFile.exists());
+        assertTrue(MarcXMLValidator.valid(xmlFile.toString()));
+        return FileUtils.readFileToString(xmlFile, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void convertMarcRecordsWithThreads() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.threads = 3;
+        marcToXML.writerThreads = 2;
+        marcToXML.convertMarcRecords();
+        assertEquals(2, outputPath.toFile().list().length);
+        String xml = xmlOutput("123");
+        assertThat(xml, containsString(SqliteTestUtils.AUTH_URI_360386_920));
+        assertThat(xml, containsString(SqliteTestUtils.AUTH_URI_1075272_921));
+        xmlOutput("1629059");
+    }
+
+    @Test
+    public void convertMarcRecordsWithBatches() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.batchSize = 10;
+        marcToXML.convertMarcRecords();
+        assertThat(xmlOutput("123"), containsString(SqliteTestUtils.AUTH_URI_360386_922));
+        xmlOutput("1629059");
+    }
+
+    @Test
+    public void convertMarcRecordsToChunks() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.threads = 2;
+        marcToXML.chunkRecords = 1;
+        marcToXML.convertMarcRecords();
+        assertNull(marcToXML.chunkWriter);
+        File chunk1 = outputPath.resolve(MarcXmlChunkWriter.chunkName(1)).toFile();
+        File chunk2 = outputPath.resolve(MarcXmlChunkWriter.chunkName(2)).toFile();
+        assertTrue(MarcXMLValidator.valid(chunk1.toString()));
+        assertTrue(MarcXMLValidator.valid(chunk2.toString()));
+        String xml = FileUtils.readFileToString(chunk1, StandardCharsets.UTF_8) +
+                FileUtils.readFileToString(chunk2, StandardCharsets.UTF_8);
+        assertThat(xml, containsString(SqliteTestUtils.AUTH_URI_360386_920));
+        List<String> manifest = Files.readAllLines(outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE));
+        // The repeated record is skipped
+        assertEquals(2, manifest.size());
+        assertFalse(outputPath.resolve("123.xml").toFile().exists());
+    }
+
+    @Test
+    public void convertMarcRecordsValidated() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.threads = 2;
+        marcToXML.validate = true;
+        assertThat(marcToXML.marcRecordWriter(outputPath.resolve("test.xml").toString()),
+                instanceOf(ValidatingMarcXmlWriter.class));
+        assertTrue(outputPath.resolve("test.xml").toFile().delete());
+        marcToXML.convertMarcRecords();
+        assertThat(xmlOutput("123"), containsString(SqliteTestUtils.AUTH_URI_360386_920));
+        xmlOutput("1629059");
+        assertEquals(0, marcToXML.errors.get());
+    }
+
+    @Test
+    public void convertInvalidRecordsValidated() throws Exception {
+        Record authRecord = marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath);
+        Path marcFile = marcTestUtils.writeMarcFile(authRecord, marcTestUtils.getInvalidMarcRecord());
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.validate = true;
+        marcToXML.convertMarcRecords();
+        // The invalid record is written, but it is an error of the conversion
+        xmlOutput("123");
+        assertTrue(outputPath.resolve("1629059.xml").toFile().exists());
+        assertFalse(MarcXMLValidator.valid(outputPath.resolve("1629059.xml").toString()));
+        assertEquals(1, marcToXML.errors.get());
+        assertEquals(1, marcToXML.invalidRecords.get());
+        assertEquals(1, marcToXML.metrics.getErrors());
+        assertEquals(2, marcToXML.metrics.getRecordsWritten());
+    }
+
+    @Test
+    public void convertInvalidRecordsToChunksValidated() throws Exception {
+        Record authRecord = marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath);
+        Path marcFile = marcTestUtils.writeMarcFile(marcTestUtils.getInvalidMarcRecord(), authRecord);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.validate = true;
+        marcToXML.chunkRecords = 10;
+        marcToXML.convertMarcRecords();
+        assertEquals(2, Files.readAllLines(outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE)).size());
+        assertEquals(1, marcToXML.errors.get());
+        assertEquals(1, marcToXML.invalidRecords.get());
+        assertEquals(1, marcToXML.metrics.getErrors());
+    }
+
+    @Test
+    public void convertMarcRecordsSkipsExisting() throws Exception {
+        File existing = outputPath.resolve("123.xml").toFile();
+        assertTrue(existing.createNewFile());
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.threads = 2;
+        marcToXML.convertMarcRecords();
+        assertEquals(0, existing.length());
+        xmlOutput("1629059");
+    }
+
+    @Test
+    public void convertMarcRecordsSharded() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.sharded = true;
+        marcToXML.convertMarcRecords();
+        assertEquals(256, outputPath.toFile().list().length);
+        File xmlFile = outputPath.resolve(MarcToXML.shard("123.xml")).resolve("123.xml").toFile();
+        assertTrue(MarcXMLValidator.valid(xmlFile.toString()));
+        assertTrue(outputPath.resolve(MarcToXML.shard("1629059.xml")).resolve("1629059.xml").toFile().exists());
+        // The existing sharded files are found by the startup scan
+        assertTrue(xmlFile.delete());
+        marcToXML.convertMarcRecords();
+        assertTrue(xmlFile.exists());
+    }
+
+    @Test
+    public void convertMarcRecordsSkipsRepeatedRecords() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.authMarcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.convertMarcRecords();
+        assertEquals(1, outputPath.toFile().list().length);
+        assertThat(FileUtils.readFileToString(logFile.toFile(), StandardCharsets.UTF_8),
+                containsString("Skipped MARC-XML file: " + outputPath.resolve("123.xml")));
+    }
+
+    @Test
+    public void convertMarcRecordsToChunksSkipsManifestRecords() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.chunkRecords = 10;
+        marcToXML.convertMarcRecords();
+        marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.convertMarcRecords();
+        List<String> manifest = Files.readAllLines(outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE));
+        assertEquals(2, manifest.size());
+        assertThat(manifest.get(1), containsString("1629059\t" + MarcXmlChunkWriter.chunkName(2)));
+    }
+
+    @Test
+    public void convertMarcRecordsFastPath() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.convertMarcRecords();
+        assertThat(xmlOutput("123"), containsString(SqliteTestUtils.AUTH_URI_360386_920));
+        File xmlFile = outputPath.resolve("1629059.xml").toFile();
+        byte[] fastPathXml = Files.readAllBytes(xmlFile.toPath());
+        assertEquals(2, marcToXML.metrics.getRecordsWritten());
+        // The record without authority keys is the same with the Record conversion
+        assertTrue(xmlFile.delete());
+        marcToXML.fastPath = false;
+        marcToXML.convertMarcRecords();
+        assertArrayEquals(fastPathXml, Files.readAllBytes(xmlFile.toPath()));
+        assertEquals(4, marcToXML.metrics.getRecordsRead());
+        assertEquals(1, marcToXML.metrics.getRecordsSkipped());
+    }
+
+    @Test
+    public void convertMarcRecordsToChunksFastPath() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.chunkRecords = 10;
+        marcToXML.convertMarcRecords();
+        Path recordPath = Files.createDirectory(marcTestUtils.outputPath.resolve("xml-records"));
+        marcToXML.setXmlOutputPath(recordPath.toString());
+        marcToXML.fastPath = false;
+        marcToXML.convertMarcRecords();
+        for (String file : new String[]{MarcXmlChunkWriter.chunkName(1), MarcXmlChunkWriter.MANIFEST_FILE})
+            assertArrayEquals(Files.readAllBytes(recordPath.resolve(file)), Files.readAllBytes(outputPath.resolve(file)));
+        assertTrue(MarcXMLValidator.valid(outputPath.resolve(MarcXmlChunkWriter.chunkName(1)).toString()));
+    }
+
+    @Test
+    public void convertMarcRecordsCompressed() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.convertMarcRecords();
+        marcToXML.compression = OutputCompression.ZSTD;
+        marcToXML.compressionLevel = OutputCompression.ZSTD.defaultLevel;
+        marcToXML.convertMarcRecords();
+        for (String controlNumber : new String[]{"123", "1629059"}) {
+            File xmlFile = outputPath.resolve(controlNumber + ".xml.zst").toFile();
+            try (InputStream in = new ZstdInputStream(new FileInputStream(xmlFile))) {
+                assertArrayEquals(Files.readAllBytes(outputPath.resolve(controlNumber + ".xml")), IOUtils.toByteArray(in));
+            }
+        }
+        // The compressed files are existing outputs
+        marcToXML.convertMarcRecords();
+        assertEquals(2, marcToXML.metrics.getRecordsSkipped());
+    }
+
+    @Test
+    public void convertMarcRecordsResumesAtCheckpoint() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        long authRecordLength = new File(marcTestUtils.authMarcFilePath).length();
+        Path checkpointFile = marcTestUtils.outputPath.resolve("convert.checkpoint");
+        String checkpoint = marcFile.toAbsolutePath().normalize() + "\t" + Files.size(marcFile) + "\t" + authRecordLength + "\t1\n";
+        Files.write(checkpointFile, checkpoint.getBytes(StandardCharsets.UTF_8));
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.checkpointFile = checkpointFile;
+        marcToXML.convertMarcRecords();
+        // The conversion resumes after the first record, and it is complete
+        assertArrayEquals(new String[]{"1629059.xml"}, outputPath.toFile().list());
+        assertEquals(1, marcToXML.metrics.getRecordsRead());
+        assertFalse(checkpointFile.toFile().exists());
+    }
+
+    @Test
+    public void convertMarcRecordsWithCheckpoints() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource);
+        Path checkpointFile = marcTestUtils.outputPath.resolve("convert.checkpoint");
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.checkpointFile = checkpointFile;
+        marcToXML.checkpointRecords = 1;
+        marcToXML.threads = 2;
+        marcToXML.chunkRecords = 10;
+        marcToXML.convertMarcRecords();
+        List<String> manifest = Files.readAllLines(outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE));
+        assertEquals(2, manifest.size());
+        assertTrue(MarcXMLValidator.valid(outputPath.resolve(MarcXmlChunkWriter.chunkName(1)).toString()));
+        assertFalse(checkpointFile.toFile().exists());
+    }
+
+    @Test
+    public void convertMarcRecordsKeepsCheckpointOfFailedRecord() throws Exception {
+        // The record in the middle fails, because its output file is a directory
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource);
+        long authRecordLength = new File(marcTestUtils.authMarcFilePath).length();
+        Path failedOutput = Files.createDirectory(outputPath.resolve("1629059.xml"));
+        Path checkpointFile = marcTestUtils.outputPath.resolve("convert.checkpoint");
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.setXmlReplace(true);
+        marcToXML.checkpointFile = checkpointFile;
+        marcToXML.checkpointRecords = 1;
+        marcToXML.convertMarcRecords();
+        assertEquals(1, marcToXML.errors.get());
+        // A record that failed to convert is not an invalid record, so MarcToXML exits normally
+        assertEquals(0, marcToXML.invalidRecords.get());
+        assertEquals(2, marcToXML.metrics.getRecordsWritten());
+        // The checkpoint is kept at the failed record
+        String checkpoint = marcFile.toAbsolutePath().normalize() + "\t" + Files.size(marcFile) + "\t" + authRecordLength + "\t1\n";
+        assertEquals(checkpoint, new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8));
+        // A resumed conversion converts the failed record again
+        Files.delete(failedOutput);
+        marcToXML.metrics = new ConversionMetrics();
+        marcToXML.convertMarcRecords();
+        assertEquals(2, marcToXML.metrics.getRecordsRead());
+        assertTrue(MarcXMLValidator.valid(outputPath.resolve("1629059.xml").toString()));
+        assertFalse(checkpointFile.toFile().exists());
+    }
+
+    @Test
+    public void convertMarcRecordsWithThreadsKeepsCheckpointOfFailedRecord() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        long recordLength = new File(marcTestUtils.marcFilePath).length();
+        Files.createDirectory(outputPath.resolve("123.xml"));
+        Path checkpointFile = marcTestUtils.outputPath.resolve("convert.checkpoint");
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.setXmlReplace(true);
+        marcToXML.checkpointFile = checkpointFile;
+        marcToXML.checkpointRecords = 1;
+        marcToXML.threads = 2;
+        marcToXML.convertMarcRecords();
+        assertEquals(1, marcToXML.errors.get());
+        String[] checkpoint = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim().split("\t");
+        assertEquals(String.valueOf(recordLength), checkpoint[2]);
+        assertEquals("1", checkpoint[3]);
+    }
+
+    @Test
+    public void convertMarcRecordsInSplits() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.inputSplits = 3;
+        marcToXML.threads = 2;
+        marcToXML.convertMarcRecords();
+        assertEquals(2, outputPath.toFile().list().length);
+        assertThat(xmlOutput("123"), containsString(SqliteTestUtils.AUTH_URI_360386_920));
+        xmlOutput("1629059");
+        // The repeated record is skipped, by whichever split reads it last
+        assertEquals(3, marcToXML.metrics.getRecordsRead());
+        assertEquals(1, marcToXML.metrics.getRecordsSkipped());
+        assertEquals(0, marcToXML.errors.get());
+    }
+
+    @Test
+    public void convertMarcRecordsToChunksInSplits() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource);
+        marcToXML.setMarcInputFile(marcFile.toString());
+        marcToXML.setXmlReplace(true);
+        marcToXML.chunkRecords = 10;
+        marcToXML.inputSplits = 2;
+        marcToXML.convertMarcRecords();
+        assertArrayEquals(new String[]{MarcXmlChunkWriter.MANIFEST_FILE, MarcXmlChunkWriter.chunkName(1),
+                        MarcXmlChunkWriter.chunkName(2)},
+                Arrays.stream(outputPath.toFile().list()).sorted().toArray());
+        assertTrue(MarcXMLValidator.valid(outputPath.resolve(MarcXmlChunkWriter.chunkName(1)).toString()));
+        assertTrue(MarcXMLValidator.valid(outputPath.resolve(MarcXmlChunkWriter.chunkName(2)).toString()));
+        // The chunks of the splits are merged in the order of the records of the file
+        List<String> manifest = Files.readAllLines(outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE));
+        assertEquals(3, manifest.size());
+        assertThat(manifest.get(0), startsWith("1629059\t" + MarcXmlChunkWriter.chunkName(1) + "\t"));
+        assertThat(manifest.get(1), startsWith("123\t" + MarcXmlChunkWriter.chunkName(1) + "\t"));
+        assertThat(manifest.get(2), startsWith("1629059\t" + MarcXmlChunkWriter.chunkName(2) + "\t"));
+    }
+
+    @Test
+    public void readerFailure() throws Exception {
+        MarcReader marcReader = mock(MarcReader.class);
+        when(marcReader.hasNext()).thenReturn(true);
+        when(marcReader.next()).thenThrow(new MarcException("bad record"));
+        MarcToXMLPipeline pipeline = new MarcToXMLPipeline(marcToXML, 2, 2);
+        try {
+            pipeline.convert(marcReader, 1);
+            fail("Expected a MarcException");
+        } catch (MarcException e) {
+            assertEquals("bad record", e.getMessage());
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void lookupFailure() throws Exception {
+        MarcToXML spyMarcToXML = spy(marcToXML);
+        doThrow(new SQLException("connection failure")).when(spyMarcToXML).authDBLookup();
+        MarcToXMLPipeline pipeline = new MarcToXMLPipeline(spyMarcToXML, 2, 1);
+        pipeline.convert(marcTestUtils.getMarcReader(marcTestUtils.authMarcFilePath), 1);
+    }
+
+}
@@ -0,0 +1,154 @@
+package edu.stanford;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcException;
+import org.marc4j.MarcReader;
+import org.marc4j.MarcWriter;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.Record;
+import org.marc4j.marc.Subfield;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ */
+public class MarcToXMLStreamPipelineTest {
+
+    private MarcTestUtils marcTestUtils;
+    private MarcToXMLStream marcToXMLStream;
+    private MarcWriter marcWriter;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcToXMLStream = new MarcToXMLStream();
+        Path dbFile = marcTestUtils.createOutputFile("authorities", ".db");
+        marcToXMLStream.authDBConnection = SqliteTestUtils.sqliteFileAuthDBConnection(dbFile);
+        marcWriter = mock(MarcWriter.class);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcToXMLStream.authLookupClose();
+        marcToXMLStream = null;
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    private List<Record> writtenRecords(int count) {
+        ArgumentCaptor<Record> captor = ArgumentCaptor.forClass(Record.class);
+        verify(marcWriter, times(count)).write(captor.capture());
+        return captor.getAllValues();
+    }
+
+    private List<String> controlNumbers(List<Record> records) {
+        List<String> controlNumbers = new ArrayList<>();
+        for (Record record : records)
+            controlNumbers.add(record.getControlNumber());
+        return controlNumbers;
+    }
+
+    private String subfield0(Record record, String tag) {
+        StringBuilder uris = new StringBuilder();
+        for (DataField field : record.getDataFields()) {
+            if (field.getTag().equals(tag)) {
+                for (Subfield subfield : field.getSubfields('0'))
+                    uris.append(subfield.getData());
+            }
+        }
+        return uris.toString();
+    }
+
+    private MarcReader marcReader(String... fileResources) throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(fileResources);
+        return marcTestUtils.getMarcReader(marcFile.toString());
+    }
+
+    private List<String> expectedOrder(String... fileResources) {
+        List<String> controlNumbers = new ArrayList<>();
+        for (String fileResource : fileResources)
+            controlNumbers.add(fileResource.equals(marcTestUtils.authMarcFileResource) ? "123" : "1629059");
+        return controlNumbers;
+    }
+
+    private String[] interleavedResources(int count) {
+        String[] resources = new String[count];
+        for (int i = 0; i < count; i++)
+            resources[i] = (i % 3 == 0) ? marcTestUtils.marcFileResource : marcTestUtils.authMarcFileResource;
+        return resources;
+    }
+
+    @Test
+    public void convertPreservesRecordOrder() throws Exception {
+        String[] resources = interleavedResources(30);
+        MarcToXMLStreamPipeline pipeline = new MarcToXMLStreamPipeline(marcToXMLStream, 4, 1000);
+        pipeline.convert(marcReader(resources), marcWriter, 1);
+        List<Record> records = writtenRecords(resources.length);
+        assertEquals(expectedOrder(resources), controlNumbers(records));
+        Record record = records.get(1);
+        assertTrue(subfield0(record, "100").contains(SqliteTestUtils.AUTH_URI_360386_920));
+        assertTrue(subfield0(record, "650").contains(SqliteTestUtils.AUTH_URI_1075272_921));
+    }
+
+    @Test
+    public void convertWithBatchesAndInFlightBound() throws Exception {
+        String[] resources = interleavedResources(20);
+        // A bound below the batch size limits the batches to the bound
+        MarcToXMLStreamPipeline pipeline = new MarcToXMLStreamPipeline(marcToXMLStream, 3, 2);
+        pipeline.convert(marcReader(resources), marcWriter, 5);
+        assertEquals(expectedOrder(resources), controlNumbers(writtenRecords(resources.length)));
+    }
+
+    @Test
+    public void convertEmptyStream() throws Exception {
+        MarcReader marcReader = mock(MarcReader.class);
+        when(marcReader.hasNext()).thenReturn(false);
+        new MarcToXMLStreamPipeline(marcToXMLStream, 2, 10).convert(marcReader, marcWriter, 1);
+        verify(marcWriter, never()).write(any(Record.class));
+    }
+
+    @Test
+    public void readerFailure() throws Exception {
+        MarcReader marcReader = mock(MarcReader.class);
+        when(marcReader.hasNext()).thenReturn(true);
+        when(marcReader.next()).thenThrow(new MarcException("bad record"));
+        MarcToXMLStreamPipeline pipeline = new MarcToXMLStreamPipeline(marcToXMLStream, 2, 10);
+        try {
+            pipeline.convert(marcReader, marcWriter, 1);
+            fail("Expected a MarcException");
+        } catch (MarcException e) {
+            assertEquals("bad record", e.getMessage());
+        }
+    }
+
+    @Test(expected = SQLException.class)
+    public void lookupFailure() throws Exception {
+        MarcToXMLStream spyMarcToXMLStream = spy(marcToXMLStream);
+        doThrow(new SQLException("connection failure")).when(spyMarcToXMLStream).authDBLookup();
+        MarcToXMLStreamPipeline pipeline = new MarcToXMLStreamPipeline(spyMarcToXMLStream, 2, 10);
+        pipeline.convert(marcReader(interleavedResources(10)), marcWriter, 1);
+    }
+
+    @Test
+    public void writerFailure() throws Exception {
+        doThrow(new MarcException("write failure")).when(marcWriter).write(any(Record.class));
+        MarcToXMLStreamPipeline pipeline = new MarcToXMLStreamPipeline(marcToXMLStream, 2, 1);
+        try {
+            pipeline.convert(marcReader(interleavedResources(10)), marcWriter, 1);
+            fail("Expected a MarcException");
+        } catch (MarcException e) {
+            assertEquals("write failure", e.getMessage());
+        }
+    }
+
+}
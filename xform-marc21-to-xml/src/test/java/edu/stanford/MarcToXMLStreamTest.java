@@ -1,6 +1,7 @@
 package edu.stanford;
 
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -12,15 +13,20 @@ import org.powermock.api.mockito.PowerMockito;
 import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 
 import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
@@ -117,4 +123,99 @@ public class MarcToXMLStreamTest {
         assertTrue(MarcXMLValidator.valid(marcOutput.toString()));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void convertInvalidRecordsTest() throws Exception {
+        Path marcFile = marcTestUtils.writeMarcFile(marcTestUtils.getInvalidMarcRecord());
+        marcToXMLStream.setMarcReader(marcTestUtils.getMarcReader(marcFile.toString()));
+        Path marcOutput = marcTestUtils.outputFile;
+        marcToXMLStream.setMarcWriter(new ValidatingMarcXmlWriter(new FileOutputStream(marcOutput.toFile()), true));
+        marcToXMLStream.convertRecords();
+        // The invalid record is written, but it is an error of the conversion
+        assertEquals(1, marcToXMLStream.invalidRecords);
+        assertEquals(1, marcToXMLStream.metrics.getErrors());
+        assertTrue(marcOutput.toFile().length() > 0);
+    }
+
+    @Test
+    public void convertRecordsBatchTest() throws Exception {
+        Path marcOutput = marcTestUtils.outputFile;
+        marcToXMLStream.batchSize = 10;
+        marcToXMLStream.convertRecords();
+        assertTrue(marcOutput.toFile().length() > 0);
+        assertTrue(MarcXMLValidator.valid(marcOutput.toString()));
+    }
+
+    @Test
+    public void convertRecordsThreadsTest() throws Exception {
+        Path marcOutput = marcTestUtils.outputFile;
+        doAnswer(invocation -> SqliteTestUtils.sqliteAuthDBLookup()).when(marcToXMLStream).authDBLookup();
+        marcToXMLStream.threads = 2;
+        marcToXMLStream.convertRecords();
+        assertTrue(marcOutput.toFile().length() > 0);
+        assertTrue(MarcXMLValidator.valid(marcOutput.toString()));
+    }
+
+    @Test
+    public void convertRecordsCompressedTest() throws Exception {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        try {
+            marcToXMLStream.parseArgs(new String[]{"-z", "gzip", "-q", "9"});
+            marcToXMLStream.convertRecords();
+        } finally {
+            System.setOut(stdout);
+        }
+        String xml = new String(IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(outContent.toByteArray()))), StandardCharsets.UTF_8);
+        assertThat(xml, containsString(">1629059<"));
+        assertThat(xml, containsString("</marcxml:collection>"));
+    }
+
+    @Test
+    public void convertRecordsWithoutIndentTest() throws Exception {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        try {
+            marcToXMLStream.parseArgs(new String[]{"-N"});
+            marcToXMLStream.convertRecords();
+        } finally {
+            System.setOut(stdout);
+        }
+        String xml = new String(outContent.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(xml, containsString("<marcxml:record><marcxml:leader>"));
+        assertThat(xml, containsString(">1629059<"));
+    }
+
+    @Test
+    public void mainBatchSizeInvalid() throws Exception {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[]{"-b", "0"};
+            MarcToXMLStream.main(args);
+        } finally {
+            assertThat(errContent.toString(), containsString("ERROR: Batch size must be a positive integer."));
+            System.setErr(stderr);
+        }
+    }
+
+    @Test
+    public void mainMaxInFlightInvalid() throws Exception {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[]{"-t", "2", "-M", "none"};
+            MarcToXMLStream.main(args);
+        } finally {
+            assertThat(errContent.toString(), containsString("ERROR: Max in-flight records must be a positive integer."));
+            System.setErr(stderr);
+        }
+    }
+
+}
@@ -2,6 +2,11 @@ package edu.stanford;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.ParseException;
+import org.apache.commons.io.FileUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -16,6 +21,7 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.sql.SQLException;
 import java.sql.SQLRecoverableException;
@@ -315,6 +321,37 @@ public class MarcToXMLTest {
         assertEquals(MarcToXML.logFileDefault, marcToXML.logFile);
     }
 
+    @Test
+    public void logEveryTest() throws IOException {
+        setupLogger();
+        marcToXML.logEvery = 2;
+        for (int i = 1; i <= 5; i++)
+            marcToXML.logRecord(marcToXML.outputRecords, "Output MARC-XML file: " + i + ".xml");
+        String log = FileUtils.readFileToString(new File(logFile), StandardCharsets.UTF_8);
+        assertThat(log, containsString("Output MARC-XML file: 2.xml (records: 2)"));
+        assertThat(log, containsString("Output MARC-XML file: 4.xml (records: 4)"));
+        assertFalse(log.contains("1.xml"));
+        assertFalse(log.contains("5.xml"));
+    }
+
+    @Test
+    public void asyncLogTest() throws IOException {
+        marcToXML.asyncLog = true;
+        setupLogger();
+        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        Appender appender = context.getConfiguration().getAppender("ASYNCLOGFile");
+        assertTrue(appender instanceof AsyncAppender);
+        marcToXML.log.info("Output MARC-XML file: async.xml");
+        // Stopping the appenders writes the queued events
+        appender.stop();
+        context.getConfiguration().getAppender("LOGFile").stop();
+        String log = FileUtils.readFileToString(new File(logFile), StandardCharsets.UTF_8);
+        assertThat(log, containsString("MarcToXML - Output MARC-XML file: async.xml"));
+        // Replace the stopped appenders
+        marcToXML.asyncLog = false;
+        setupLogger();
+    }
+
     @Test
     public void doConversionTrueTest() throws Exception {
         setupOutput();
@@ -417,6 +454,8 @@ public class MarcToXMLTest {
         try {
             mockAuthException();
             setupIO();
+            // The record has no authority keys, so it is only looked up without the raw-byte fast path
+            marcToXML.fastPath = false;
             marcToXML.convertMarcRecords();
         } catch (SQLException e) {
             assertEquals(SQLException.class, e.getClass());
@@ -0,0 +1,206 @@
+package edu.stanford;
+
+import org.apache.commons.cli.ParseException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.contrib.java.lang.system.ExpectedSystemExit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MarcToXMLWatchTest {
+
+    @Rule
+    public final ExpectedSystemExit exit = ExpectedSystemExit.none();
+
+    private static final long SETTLED = TimeUnit.SECONDS.toNanos(MarcToXMLWatch.DEFAULT_SETTLE_SECONDS);
+
+    private MarcTestUtils marcTestUtils;
+    private MarcToXMLWatch marcToXMLWatch;
+    private Path watchPath;
+    private Path archivePath;
+    private Path outputPath;
+    private ByteArrayOutputStream results;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        watchPath = Files.createDirectory(marcTestUtils.outputPath.resolve("marc"));
+        archivePath = Files.createDirectory(marcTestUtils.outputPath.resolve("archive"));
+        outputPath = Files.createDirectory(marcTestUtils.outputPath.resolve("xml"));
+        marcToXMLWatch = new MarcToXMLWatch();
+        marcToXMLWatch.watchPath = watchPath;
+        marcToXMLWatch.setXmlOutputPath(outputPath.toString());
+        Path logFile = marcTestUtils.createOutputFile("MarcToXMLWatchTest", ".log");
+        marcToXMLWatch.setLogger(logFile.toString());
+        Path dbFile = marcTestUtils.createOutputFile("authorities", ".db");
+        marcToXMLWatch.authDBConnection = SqliteTestUtils.sqliteFileAuthDBConnection(dbFile);
+        results = new ByteArrayOutputStream();
+        marcToXMLWatch.results = new PrintStream(results);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcToXMLWatch.authLookupClose();
+        marcToXMLWatch.setLogger(null);
+        marcToXMLWatch = null;
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    private Path copyMarcFile(String fileResource, Path marcFile) throws IOException {
+        return Files.copy(Paths.get(marcTestUtils.getFileResource(fileResource)), marcFile);
+    }
+
+    private static void waitFor(Path file) throws InterruptedException {
+        for (int i = 0; i < 300 && !file.toFile().exists(); i++)
+            TimeUnit.MILLISECONDS.sleep(100);
+    }
+
+    @Test
+    public void completeMarcFilesAfterSettleTime() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.marcFileResource, watchPath.resolve("a.mrc"));
+        marcToXMLWatch.offerMarcFile(a);
+        marcToXMLWatch.offerMarcFile(watchPath.resolve("b.txt"));
+        long now = System.nanoTime();
+        assertTrue(marcToXMLWatch.completeMarcFiles(now).isEmpty());
+        assertEquals(Collections.singletonList(a), marcToXMLWatch.completeMarcFiles(now + SETTLED));
+        assertTrue(marcToXMLWatch.completeMarcFiles(now + 2 * SETTLED).isEmpty());
+    }
+
+    @Test
+    public void completeMarcFilesWaitsForChanges() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.marcFileResource, watchPath.resolve("a.mrc"));
+        marcToXMLWatch.offerMarcFile(a);
+        Files.write(a, Files.readAllBytes(a), StandardOpenOption.APPEND);
+        long now = System.nanoTime();
+        // The size changed, so the file is settled a settle time later
+        assertTrue(marcToXMLWatch.completeMarcFiles(now + SETTLED).isEmpty());
+        assertEquals(Collections.singletonList(a), marcToXMLWatch.completeMarcFiles(now + 2 * SETTLED));
+    }
+
+    @Test
+    public void failedMarcFileWaitsForChanges() throws Exception {
+        Path a = copyMarcFile(marcTestUtils.marcFileResource, watchPath.resolve("a.mrc"));
+        marcToXMLWatch.settleSeconds = 0;
+        marcToXMLWatch.reportFile(a, false);
+        assertThat(results.toString(), containsString(MarcToXMLBatch.FAILED + '\t' + a));
+        marcToXMLWatch.offerMarcFile(a);
+        assertTrue(marcToXMLWatch.completeMarcFiles(System.nanoTime()).isEmpty());
+        Files.write(a, Files.readAllBytes(a), StandardOpenOption.APPEND);
+        marcToXMLWatch.offerMarcFile(a);
+        assertEquals(Collections.singletonList(a), marcToXMLWatch.completeMarcFiles(System.nanoTime()));
+    }
+
+    @Test
+    public void watchMarcFiles() throws Exception {
+        marcToXMLWatch.archivePath = archivePath;
+        marcToXMLWatch.settleSeconds = 0;
+        // A file dropped before the watch starts, and a file dropped while it watches
+        copyMarcFile(marcTestUtils.authMarcFileResource, watchPath.resolve("a.mrc"));
+        Thread watch = new Thread(() -> {
+            try {
+                marcToXMLWatch.watchMarcFiles();
+            } catch (IOException | SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+        watch.start();
+        try {
+            waitFor(archivePath.resolve("a.mrc"));
+            Path tmp = copyMarcFile(marcTestUtils.marcFileResource, watchPath.resolve("b.tmp"));
+            Files.move(tmp, watchPath.resolve("b.mrc"));
+            waitFor(archivePath.resolve("b.mrc"));
+        } finally {
+            marcToXMLWatch.stopWatching();
+            watch.join();
+        }
+        assertFalse(watchPath.resolve("a.mrc").toFile().exists());
+        assertTrue(archivePath.resolve("b.mrc").toFile().exists());
+        String xml = new String(Files.readAllBytes(outputPath.resolve("123.xml")), StandardCharsets.UTF_8);
+        assertThat(xml, containsString(SqliteTestUtils.AUTH_URI_360386_920));
+        assertTrue(MarcXMLValidator.valid(outputPath.resolve("1629059.xml").toString()));
+        assertThat(results.toString(), containsString(MarcToXMLBatch.CONVERTED + '\t' + watchPath.resolve("b.mrc")));
+        // The watch keeps the authority lookups open between the files
+        assertEquals(2, marcToXMLWatch.metrics.getRecordsWritten());
+        assertNotNull(marcToXMLWatch.authDBLookup);
+    }
+
+    @Test
+    public void mainArchivePathInvalid() throws ParseException, IOException, SQLException {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[] {"-i", watchPath.toString(), "-o", outputPath.toString(),
+                    "-A", archivePath.resolve("missing").toString(),
+                    "-l", marcTestUtils.createOutputFile("main", ".log").toString()};
+            MarcToXMLWatch.main(args);
+        } finally {
+            assertEquals("ERROR: MARC archive path is not a directory.\n", errContent.toString());
+            System.setErr(stderr);
+        }
+    }
+
+    @Test
+    public void mainSettleSecondsInvalid() throws ParseException, IOException, SQLException {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[] {"-i", watchPath.toString(), "-o", outputPath.toString(), "-S", "-1",
+                    "-l", marcTestUtils.createOutputFile("main", ".log").toString()};
+            MarcToXMLWatch.main(args);
+        } finally {
+            assertEquals("ERROR: Settle seconds must be a non-negative integer.\n", errContent.toString());
+            System.setErr(stderr);
+        }
+    }
+
+    @Test
+    public void parseArgsAuthCacheTTL() throws ParseException, IOException {
+        String logFile = marcTestUtils.createOutputFile("main", ".log").toString();
+        marcToXMLWatch.parseArgs(new String[] {"-i", watchPath.toString(), "-o", outputPath.toString(), "-l", logFile});
+        assertEquals(MarcToXMLWatch.DEFAULT_AUTH_CACHE_TTL, marcToXMLWatch.authCacheTTL);
+        marcToXMLWatch.parseArgs(new String[] {"-i", watchPath.toString(), "-o", outputPath.toString(), "-l", logFile,
+                "-e", "60"});
+        assertEquals(60, marcToXMLWatch.authCacheTTL);
+    }
+
+    @Test
+    public void mainAuthCacheTTLNeverExpires() throws ParseException, IOException, SQLException {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[] {"-i", watchPath.toString(), "-o", outputPath.toString(), "-e", "0",
+                    "-l", marcTestUtils.createOutputFile("main", ".log").toString()};
+            MarcToXMLWatch.main(args);
+        } finally {
+            assertEquals("ERROR: Authority cache TTL must be positive for a watch.\n", errContent.toString());
+            System.setErr(stderr);
+        }
+    }
+
+}
@@ -5,8 +5,17 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.contrib.java.lang.system.ExpectedSystemExit;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.junit.Assert.*;
@@ -150,5 +159,129 @@ public class MarcXMLValidatorTest {
         System.setErr(stderr);
     }
 
-}
+    private Path createXmlDirectory(MarcTestUtils marcTestUtils) throws Exception {
+        marcTestUtils.createOutputPath();
+        Path dir = marcTestUtils.outputPath;
+        Files.copy(Paths.get(validMarcFilePath), dir.resolve("valid1.xml"));
+        Files.createDirectory(dir.resolve("sub"));
+        Files.copy(Paths.get(validMarcFilePath), dir.resolve("sub").resolve("valid2.xml"));
+        Files.copy(Paths.get(invalidMarcFilePath), dir.resolve("invalid.xml"));
+        Files.copy(Paths.get(invalidMarcFilePath), dir.resolve("invalid.txt"));
+        return dir;
+    }
+
+    @Test
+    public void validateFiles() throws Exception {
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            // The threads share the schema, with a validator each
+            List<Path> files = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                files.add(Paths.get(validMarcFilePath));
+                files.add(Paths.get(invalidMarcFilePath));
+            }
+            MarcXMLValidator.ValidationCounts counts = MarcXMLValidator.validateFiles(files.iterator(), 4);
+            assertEquals(50, counts.valid.get());
+            assertEquals(50, counts.invalid.get());
+            assertThat(outContent.toString(), containsString("INVALID: " + invalidMarcFilePath));
+            assertThat(counts.toString(), containsString("Validated MARC-XML files: 100, valid: 50, invalid: 50"));
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+        }
+    }
+
+    @Test
+    public void mainDirectory() throws Exception {
+        MarcTestUtils marcTestUtils = new MarcTestUtils();
+        Path dir = createXmlDirectory(marcTestUtils);
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[]{"-d", dir.toString(), "-t", "2"};
+            MarcXMLValidator.main(args);
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            assertThat(outContent.toString(), containsString("INVALID: " + dir.resolve("invalid.xml")));
+            assertThat(outContent.toString(), containsString("Validated MARC-XML files: 3, valid: 2, invalid: 1"));
+            assertThat(errContent.toString(), containsString("Invalid content was found"));
+            marcTestUtils.deleteOutputPath();
+        }
+    }
 
+    private static void compress(Path xmlFile, Path file, OutputCompression compression) throws Exception {
+        try (OutputStream out = compression.outputStream(Files.newOutputStream(file), compression.defaultLevel)) {
+            Files.copy(xmlFile, out);
+        }
+    }
+
+    @Test
+    public void mainCompressedDirectory() throws Exception {
+        MarcTestUtils marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        Path dir = marcTestUtils.outputPath;
+        compress(Paths.get(validMarcFilePath), dir.resolve("valid.xml.gz"), OutputCompression.GZIP);
+        compress(Paths.get(validMarcFilePath), dir.resolve("valid.xml.zst"), OutputCompression.ZSTD);
+        compress(Paths.get(invalidMarcFilePath), dir.resolve("invalid.xml.gz"), OutputCompression.GZIP);
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        System.setErr(new PrintStream(new ByteArrayOutputStream()));
+        try {
+            String[] args = new String[]{"-d", dir.toString()};
+            MarcXMLValidator.main(args);
+        } finally {
+            System.setOut(stdout);
+            System.setErr(stderr);
+            assertThat(outContent.toString(), containsString("INVALID: " + dir.resolve("invalid.xml.gz")));
+            assertThat(outContent.toString(), containsString("Validated MARC-XML files: 3, valid: 2, invalid: 1"));
+            marcTestUtils.deleteOutputPath();
+        }
+    }
+
+    @Test
+    public void mainFileListValid() throws Exception {
+        PrintStream stdout = System.out;
+        InputStream stdin = System.in;
+        ByteArrayOutputStream outContent = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(outContent));
+        String fileList = validMarcFilePath + "\n\n" + validMarcFilePath + "\n";
+        System.setIn(new ByteArrayInputStream(fileList.getBytes(StandardCharsets.UTF_8)));
+        try {
+            String[] args = new String[]{"-f", "-"};
+            MarcXMLValidator.main(args);
+        } finally {
+            System.setOut(stdout);
+            System.setIn(stdin);
+        }
+        assertThat(outContent.toString(), containsString("Validated MARC-XML files: 2, valid: 2, invalid: 0"));
+    }
+
+    @Test
+    public void mainThreadsInvalid() throws Exception {
+        exit.expectSystemExitWithStatus(1);
+        PrintStream stderr = System.err;
+        ByteArrayOutputStream errContent = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(errContent));
+        try {
+            String[] args = new String[]{"-f", "-", "-t", "0"};
+            MarcXMLValidator.main(args);
+        } finally {
+            System.setErr(stderr);
+            assertEquals("ERROR: Threads must be a positive integer.\n", errContent.toString());
+        }
+    }
+
+}
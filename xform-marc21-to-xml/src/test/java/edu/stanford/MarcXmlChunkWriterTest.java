@@ -0,0 +1,201 @@
+package edu.stanford;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.marc.Record;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.startsWith;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class MarcXmlChunkWriterTest {
+
+    private MarcTestUtils marcTestUtils;
+    private Path outputPath;
+    private Record authRecord;
+    private Record marcRecord;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+        outputPath = Files.createDirectory(marcTestUtils.outputPath.resolve("chunks"));
+        authRecord = marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath);
+        marcRecord = marcTestUtils.getMarcRecord();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    private List<String> manifest() throws IOException {
+        return Files.readAllLines(outputPath.resolve(MarcXmlChunkWriter.MANIFEST_FILE), StandardCharsets.UTF_8);
+    }
+
+    private File chunkFile(int chunkNumber) {
+        return outputPath.resolve(MarcXmlChunkWriter.chunkName(chunkNumber)).toFile();
+    }
+
+    @Test
+    public void writeChunksByRecords() throws Exception {
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 2, 0);
+        assertEquals(MarcXmlChunkWriter.chunkName(1), writer.write(authRecord));
+        assertEquals(MarcXmlChunkWriter.chunkName(1), writer.write(marcRecord));
+        assertEquals(MarcXmlChunkWriter.chunkName(2), writer.write(authRecord));
+        writer.close();
+        assertTrue(MarcXMLValidator.valid(chunkFile(1).toString()));
+        assertTrue(MarcXMLValidator.valid(chunkFile(2).toString()));
+        assertFalse(chunkFile(3).exists());
+        assertEquals(3, manifest().size());
+    }
+
+    @Test
+    public void writeChunksByBytes() throws Exception {
+        // Every record exceeds the chunk size, so every record is in its own chunk
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 0, 1);
+        writer.write(authRecord);
+        writer.write(marcRecord);
+        writer.close();
+        assertTrue(MarcXMLValidator.valid(chunkFile(1).toString()));
+        assertTrue(MarcXMLValidator.valid(chunkFile(2).toString()));
+        assertFalse(chunkFile(3).exists());
+    }
+
+    @Test
+    public void manifestOffsets() throws Exception {
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 0, 0);
+        writer.write(authRecord);
+        writer.write(marcRecord);
+        writer.close();
+        byte[] chunk = Files.readAllBytes(chunkFile(1).toPath());
+        List<String> manifest = manifest();
+        assertEquals(2, manifest.size());
+        for (String line : manifest) {
+            String[] entry = line.split("\t");
+            assertEquals(MarcXmlChunkWriter.chunkName(1), entry[1]);
+            int offset = Integer.parseInt(entry[2]);
+            int length = Integer.parseInt(entry[3]);
+            String xml = new String(Arrays.copyOfRange(chunk, offset, offset + length), StandardCharsets.UTF_8);
+            assertThat(xml, startsWith("<marcxml:record>"));
+            assertThat(xml, containsString("<marcxml:controlfield tag=\"001\">" + entry[0] + "</marcxml:controlfield>"));
+            assertTrue(xml.endsWith("</marcxml:record>"));
+        }
+        assertEquals("123", manifest.get(0).split("\t")[0]);
+        assertEquals("1629059", manifest.get(1).split("\t")[0]);
+    }
+
+    @Test
+    public void manifestOfKilledWriter() throws Exception {
+        // The writer is not closed, as when the conversion is killed in the third chunk, after
+        // more manifest entries than a buffered manifest writer holds
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 1000, 0);
+        for (int i = 0; i < 1250; i++) {
+            writer.write(authRecord);
+            writer.write(marcRecord);
+        }
+        List<String> manifest = manifest();
+        assertEquals(2000, manifest.size());
+        for (String line : manifest) {
+            String[] entry = line.split("\t");
+            long offset = Long.parseLong(entry[2]);
+            long length = Long.parseLong(entry[3]);
+            assertNotEquals(MarcXmlChunkWriter.chunkName(3), entry[1]);
+            assertTrue(offset + length <= outputPath.resolve(entry[1]).toFile().length());
+        }
+        assertTrue(chunkFile(3).exists());
+        writer.close();
+        assertEquals(2500, manifest().size());
+    }
+
+    @Test
+    public void writeContinuesChunks() throws Exception {
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 1, 0);
+        writer.write(authRecord);
+        writer.close();
+        writer = new MarcXmlChunkWriter(outputPath, 1, 0);
+        assertEquals(MarcXmlChunkWriter.chunkName(2), writer.write(marcRecord));
+        writer.close();
+        assertThat(FileUtils.readFileToString(chunkFile(1), StandardCharsets.UTF_8), containsString(">123<"));
+        assertEquals(2, manifest().size());
+    }
+
+    @Test
+    public void writeCompressedChunks() throws Exception {
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 1, 0);
+        writer.write(authRecord);
+        writer.close();
+        writer = new MarcXmlChunkWriter(outputPath, 0, 0);
+        writer.setCompression(OutputCompression.GZIP, 9);
+        String chunkName = MarcXmlChunkWriter.chunkName(2) + ".gz";
+        assertEquals(chunkName, writer.write(marcRecord));
+        writer.close();
+        // The chunk numbers continue after the compressed chunks
+        writer = new MarcXmlChunkWriter(outputPath, 0, 0);
+        assertEquals(MarcXmlChunkWriter.chunkName(3), writer.write(authRecord));
+        writer.close();
+        // The manifest offsets are in the uncompressed chunk
+        byte[] chunk;
+        try (GZIPInputStream in = new GZIPInputStream(new FileInputStream(outputPath.resolve(chunkName).toFile()))) {
+            chunk = IOUtils.toByteArray(in);
+        }
+        String[] entry = manifest().get(1).split("\t");
+        assertEquals(chunkName, entry[1]);
+        int offset = Integer.parseInt(entry[2]);
+        int length = Integer.parseInt(entry[3]);
+        String xml = new String(Arrays.copyOfRange(chunk, offset, offset + length), StandardCharsets.UTF_8);
+        assertThat(xml, startsWith("<marcxml:record>"));
+        assertThat(xml, containsString(">1629059<"));
+        assertTrue(new String(chunk, StandardCharsets.UTF_8).trim().endsWith("</marcxml:collection>"));
+    }
+
+    @Test
+    public void mergeChunks() throws Exception {
+        Path splitPath = Files.createDirectory(outputPath.resolve("split"));
+        MarcXmlChunkWriter splitWriter = new MarcXmlChunkWriter(splitPath, 1, 0);
+        splitWriter.setCompression(OutputCompression.GZIP, 1);
+        splitWriter.write(marcRecord);
+        splitWriter.write(authRecord);
+        splitWriter.close();
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 0, 0);
+        writer.write(authRecord);
+        // The merged chunks follow the chunks of the writer, and its open chunk is closed
+        writer.merge(splitPath);
+        assertEquals(MarcXmlChunkWriter.chunkName(4), writer.write(marcRecord));
+        writer.close();
+        assertTrue(MarcXMLValidator.valid(chunkFile(1).toString()));
+        assertTrue(outputPath.resolve(MarcXmlChunkWriter.chunkName(2) + ".gz").toFile().isFile());
+        assertTrue(outputPath.resolve(MarcXmlChunkWriter.chunkName(3) + ".gz").toFile().isFile());
+        assertArrayEquals(new String[0], splitPath.toFile().list());
+        List<String> manifest = manifest();
+        assertEquals(4, manifest.size());
+        assertThat(manifest.get(1), startsWith("1629059\t" + MarcXmlChunkWriter.chunkName(2) + ".gz\t"));
+        assertThat(manifest.get(2), startsWith("123\t" + MarcXmlChunkWriter.chunkName(3) + ".gz\t"));
+    }
+
+    @Test
+    public void closeWithoutRecords() throws Exception {
+        MarcXmlChunkWriter writer = new MarcXmlChunkWriter(outputPath, 1, 0);
+        writer.close();
+        assertFalse(chunkFile(1).exists());
+        assertTrue(manifest().isEmpty());
+    }
+
+}
@@ -0,0 +1,96 @@
+package edu.stanford;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class OutputCompressionTest {
+
+    private static final byte[] XML = new String(new char[1000])
+            .replace("\0", "<marcxml:subfield code=\"a\">text</marcxml:subfield>\n").getBytes(StandardCharsets.UTF_8);
+
+    private byte[] write(OutputCompression compression, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = compression.outputStream(bytes, level)) {
+            for (byte b : XML)
+                out.write(b);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            return IOUtils.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void writeUncompressed() throws Exception {
+        assertArrayEquals(XML, write(OutputCompression.NONE, 0));
+    }
+
+    @Test
+    public void writeGzip() throws Exception {
+        byte[] fast = write(OutputCompression.GZIP, 1);
+        byte[] best = write(OutputCompression.GZIP, 9);
+        assertTrue(fast.length < XML.length / 10);
+        assertArrayEquals(XML, read(new GZIPInputStream(new ByteArrayInputStream(fast))));
+        assertArrayEquals(XML, read(new GZIPInputStream(new ByteArrayInputStream(best))));
+    }
+
+    @Test
+    public void writeZstd() throws Exception {
+        byte[] zstd = write(OutputCompression.ZSTD, OutputCompression.ZSTD.defaultLevel);
+        assertTrue(zstd.length < XML.length / 10);
+        assertArrayEquals(XML, read(new ZstdInputStream(new ByteArrayInputStream(zstd))));
+    }
+
+    @Test
+    public void forName() {
+        assertEquals(OutputCompression.GZIP, OutputCompression.forName("gzip"));
+        assertEquals(OutputCompression.ZSTD, OutputCompression.forName("ZSTD"));
+        assertEquals(OutputCompression.NONE, OutputCompression.forName("none"));
+        assertNull(OutputCompression.forName("bzip2"));
+    }
+
+    @Test
+    public void forFile() {
+        assertEquals(OutputCompression.NONE, OutputCompression.forFile("data/123.xml"));
+        assertEquals(OutputCompression.GZIP, OutputCompression.forFile("data/123.xml.gz"));
+        assertEquals(OutputCompression.ZSTD, OutputCompression.forFile("marcxml-00001.xml.zst"));
+        assertNull(OutputCompression.forFile("data/123.mrc"));
+        assertNull(OutputCompression.forFile("data/123.gz"));
+    }
+
+    @Test
+    public void readCompressed() throws Exception {
+        for (OutputCompression compression : OutputCompression.values()) {
+            byte[] bytes = write(compression, compression.defaultLevel);
+            assertArrayEquals(XML, read(compression.inputStream(new ByteArrayInputStream(bytes))));
+        }
+    }
+
+    @Test
+    public void validLevel() {
+        assertTrue(OutputCompression.GZIP.validLevel(9));
+        assertFalse(OutputCompression.GZIP.validLevel(10));
+        assertTrue(OutputCompression.ZSTD.validLevel(22));
+        assertFalse(OutputCompression.ZSTD.validLevel(0));
+    }
+
+}
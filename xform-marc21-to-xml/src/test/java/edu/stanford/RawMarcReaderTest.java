@@ -0,0 +1,107 @@
+package edu.stanford;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcException;
+import org.marc4j.MarcStreamReader;
+import org.marc4j.marc.Record;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class RawMarcReaderTest {
+
+    private MarcTestUtils marcTestUtils;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        marcTestUtils.createOutputPath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        marcTestUtils.deleteOutputPath();
+        marcTestUtils = null;
+    }
+
+    @Test
+    public void readsTheRecordsOfMarcStreamReader() throws Exception {
+        Path marcFile = marcTestUtils.createMarcFile(
+                marcTestUtils.authMarcFileResource, marcTestUtils.marcFileResource, marcTestUtils.authMarcFileResource);
+        RawMarcReader rawReader = new RawMarcReader(new FileInputStream(marcFile.toFile()));
+        MarcStreamReader marcReader = new MarcStreamReader(new FileInputStream(marcFile.toFile()));
+        int records = 0;
+        while (marcReader.hasNext()) {
+            Record record = marcReader.next();
+            assertTrue(rawReader.hasNext());
+            RawMarcRecord raw = rawReader.nextRaw();
+            assertEquals(RawMarcReader.UTF8, raw.getEncoding());
+            assertEquals(record.toString(), raw.toRecord().toString());
+            records++;
+        }
+        assertFalse(rawReader.hasNext());
+        assertEquals(3, records);
+        assertEquals(Files.size(marcFile), rawReader.getOffset());
+    }
+
+    @Test
+    public void encodingOfThePreviousRecord() throws Exception {
+        byte[] utf8 = Files.readAllBytes(new File(marcTestUtils.marcFilePath).toPath());
+        byte[] other = Arrays.copyOf(utf8, utf8.length);
+        other[9] = 'z';
+        byte[] latin1 = Arrays.copyOf(utf8, utf8.length);
+        latin1[9] = ' ';
+        byte[] bytes = new byte[3 * utf8.length];
+        System.arraycopy(utf8, 0, bytes, 0, utf8.length);
+        System.arraycopy(other, 0, bytes, utf8.length, utf8.length);
+        System.arraycopy(latin1, 0, bytes, 2 * utf8.length, utf8.length);
+        RawMarcReader rawReader = new RawMarcReader(new ByteArrayInputStream(bytes));
+        assertEquals(RawMarcReader.UTF8, rawReader.nextRaw().getEncoding());
+        assertEquals(RawMarcReader.UTF8, rawReader.nextRaw().getEncoding());
+        assertEquals(RawMarcReader.ISO_8859_1, rawReader.nextRaw().getEncoding());
+    }
+
+    @Test
+    public void nextRecord() throws Exception {
+        RawMarcReader rawReader = new RawMarcReader(new FileInputStream(marcTestUtils.marcFilePath));
+        assertEquals("1629059", rawReader.next().getControlNumber());
+        assertFalse(rawReader.hasNext());
+    }
+
+    @Test
+    public void invalidRecordLength() {
+        RawMarcReader rawReader = new RawMarcReader(new ByteArrayInputStream(
+                "0x025cam a2200289 a 4500".getBytes(StandardCharsets.US_ASCII)));
+        try {
+            rawReader.nextRaw();
+            fail("Expected a MarcException");
+        } catch (MarcException e) {
+            assertEquals("unable to parse record length", e.getMessage());
+        }
+    }
+
+    @Test
+    public void prematureEndOfFile() throws Exception {
+        byte[] bytes = Files.readAllBytes(new File(marcTestUtils.marcFilePath).toPath());
+        RawMarcReader rawReader = new RawMarcReader(new ByteArrayInputStream(Arrays.copyOf(bytes, 100)));
+        try {
+            rawReader.nextRaw();
+            fail("Expected a MarcException");
+        } catch (MarcException e) {
+            assertEquals("Premature end of file encountered", e.getMessage());
+        }
+    }
+
+}
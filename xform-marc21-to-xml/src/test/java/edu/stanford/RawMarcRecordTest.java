@@ -0,0 +1,129 @@
+package edu.stanford;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcStreamWriter;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class RawMarcRecordTest {
+
+    private final MarcFactory factory = MarcFactory.newInstance();
+
+    private MarcTestUtils marcTestUtils;
+
+    @Before
+    public void setUp() {
+        marcTestUtils = new MarcTestUtils();
+    }
+
+    private RawMarcRecord rawRecord(String filePath) throws Exception {
+        return new RawMarcReader(new FileInputStream(filePath)).nextRaw();
+    }
+
+    private Record record(char charCodingScheme, String subfieldData) {
+        Record record = factory.newRecord("00000nam " + charCodingScheme + "2200000   4500");
+        DataField title = factory.newDataField("245", '1', '0');
+        title.addSubfield(factory.newSubfield('a', subfieldData));
+        title.addSubfield(factory.newSubfield('c', "N.I͡A. Savelʹev."));
+        record.addVariableField(title);
+        // A control field after a data field is written before it
+        record.addVariableField(factory.newControlField("001", "a123 "));
+        record.addVariableField(factory.newControlField("008", "860723m19859999ru ac    b    000 0cruso "));
+        return record;
+    }
+
+    private RawMarcRecord rawRecord(Record record, String encoding) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MarcStreamWriter writer = new MarcStreamWriter(out, encoding);
+        writer.write(record);
+        writer.close();
+        return new RawMarcRecord(out.toByteArray(), encoding);
+    }
+
+    private void assertMarcXml(RawMarcRecord raw) throws Exception {
+        byte[] xml = raw.toMarcXml();
+        assertNotNull(xml);
+        assertEquals(new String(MarcXmlChunkWriter.recordXml(raw.toRecord()), StandardCharsets.UTF_8),
+                new String(xml, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void marcXmlOfMarcFile() throws Exception {
+        RawMarcRecord raw = rawRecord(marcTestUtils.marcFilePath);
+        assertFalse(raw.hasAuthorityKeys());
+        assertEquals("1629059", raw.getControlNumber());
+        assertMarcXml(raw);
+    }
+
+    @Test
+    public void marcXmlWithAuthorityKeys() throws Exception {
+        RawMarcRecord raw = rawRecord(marcTestUtils.authMarcFilePath);
+        assertTrue(raw.hasAuthorityKeys());
+        assertNull(raw.toMarcXml());
+        assertEquals("123", raw.getControlNumber());
+        assertEquals(raw.getControlNumber(), raw.toRecord().getControlNumber());
+    }
+
+    @Test
+    public void marcXmlEscapesText() throws Exception {
+        RawMarcRecord raw = rawRecord(record('a', "Q&A <\"drafts\"> 'ʹ' € ☃"), RawMarcReader.UTF8);
+        assertEquals("a123 ", raw.getControlNumber());
+        assertMarcXml(raw);
+        assertTrue(new String(raw.toMarcXml(), StandardCharsets.UTF_8).contains("Q&amp;A &lt;\"drafts\"&gt;"));
+    }
+
+    @Test
+    public void marcXmlOfLatin1Record() throws Exception {
+        assertMarcXml(rawRecord(record(' ', "Café Müller ©"), RawMarcReader.ISO_8859_1));
+    }
+
+    @Test
+    public void recordConversionForControlCharacters() throws Exception {
+        assertNull(rawRecord(record('a', "tab\tseparated"), RawMarcReader.UTF8).toMarcXml());
+        assertNull(rawRecord(record('a', "next\u0085line"), RawMarcReader.UTF8).toMarcXml());
+        assertNull(rawRecord(record('a', "line\u2028separator"), RawMarcReader.UTF8).toMarcXml());
+    }
+
+    @Test
+    public void recordConversionForSupplementaryCharacters() throws Exception {
+        assertNull(rawRecord(record('a', "G clef \uD834\uDD1E"), RawMarcReader.UTF8).toMarcXml());
+    }
+
+    @Test
+    public void recordConversionForInvalidUtf8() throws Exception {
+        RawMarcRecord raw = rawRecord(record('a', "Café"), RawMarcReader.UTF8);
+        byte[] bytes = raw.getBytes();
+        // Truncate the 2-byte sequence of the é
+        for (int i = 0; i < bytes.length - 1; i++) {
+            if ((bytes[i] & 0xFF) == 0xC3 && (bytes[i + 1] & 0xFF) == 0xA9)
+                bytes[i + 1] = 'e';
+        }
+        assertNull(new RawMarcRecord(bytes, RawMarcReader.UTF8).toMarcXml());
+    }
+
+    @Test
+    public void recordConversionForEmptySubfield() throws Exception {
+        assertNull(rawRecord(record('a', ""), RawMarcReader.UTF8).toMarcXml());
+    }
+
+    @Test
+    public void recordConversionForMalformedDirectory() throws Exception {
+        byte[] bytes = rawRecord(record('a', "title"), RawMarcReader.UTF8).getBytes();
+        bytes[bytes.length - 1] = RawMarcRecord.FIELD_TERMINATOR;
+        RawMarcRecord raw = new RawMarcRecord(bytes, RawMarcReader.UTF8);
+        assertNull(raw.toMarcXml());
+        assertNull(raw.getControlNumber());
+    }
+
+}
@@ -4,9 +4,11 @@ import org.sqlite.SQLiteDataSource;
 
 import javax.sql.DataSource;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Statement;
 
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.spy;
@@ -40,10 +42,42 @@ public class SqliteTestUtils {
         return spyAuthDBConnection;
     }
 
+    // A file database is shared by all the connections from this data source,
+    // unlike the in-memory database, e.g. for the lookup threads of a conversion pipeline.
+    static AuthDBConnection sqliteFileAuthDBConnection(Path dbFile) throws IOException, SQLException {
+        SQLiteDataSource ds = new SQLiteDataSource();
+        ds.setUrl("jdbc:sqlite:" + dbFile.toString());
+        AuthDBConnection spyAuthDBConnection = spy(AuthDBConnection.class);
+        doReturn(ds).when(spyAuthDBConnection).dataSource();
+        Connection connection = ds.getConnection();
+        createAuthorityTables(connection);
+        connection.close();
+        return spyAuthDBConnection;
+    }
+
     static AuthDBLookup sqliteAuthDBLookup() throws IOException, SQLException {
         AuthDBLookup authLookup = new AuthDBLookup();
         authLookup.setAuthDBConnection(sqliteAuthDBConnection());
         return authLookup;
     }
 
-}
\ No newline at end of file
+    // Authority data for the authority-keys in the 123.mrc test resource
+    static final String AUTH_URI_360386_920 = "http://id.loc.gov/authorities/names/n80035584";
+    static final String AUTH_URI_360386_922 = "http://viaf.org/viaf/59138487";
+    static final String AUTH_URI_1075272_921 = "http://id.loc.gov/authorities/subjects/sh85146947";
+
+    static void createAuthorityTables(Connection connection) throws SQLException {
+        Statement s = connection.createStatement();
+        s.executeUpdate("CREATE TABLE AUTHORITY (authority_key TEXT, authority_id TEXT, ved_offset INTEGER)");
+        s.executeUpdate("CREATE TABLE AUTHORVED (offset INTEGER, tag_number TEXT, tag TEXT)");
+        s.executeUpdate("INSERT INTO AUTHORITY VALUES ('360386', 'n  80035584', 1)");
+        s.executeUpdate("INSERT INTO AUTHORITY VALUES ('1075272', 'sh 85146947', 2)");
+        s.executeUpdate("INSERT INTO AUTHORVED VALUES (1, '100', 'Amellér, André, 1912-1990')");
+        s.executeUpdate("INSERT INTO AUTHORVED VALUES (1, '920', '" + AUTH_URI_360386_920 + "')");
+        s.executeUpdate("INSERT INTO AUTHORVED VALUES (1, '922', '" + AUTH_URI_360386_922 + "')");
+        s.executeUpdate("INSERT INTO AUTHORVED VALUES (2, '150', 'Wind quintets')");
+        s.executeUpdate("INSERT INTO AUTHORVED VALUES (2, '921', '" + AUTH_URI_1075272_921 + "')");
+        s.close();
+    }
+
+}
@@ -0,0 +1,106 @@
+package edu.stanford;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcStreamReader;
+import org.marc4j.MarcWriter;
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.DataField;
+import org.marc4j.marc.MarcFactory;
+import org.marc4j.marc.Record;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class StreamingMarcXmlWriterTest {
+
+    private MarcTestUtils marcTestUtils;
+    private List<Record> records;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        records = new ArrayList<>();
+        for (String filePath : new String[]{marcTestUtils.authMarcFilePath, marcTestUtils.marcFilePath}) {
+            MarcStreamReader reader = new MarcStreamReader(new FileInputStream(filePath));
+            while (reader.hasNext())
+                records.add(reader.next());
+        }
+    }
+
+    private static byte[] writeRecords(MarcWriter writer, ByteArrayOutputStream out, List<Record> records) {
+        for (Record record : records)
+            writer.write(record);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private static void assertSameOutput(List<Record> records) {
+        for (boolean indent : new boolean[]{true, false}) {
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            assertArrayEquals(
+                    writeRecords(new MarcXmlWriter(expected, "UTF-8", indent), expected, records),
+                    writeRecords(new StreamingMarcXmlWriter(actual, indent), actual, records));
+        }
+    }
+
+    @Test
+    public void writeSameOutput() throws Exception {
+        assertSameOutput(records);
+        assertSameOutput(new ArrayList<>());
+    }
+
+    @Test
+    public void writeSameOutputForMarcXmlWriterRecords() throws Exception {
+        // Records that the MarcXmlWriter writes for the streaming writer, between its records
+        MarcFactory factory = MarcFactory.newInstance();
+        List<Record> special = new ArrayList<>(records);
+        String[] data = {"tab\tcharacter", "next\u0085line", "line separator", "emoji 😀", ""};
+        for (String text : data) {
+            Record record = marcTestUtils.getMarcRecord();
+            DataField field = factory.newDataField("500", ' ', ' ');
+            field.addSubfield(factory.newSubfield('a', text));
+            record.addVariableField(field);
+            special.add(record);
+        }
+        Record record = marcTestUtils.getMarcRecord();
+        record.addVariableField(factory.newDataField("500", ' ', ' '));
+        special.add(record);
+        special.add(records.get(0));
+        assertSameOutput(special);
+    }
+
+    @Test
+    public void escapedText() throws Exception {
+        Record record = marcTestUtils.getMarcRecord();
+        DataField field = MarcFactory.newInstance().newDataField("500", '1', '0');
+        field.addSubfield(MarcFactory.newInstance().newSubfield('a', "A & B <C> \"D\" 'E' é €"));
+        record.addVariableField(field);
+        byte[] xml = StreamingMarcXmlWriter.recordXml(record);
+        assertNotNull(xml);
+        assertTrue(new String(xml, "UTF-8").contains(">A &amp; B &lt;C&gt; \"D\" 'E' é €<"));
+        List<Record> escaped = new ArrayList<>();
+        escaped.add(record);
+        assertSameOutput(escaped);
+    }
+
+    @Test
+    public void recordXml() throws Exception {
+        for (Record record : records) {
+            byte[] document = MarcXmlMarkup.document(record, true, null);
+            assertArrayEquals(MarcXmlMarkup.INDENTED.recordXml(document), StreamingMarcXmlWriter.recordXml(record));
+        }
+        Record record = marcTestUtils.getMarcRecord();
+        record.addVariableField(MarcFactory.newInstance().newControlField("005", "\u0001"));
+        assertNull(StreamingMarcXmlWriter.recordXml(record));
+    }
+
+}
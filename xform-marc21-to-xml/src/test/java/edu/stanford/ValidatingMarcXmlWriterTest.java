@@ -0,0 +1,78 @@
+package edu.stanford;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.marc4j.MarcWriter;
+import org.marc4j.MarcXmlWriter;
+import org.marc4j.marc.Record;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ValidatingMarcXmlWriterTest {
+
+    private MarcTestUtils marcTestUtils;
+    private Record authRecord;
+    private Record marcRecord;
+
+    @Before
+    public void setUp() throws Exception {
+        marcTestUtils = new MarcTestUtils();
+        authRecord = marcTestUtils.getMarcRecord(marcTestUtils.authMarcFilePath);
+        marcRecord = marcTestUtils.getMarcRecord();
+    }
+
+    private byte[] writeRecords(MarcWriter writer, ByteArrayOutputStream out, Record... records) {
+        for (Record record : records)
+            writer.write(record);
+        writer.close();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void writeSameOutput() throws Exception {
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        ValidatingMarcXmlWriter writer = new ValidatingMarcXmlWriter(actual, true);
+        assertArrayEquals(
+                writeRecords(new MarcXmlWriter(expected, true), expected, authRecord, marcRecord),
+                writeRecords(writer, actual, authRecord, marcRecord));
+        assertEquals(0, writer.getInvalidRecords());
+    }
+
+    @Test
+    public void writeInvalidRecord() throws Exception {
+        Record invalidRecord = marcTestUtils.getInvalidMarcRecord();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        ValidatingMarcXmlWriter writer = new ValidatingMarcXmlWriter(actual, true);
+        // The invalid record is written, and the validation continues with the next records
+        assertArrayEquals(
+                writeRecords(new MarcXmlWriter(expected, true), expected, authRecord, invalidRecord, marcRecord),
+                writeRecords(writer, actual, authRecord, invalidRecord, marcRecord));
+        assertEquals(1, writer.getInvalidRecords());
+        marcTestUtils.createOutputPath();
+        Path xmlFile = marcTestUtils.createOutputFile("invalid", ".xml");
+        Files.write(xmlFile, actual.toByteArray());
+        assertFalse(MarcXMLValidator.valid(xmlFile.toString()));
+        marcTestUtils.deleteOutputPath();
+    }
+
+    @Test
+    public void chunkRecordXml() throws Exception {
+        MarcToXML marcToXML = new MarcToXML();
+        Record invalidRecord = marcTestUtils.getInvalidMarcRecord();
+        assertArrayEquals(MarcXmlChunkWriter.recordXml(authRecord), marcToXML.validatedRecordXml(authRecord));
+        assertArrayEquals(MarcXmlChunkWriter.recordXml(invalidRecord), marcToXML.validatedRecordXml(invalidRecord));
+        // The invalid record is an error of the conversion
+        assertEquals(1, marcToXML.errors.get());
+        assertEquals(1, marcToXML.metrics.getErrors());
+    }
+
+}